@@ -0,0 +1,50 @@
+package essence.bench;
+
+import edu.marist.jointstudy.essence.core.mine.HeaderHasher;
+import edu.marist.jointstudy.essence.core.mine.Nonce;
+import edu.marist.jointstudy.essence.core.structures.Block;
+import edu.marist.jointstudy.essence.core.structures.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes per second of a single mining attempt: re-serializing and re-hashing the whole block (how blocks used to be
+ * mined) against hashing only the nonce on top of the precomputed header midstate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockHashingBenchmark {
+
+    private Block block;
+    private HeaderHasher hasher;
+    private long nonce;
+
+    @Setup
+    public void setup() {
+        Block genesis = Block.newBlock(Arrays.asList(Transaction.wrapUnsafeNoId("Hello", "World", "")), null);
+        block = Block.newBlock(Arrays.asList(
+                Transaction.wrapUnsafeNoId("Hi", "Universe", ""),
+                Transaction.wrapUnsafeNoId("Howdy", "Space", "")), genesis);
+
+        // the same bytes Block.toByteArray() hashes, minus the nonce at the end
+        byte[] header = block.toByteArray();
+        hasher = new HeaderHasher(Arrays.copyOf(header, header.length - Long.BYTES)).forWorker();
+    }
+
+    @Benchmark
+    public Object wholeBlock() {
+        block.setNonce(Nonce.newNonce(nonce++));
+        return block.getHash();
+    }
+
+    @Benchmark
+    public byte[] midstate() {
+        return hasher.hash(nonce++);
+    }
+}
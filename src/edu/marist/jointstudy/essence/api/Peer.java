@@ -1,14 +1,19 @@
 package edu.marist.jointstudy.essence.api;
 
+import edu.marist.jointstudy.essence.api.client.BlockchainPullEvent;
+import edu.marist.jointstudy.essence.api.client.BlockchainPullObserver;
 import edu.marist.jointstudy.essence.api.client.Friend;
 import edu.marist.jointstudy.essence.api.client.RestClient;
 import edu.marist.jointstudy.essence.api.server.BlockchainServer;
 import edu.marist.jointstudy.essence.api.server.SybilBlockchainServer;
 import edu.marist.jointstudy.essence.api.store.PersistentStoreSingleton;
 import edu.marist.jointstudy.essence.api.store.Preferences;
-import edu.marist.jointstudy.essence.api.store.Store;
+import edu.marist.jointstudy.essence.api.store.WriteBehindStore;
+import edu.marist.jointstudy.essence.core.security.KeyFile;
+import edu.marist.jointstudy.essence.core.security.Security;
 import edu.marist.jointstudy.essence.core.structures.Block;
 import edu.marist.jointstudy.essence.core.structures.Blockchain;
+import edu.marist.jointstudy.essence.core.structures.Mempool;
 import edu.marist.jointstudy.essence.core.structures.Transaction;
 import okhttp3.HttpUrl;
 
@@ -45,8 +50,12 @@ public class Peer {
     /** A list of this peer's {@link Friend}s.*/
     private List<Friend> friends;
 
+    /** Where the server and friends save the blockchain, kept in memory and written to disk in the background. */
+    private WriteBehindStore<Blockchain> bcStore;
+
     /**
-     * This peer uses a {@code PersistentStore<Blockchain>} as its store.
+     * This peer uses a {@code BlockLogStore} as its store, see {@link PersistentStoreSingleton}, behind a
+     * {@link WriteBehindStore} its server and friends share.
      *
      * @param port the port this peer runs out of.
      * @param friendUrls A list of urls of this peer's friends on the network. Two peers are <em>friends</em> if they
@@ -54,7 +63,11 @@ public class Peer {
      *                   friends do.
      */
     public Peer(int port, List<HttpUrl> friendUrls) {
-        Store<Blockchain> bcStore = PersistentStoreSingleton.INSTANCE.get();
+        // the same identity as last time, or a new one generated in the background the first time
+        Security.INSTANCE.useKeyFile(
+                PersistentStoreSingleton.INSTANCE.directory().resolve(KeyFile.name(Security.INSTANCE.getScheme())));
+
+        this.bcStore = WriteBehindStore.of(PersistentStoreSingleton.INSTANCE.get());
 
         // map urls to friends
         this.friends = friendUrls.stream().map((url) -> new Friend(url, bcStore)).collect(Collectors.toList());
@@ -64,6 +77,22 @@ public class Peer {
                 new SybilBlockchainServer(port, friendUrls, bcStore)
                 :
                 new BlockchainServer(port, friendUrls, bcStore);
+
+        // the transactions waiting to be mined follow on from whichever blockchain was saved last
+        BlockchainPullObserver resync = new BlockchainPullObserver("Transaction buffer") {
+            @Override
+            public void on(BlockchainPullEvent e) {
+                if(e == BlockchainPullEvent.SAVED) {
+                    server.resyncTransactionBuffer();
+                }
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                // nothing was saved
+            }
+        };
+        this.friends.forEach((f) -> f.addObserver(resync));
         this.client = new RestClient(friends);
     }
 
@@ -93,6 +122,11 @@ public class Peer {
         serverService.shutdown();
         this.serverService = Executors.newCachedThreadPool();
         client.stop();
+        try {
+            bcStore.flush(); // the blockchain as last saved, and the last batch of blocks
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
     }
 
     /** @return a read-only copy of the peer's friend urls. */
@@ -118,6 +152,14 @@ public class Peer {
         return this.server.blocks();
     }
 
+    /**
+     * @param count the most blocks to return.
+     * @return a read-only copy of the newest blocks in the server's blockchain, current block first.
+     */
+    public List<Block> latestBlocks(int count) {
+        return this.server.latestBlocks(count);
+    }
+
     /**
      * <p>Requests the server mine its blockchain.</p>
      * <p>Note: the server's service handles the threading. The mining will happen on the server's thread.</p>
@@ -137,7 +179,7 @@ public class Peer {
         }, serverService);
     }
 
-    public Transaction submitTransactionToBuffer(Transaction t) {
+    public Mempool.Offer submitTransactionToBuffer(Transaction t) {
         return this.server.submitTransactionToBuffer(t);
     }
 }
@@ -1,15 +1,25 @@
 package edu.marist.jointstudy.essence.api.client;
 
+import com.google.gson.stream.JsonReader;
 import edu.marist.jointstudy.essence.api.client.service.BlockchainService;
+import edu.marist.jointstudy.essence.api.parse.BlockchainStream;
 import edu.marist.jointstudy.essence.api.parse.GsonSingleton;
 import edu.marist.jointstudy.essence.api.store.Store;
+import edu.marist.jointstudy.essence.api.store.WriteBehindStore;
+import edu.marist.jointstudy.essence.core.structures.Block;
+import edu.marist.jointstudy.essence.core.structures.BlockHeader;
 import edu.marist.jointstudy.essence.core.structures.Blockchain;
 import okhttp3.HttpUrl;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Another peer on the network that this peer knows about. This peer periodically asks for its friends' blockchains to
@@ -20,8 +30,11 @@ public class Friend {
     /** How this peer contacts its friend over http. This contains the base url of the friend.*/
     private Retrofit httpClient;
 
-    /** Where to save blockchains once they're downloaded.*/
-    private Store<Blockchain> store;
+    /** Where to save blockchains once they're downloaded, shared with this peer's server.*/
+    private WriteBehindStore<Blockchain> store;
+
+    /** The tag of the friend's blockchain when it was last synced, null if it hasn't been yet. */
+    private String lastETag;
 
     /** A number of observer classes who wish to be notified about a given download process. */
     private List<BlockchainPullObserver> observers = new ArrayList<>();
@@ -29,14 +42,15 @@ public class Friend {
     /**
      * Another peer on the network that this peer knows about.
      * @param url The url of the friend.
-     * @param store Where to save blockchains.
+     * @param store Where to save blockchains. Should be the store this peer's server mines into, see
+     *              {@link WriteBehindStore}.
      */
     public Friend(HttpUrl url, Store<Blockchain> store) {
         httpClient = new Retrofit.Builder()
                 .baseUrl(url)
                 .addConverterFactory(GsonConverterFactory.create(GsonSingleton.INSTANCE.get()))
                 .build();
-        this.store = store;
+        this.store = WriteBehindStore.of(store);
     }
 
     public void addObserver(BlockchainPullObserver o) {
@@ -57,16 +71,43 @@ public class Friend {
         return httpClient.baseUrl();
     }
 
+    /** How many blocks are downloaded per request while catching up. */
+    private static final int BLOCKS_PER_REQUEST = 500;
+
+    /** How many headers are downloaded per request while looking for where the blockchains split. */
+    private static final int HEADERS_PER_REQUEST = 2000;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+
     /**
-     * <p>Sends a GET request for this friend's blockchain, and if the request is successful, and if the blockchain that's
-     * successfully downloaded is valid, it is saved to disk.
+     * <p>Catches up with this friend's blockchain, downloading only the blocks this peer doesn't have, and if the
+     * blocks that are downloaded are valid, saves the result to disk.
+     *
+     * <p>First the friend's headers are compared against this peer's blocks to find the height where the two
+     * blockchains split, usually this peer's height. Only the friend's blocks from that height up are downloaded and
+     * checked, the blocks both peers share aren't checked again. A friend with fewer blocks than this peer is skipped
+     * without downloading any.</p>
+     *
+     * <p>If the friend's blockchain only adds blocks to this peer's, they're appended to this peer's blockchain in
+     * place (see {@link Blockchain#appendAll(List)}), nothing this peer already has is copied. Otherwise the friend's
+     * blocks are appended to the blocks both have in common and the result is saved in place of this peer's.</p>
+     *
+     * <p>The tag the friend gave its blockchain the last time it was synced is sent along, if the friend's blockchain
+     * hasn't changed since, nothing is downloaded, parsed or checked.</p>
      * <ul>
      *  <li>Observers are notified when a downloaded starts with {@code on(DOWNLOADING)}.</li>
      *  <li>Observers are notified when a download is successful with {@code on(DOWNLOADED)}.</li>
-     *  <li>If the request fails, observers are notified with {@code onFailed(Exception e)}.</li>
+     *  <li>If the request fails, or a downloaded block is invalid, observers are notified with
+     *  {@code onFailed(Exception e)}.</li>
      *  <li>If the request succeeds, observers are notified when saving starts with {@code on(SAVING}.</li>
-     *  <li>If the request succeeds, but the blockchain is invalid, observers are notified with {@code on(SKIPPED)}.</li>
-     *  <li>If the request succeeds, and the blockchain is valid, observers are notified with {@code on(SAVED)}.</li>
+     *  <li>If the friend's blockchain hasn't changed since it was last synced, observers are notified with
+     *  {@code on(SKIPPED)} right after {@code on(DOWNLOADING)}.</li>
+     *  <li>If the request succeeds, but the blockchain isn't ahead of this peer's, observers are notified with
+     *  {@code on(SKIPPED)}.</li>
+     *  <li>If the request succeeds, and the blockchain is ahead of this peer's, observers are notified with
+     *  {@code on(SAVED)}.</li>
+     *  <li>If this peer mined a block, or saved another friend's blockchain, while syncing, the synced blockchain
+     *  isn't saved over it. Observers are notified with {@code on(SKIPPED)}, the next pull syncs again.</li>
      * </ul>
      *
      */
@@ -74,23 +115,190 @@ public class Friend {
         try {
             notifyObservers(BlockchainPullEvent.DOWNLOADING);
 
-            Blockchain bc = httpClient.create(BlockchainService.class).getBlockchain().execute().body();
+            BlockchainService service = httpClient.create(BlockchainService.class);
+            // no headers, just whether anything changed, before this peer's blockchain is even read
+            Response<BlockHeader.Page> probe = service.getHeaders(lastETag, 0, 0).execute();
+            if(probe.code() == HTTP_NOT_MODIFIED) {
+                notifyObservers(BlockchainPullEvent.SKIPPED);
+                return;
+            }
+            body(probe, "Header");
+
+            Blockchain stored = store.get().orElse(null);
+            Blockchain ourBc = stored == null ? new Blockchain() : stored;
+            Block ourTip = ourBc.getCurrentBlock();
+            int ourLastTxId = ourBc.getLastTransactionId().orElse(0);
+            Optional<Sync> sync = syncBlockchain(service, ourBc);
 
             notifyObservers(BlockchainPullEvent.DOWNLOADED);
             notifyObservers(BlockchainPullEvent.SAVING);
 
-            Blockchain ourBc = store.get().orElse(new Blockchain());
-            if(shouldSaveBlockchain(bc, ourBc)) {
-                store.save(bc);
+            if(sync.isPresent() && sync.get().suffix != null) {
+                // appending fails if a block was mined meanwhile, saving if another friend's blockchain replaced it
+                if(!ourBc.appendAll(sync.get().suffix) || !store.save(ourBc, ourBc)) {
+                    // this peer's blockchain changed while syncing, the next pull syncs again
+                    notifyObservers(BlockchainPullEvent.SKIPPED);
+                    return;
+                }
+                notifyObservers(BlockchainPullEvent.SAVED);
+            } else if(sync.isPresent() && shouldSaveBlockchain(sync.get().replacement, ourLastTxId)) {
+                if(!save(stored, ourTip, sync.get().replacement)) {
+                    // this peer's blockchain changed while syncing, the next pull syncs again
+                    notifyObservers(BlockchainPullEvent.SKIPPED);
+                    return;
+                }
                 notifyObservers(BlockchainPullEvent.SAVED);
             } else {
                 notifyObservers(BlockchainPullEvent.SKIPPED);
             }
+            // only once the friend's blockchain is dealt with, so a failed sync is tried again in full
+            lastETag = probe.headers().get("ETag");
         } catch (Exception ignored) {
             notifyObserversFailure(ignored);
         }
     }
 
+    /**
+     * Saves the synced blockchain in place of this peer's, unless this peer's changed since the sync started. Blocks
+     * are mined onto this peer's blockchain in place, under its lock (see {@link Blockchain#add(List)}), so its tip is
+     * checked under the same lock.
+     *
+     * @param stored this peer's blockchain when the sync started, null if it didn't have one.
+     * @param ourTip its current block when the sync started.
+     * @return true if the synced blockchain was saved.
+     */
+    private boolean save(Blockchain stored, Block ourTip, Blockchain synced) {
+        if(stored == null) {
+            return store.save(null, synced);
+        }
+        synchronized (stored) {
+            return stored.getCurrentBlock() == ourTip && store.save(stored, synced);
+        }
+    }
+
+    /** What a sync downloaded: blocks to append to this peer's blockchain, or a blockchain to replace it with. */
+    private static final class Sync {
+        /** The friend's blocks above this peer's current block, null if the blockchains split below it. */
+        private final List<Block> suffix;
+
+        /**
+         * This peer's blockchain up to where it splits from the friend's, followed by the friend's blocks from there,
+         * null if the friend's blocks are all above this peer's current block.
+         */
+        private final Blockchain replacement;
+
+        private Sync(List<Block> suffix, Blockchain replacement) {
+            this.suffix = suffix;
+            this.replacement = replacement;
+        }
+    }
+
+    /**
+     * @param ourBc this peer's blockchain, left as it is.
+     * @return the friend's blocks this peer doesn't have, or empty if the friend has fewer blocks or the same blocks.
+     * The blocks above this peer's current block aren't checked yet, the ones of a replacement are.
+     * @throws IllegalArgumentException if a downloaded block of a replacement isn't a valid next block.
+     */
+    private Optional<Sync> syncBlockchain(BlockchainService service, Blockchain ourBc) throws IOException {
+        int ourHeight = ourBc.size();
+        BlockHeader.Page tip = headers(service, Math.max(0, ourHeight - 1), 1);
+        int theirHeight = tip.getHeight();
+        if(theirHeight < ourHeight || (theirHeight == ourHeight && sameBlock(ourBc, tip.getHeaders()))) {
+            return Optional.empty();
+        }
+
+        int fork = sameBlock(ourBc, tip.getHeaders()) ? ourHeight : forkHeight(service, ourBc, theirHeight);
+        if(fork > 0 && fork == ourHeight) {
+            List<Block> suffix = new ArrayList<>();
+            Block previous = ourBc.getBlock(ourHeight - 1).get();
+            while(ourHeight + suffix.size() < theirHeight) {
+                List<Block> blocks = blocks(service, ourHeight + suffix.size(), previous);
+                if(blocks.isEmpty()) {
+                    break; // the friend's blockchain got shorter while downloading
+                }
+                suffix.addAll(blocks);
+                previous = blocks.get(blocks.size() - 1);
+            }
+            return suffix.isEmpty() ? Optional.empty() : Optional.of(new Sync(suffix, null));
+        }
+
+        Blockchain candidate = fork == 0 ? new Blockchain()
+                : Blockchain.newUnsafeBlockchain(ourBc.getBlock(fork - 1).get());
+        while(candidate.size() < theirHeight) {
+            List<Block> blocks = blocks(service, candidate.size(), candidate.getCurrentBlock());
+            if(blocks.isEmpty()) {
+                break; // the friend's blockchain got shorter while downloading
+            }
+            blocks.forEach(candidate::append);
+        }
+        return Optional.of(new Sync(null, candidate));
+    }
+
+    /**
+     * Looks for the lowest height where the friend's blocks differ from this peer's. Steps down from the top in
+     * doubling steps until a block both have is found, then reads the headers above it.
+     *
+     * @return the height of the first block that differs, this peer's height if all of its blocks are the friend's.
+     */
+    private int forkHeight(BlockchainService service, Blockchain ourBc, int theirHeight) throws IOException {
+        int top = Math.min(ourBc.size(), theirHeight);
+        int shared = -1; // the highest height known to be the same on both
+        int step = 1;
+        for(int h = top - 1; h >= 0; h = h == 0 ? -1 : Math.max(0, h - step), step *= 2) {
+            if(sameBlock(ourBc, headers(service, h, 1).getHeaders())) {
+                shared = h;
+                break;
+            }
+        }
+        for(int from = shared + 1; from < top; ) {
+            List<BlockHeader> headers = headers(service, from, Math.min(HEADERS_PER_REQUEST, top - from)).getHeaders();
+            if(headers.isEmpty()) {
+                return from;
+            }
+            for(BlockHeader header : headers) {
+                if(!sameBlock(ourBc, Collections.singletonList(header))) {
+                    return header.getId();
+                }
+            }
+            from += headers.size();
+        }
+        return top;
+    }
+
+    /** @return true if the first of the headers is of a block this peer also has. */
+    private static boolean sameBlock(Blockchain ourBc, List<BlockHeader> headers) {
+        if(headers == null || headers.isEmpty()) {
+            return false;
+        }
+        BlockHeader header = headers.get(0);
+        return ourBc.getBlock(header.getId())
+                .map((b) -> b.getHash().toString().equals(header.getHash().toString()))
+                .orElse(false);
+    }
+
+    private static BlockHeader.Page headers(BlockchainService service, int from, int limit) throws IOException {
+        return body(service.getHeaders(null, from, limit).execute(), "Header");
+    }
+
+    /** @return the body of a successful response. */
+    private static <T> T body(Response<T> response, String what) throws IOException {
+        if(!response.isSuccessful() || response.body() == null) {
+            throw new IOException(what + " download failed with status " + response.code());
+        }
+        return response.body();
+    }
+
+    /** @return the friend's blocks from the given height, parsed one block at a time as they download. */
+    private static List<Block> blocks(BlockchainService service, int from, Block previous) throws IOException {
+        Response<ResponseBody> response = service.getBlocks(from, BLOCKS_PER_REQUEST).execute();
+        if(!response.isSuccessful() || response.body() == null) {
+            throw new IOException("Block download failed with status " + response.code());
+        }
+        try (JsonReader reader = new JsonReader(response.body().charStream())) {
+            return BlockchainStream.readSuffix(GsonSingleton.INSTANCE.get(), reader, previous);
+        }
+    }
+
     private BlockchainPullEvent lastEvent;
     private Exception lastException = null;
 
@@ -105,10 +313,13 @@ public class Friend {
         observers.forEach((o) -> o.onFailed(e));
     }
 
-    // TODO: document
-    private boolean shouldSaveBlockchain(Blockchain toBeSaved, Blockchain comparedAgainst) {
-        return toBeSaved.isMined() && toBeSaved.isVerified() &&
-                comparedAgainst.getLastTransactionId().orElse(0) < toBeSaved.getLastTransactionId().orElse(0);
+    /**
+     * @param toBeSaved the synced blockchain. Its downloaded blocks were checked as they were appended.
+     * @param ourLastTxId the last transaction id of this peer's blockchain before syncing.
+     * @return true if the synced blockchain has more transactions than this peer's had.
+     */
+    private boolean shouldSaveBlockchain(Blockchain toBeSaved, int ourLastTxId) {
+        return ourLastTxId < toBeSaved.getLastTransactionId().orElse(0);
     }
 
 }
@@ -1,15 +1,35 @@
 package edu.marist.jointstudy.essence.api.client.service;
 
-import edu.marist.jointstudy.essence.core.structures.Blockchain;
+import edu.marist.jointstudy.essence.core.structures.BlockHeader;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
+import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 
 /**
  * Represents getting a blockchain from a peer, parsing it, and getting it into a model class.
  */
 public interface BlockchainService {
 
+    /** The blockchain in the flat, versioned json format, read as it downloads, see {@code BlockchainStream}. */
+    @Streaming
     @GET("blockchain")
-    Call<Blockchain> getBlockchain();
+    Call<ResponseBody> getBlockchain();
+
+    /**
+     * The headers of up to {@code limit} blocks from height {@code from}, and the height of the whole blockchain.
+     * @param eTag the tag of the blockchain when it was last synced, the answer is 304 Not Modified if it hasn't changed
+     *             since. Null to always get the headers.
+     */
+    @GET("blockchain/headers")
+    Call<BlockHeader.Page> getHeaders(@Header("If-None-Match") String eTag,
+                                      @Query("from") int from, @Query("limit") int limit);
+
+    /** Up to {@code limit} blocks from height {@code from}, in the same format as {@code getBlockchain()}. */
+    @Streaming
+    @GET("blockchain/blocks")
+    Call<ResponseBody> getBlocks(@Query("from") int from, @Query("limit") int limit);
 
 }
@@ -2,6 +2,8 @@ package edu.marist.jointstudy.essence.api.parse;
 
 import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+import edu.marist.jointstudy.essence.core.mine.Mining;
 import edu.marist.jointstudy.essence.core.mine.Nonce;
 import edu.marist.jointstudy.essence.core.structures.Block;
 import edu.marist.jointstudy.essence.core.structures.Transaction;
@@ -9,7 +11,31 @@ import edu.marist.jointstudy.essence.core.structures.Transaction;
 import java.lang.reflect.Type;
 import java.util.List;
 
-public class BlockSerializer implements JsonDeserializer<Block> {
+public class BlockSerializer implements JsonDeserializer<Block>, JsonSerializer<Block> {
+
+    /**
+     * Same fields in the same order Gson would write them, except the previous block comes from
+     * {@code getPreviousBlock()}: blocks decoded lazily from storage load it on demand instead of holding it. The
+     * header version is left out for legacy blocks, so they're written as they always were.
+     */
+    @Override
+    public JsonElement serialize(Block block, Type type, JsonSerializationContext context) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", block.getId());
+        json.add("nonce", context.serialize(block.getNonce(), Nonce.class));
+        if(block.getHeaderVersion() != 0) {
+            json.addProperty("headerVersion", block.getHeaderVersion());
+        }
+        json.addProperty("difficulty", block.getDifficulty());
+        json.addProperty("timestamp", block.getTimestamp());
+        json.add("hash", context.serialize(block.getHash(), Hashcode.class));
+        json.add("transactions", context.serialize(block.getTransactions(),
+                new TypeToken<List<Transaction>>(){}.getType()));
+        Block previous = block.getPreviousBlock();
+        json.add("previousBlock", previous == null ? JsonNull.INSTANCE : context.serialize(previous, Block.class));
+        return json;
+    }
+
     @Override
     public Block deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
         Type txListToken = new TypeToken<List<Transaction>>(){}.getType();
@@ -25,15 +51,28 @@ public class BlockSerializer implements JsonDeserializer<Block> {
                 Nonce.class
         );
 
+        // blocks from before difficulty and timestamps were stored don't have them
+        JsonElement difficultyElement = jsonElement.getAsJsonObject().get("difficulty");
+        int difficulty = difficultyElement == null || difficultyElement.isJsonNull() ?
+                Mining.initialDifficulty : difficultyElement.getAsInt();
+        JsonElement versionElement = jsonElement.getAsJsonObject().get("headerVersion");
+        int headerVersion = versionElement == null || versionElement.isJsonNull() ? 0 : versionElement.getAsInt();
+        JsonElement timestampElement = jsonElement.getAsJsonObject().get("timestamp");
+        long timestamp = timestampElement == null || timestampElement.isJsonNull() ?
+                0L : timestampElement.getAsLong();
+
         if(jsonElement.getAsJsonObject().get("previousBlock").isJsonNull()) {
-            return Block.newUnsafeBlock(txs, null, nonce);
+            return Block.newUnsafeBlock(txs, null, nonce, headerVersion, difficulty, timestamp);
         }
         return Block.newUnsafeBlock(
                 txs,
                 jsonDeserializationContext.deserialize(
                         jsonElement.getAsJsonObject().get("previousBlock").getAsJsonObject(),
                         Block.class),
-                nonce
+                nonce,
+                headerVersion,
+                difficulty,
+                timestamp
         );
     }
 }
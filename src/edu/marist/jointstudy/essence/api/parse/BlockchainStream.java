@@ -0,0 +1,335 @@
+package edu.marist.jointstudy.essence.api.parse;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+import edu.marist.jointstudy.essence.core.mine.Mining;
+import edu.marist.jointstudy.essence.core.mine.Nonce;
+import edu.marist.jointstudy.essence.core.structures.Block;
+import edu.marist.jointstudy.essence.core.structures.Blockchain;
+import edu.marist.jointstudy.essence.core.structures.Transaction;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * <p>Writes and reads a blockchain one block at a time, in the versioned flat format:
+ *
+ * <pre>
+ * {
+ *   "version": 2,
+ *   "blocks": [
+ *     {"id": 0, "nonce": "...", "difficulty": 12, "timestamp": 0, "hash": "...", "previousHash": null,
+ *      "transactions": [...]},
+ *     {"id": 1, ..., "previousHash": "...", ...},
+ *     ...
+ *   ]
+ * }
+ * </pre>
+ *
+ * <p>Blocks are listed genesis first and point at the block before them by hash, instead of nesting it. Neither
+ * side needs the whole document in memory or a stack as deep as the blockchain is long.</p>
+ *
+ * <p>Blocks whose hashes commit their difficulty and timestamp also have a {@code "headerVersion"} after their
+ * nonce (see {@link Block#HEADER_VERSION}); legacy blocks leave it out, so they're written as they always were.</p>
+ *
+ * <p>Reading also accepts the older formats: version 1, {@code {"currentBlock": {..., "previousBlock": {...}}}}
+ * with each block nesting the one before it (how {@code bc.json} files were written), and a bare array of blocks.
+ * Nested blocks are read with an explicit stack rather than recursion, so old blockchains of any length can be
+ * read.</p>
+ */
+public final class BlockchainStream {
+
+    /** The version written by {@code write()}. */
+    public static final int VERSION = 2;
+
+    private static final Type TRANSACTIONS = new TypeToken<List<Transaction>>(){}.getType();
+
+    private BlockchainStream() { }
+
+    /**
+     * Writes the blocks of the blockchain as they are when this is called. Blocks added while writing are left out.
+     * @param bc the blockchain to write.
+     * @param gson writes the nonces, hashes and transactions.
+     * @param out where the blockchain is written.
+     */
+    public static void write(Blockchain bc, Gson gson, JsonWriter out) throws IOException {
+        writeSuffix(bc, 0, Integer.MAX_VALUE, gson, out);
+    }
+
+    /**
+     * Writes some of the blocks of the blockchain, in the same format as {@code write()}. The first block written
+     * still points at the hash of the block before it, so the reader can check the blocks follow on from its own.
+     *
+     * @param bc the blockchain to write blocks of.
+     * @param from the height of the first block to write.
+     * @param limit the most blocks to write.
+     * @param gson writes the nonces, hashes and transactions.
+     * @param out where the blocks are written.
+     */
+    public static void writeSuffix(Blockchain bc, int from, int limit, Gson gson, JsonWriter out) throws IOException {
+        int size = bc.size();
+        int to = (int) Math.min(size, (long) Math.max(0, from) + limit);
+        out.beginObject();
+        out.name("version").value(VERSION);
+        out.name("blocks");
+        out.beginArray();
+        Hashcode previousHash = null;
+        if(from > 0 && from < to) {
+            previousHash = bc.getBlock(from - 1).map(Block::getHash).orElse(null);
+        }
+        for(int height = Math.max(0, from); height < to; height++) {
+            // one at a time, so stored blocks can be evicted again once they're written
+            int h = height;
+            Block b = bc.getBlock(h).orElseThrow(() -> new IOException("The blockchain has no block at height " + h));
+            Hashcode hash = b.getHash();
+            writeBlock(b, hash, previousHash, gson, out);
+            previousHash = hash;
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    /**
+     * @param gson reads the nonces and transactions.
+     * @param in a blockchain in any of the formats.
+     * @return the blockchain, an empty one if it has no blocks. There are no guarantees the blockchain is mined or
+     * verified.
+     * @throws JsonParseException if the json isn't a blockchain, is a newer version, or its blocks don't point at the
+     * blocks before them.
+     */
+    public static Blockchain read(Gson gson, JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.BEGIN_ARRAY) {
+            return Blockchain.newUnsafeBlockchain(readBlocks(gson, in));
+        }
+
+        Block current = null;
+        in.beginObject();
+        while(in.hasNext()) {
+            String name = in.nextName();
+            if(in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                continue;
+            }
+            switch(name) {
+                case "version":
+                    checkVersion(in.nextInt());
+                    break;
+                case "blocks":
+                    current = readBlocks(gson, in);
+                    break;
+                case "currentBlock":
+                    current = readNestedBlocks(gson, in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return current == null ? new Blockchain() : Blockchain.newUnsafeBlockchain(current);
+    }
+
+    /**
+     * Reads blocks written by {@code writeSuffix()} that follow on from a block the reader already has.
+     *
+     * @param gson reads the nonces and transactions.
+     * @param in the blocks, in the version 2 format or as a bare array.
+     * @param previous the block the first block read follows, null if the first block read is a genesis block.
+     * @return the blocks read, lowest first, each linked to the one before it and the first one to {@code previous}.
+     * @throws JsonParseException if the json isn't a list of blocks, or the blocks don't point at the blocks before
+     * them.
+     */
+    public static List<Block> readSuffix(Gson gson, JsonReader in, Block previous) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        if(in.peek() == JsonToken.BEGIN_ARRAY) {
+            readBlocks(gson, in, previous, blocks);
+            return blocks;
+        }
+        in.beginObject();
+        while(in.hasNext()) {
+            String name = in.nextName();
+            if("version".equals(name) && in.peek() != JsonToken.NULL) {
+                checkVersion(in.nextInt());
+            } else if("blocks".equals(name) && in.peek() != JsonToken.NULL) {
+                readBlocks(gson, in, previous, blocks);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return blocks;
+    }
+
+    private static void checkVersion(int version) {
+        if(version > VERSION) {
+            throw new JsonParseException("Unsupported blockchain version " + version + ", at most "
+                    + VERSION + " can be read.");
+        }
+    }
+
+    private static void writeBlock(Block b, Hashcode hash, Hashcode previousHash, Gson gson, JsonWriter out)
+            throws IOException {
+        out.beginObject();
+        out.name("id").value(b.getId());
+        out.name("nonce");
+        gson.toJson(b.getNonce(), Nonce.class, out);
+        if(b.getHeaderVersion() != 0) {
+            out.name("headerVersion").value(b.getHeaderVersion());
+        }
+        out.name("difficulty").value(b.getDifficulty());
+        out.name("timestamp").value(b.getTimestamp());
+        out.name("hash");
+        gson.toJson(hash, Hashcode.class, out);
+        out.name("previousHash");
+        if(previousHash == null) {
+            // written even though gson may not serialize nulls, so every block has the same fields
+            boolean serializeNulls = out.getSerializeNulls();
+            out.setSerializeNulls(true);
+            out.nullValue();
+            out.setSerializeNulls(serializeNulls);
+        } else {
+            gson.toJson(previousHash, Hashcode.class, out);
+        }
+        out.name("transactions");
+        gson.toJson(b.getTransactions(), TRANSACTIONS, out);
+        out.endObject();
+    }
+
+    /** @return the last block of a flat array of blocks, genesis first, null if the array is empty. */
+    private static Block readBlocks(Gson gson, JsonReader in) throws IOException {
+        return readBlocks(gson, in, null, null);
+    }
+
+    /**
+     * @param previous the block before the first one in the array.
+     * @param read collects the blocks read, if not null.
+     * @return the last block of a flat array of blocks, {@code previous} if the array is empty.
+     */
+    private static Block readBlocks(Gson gson, JsonReader in, Block previous, List<Block> read) throws IOException {
+        Block current = previous;
+        in.beginArray();
+        while(in.hasNext()) {
+            PartialBlock p = new PartialBlock();
+            in.beginObject();
+            while(in.hasNext()) {
+                p.read(in.nextName(), gson, in);
+            }
+            in.endObject();
+            current = p.build(current, true, in);
+            if(read != null) {
+                read.add(current);
+            }
+        }
+        in.endArray();
+        return current;
+    }
+
+    /**
+     * Reads a block that nests the block before it in "previousBlock", which nests the one before it, and so on down
+     * to the genesis block. The blocks being read are kept on a stack instead of the call stack.
+     *
+     * @return the outermost block, linked to the ones it nests.
+     */
+    private static Block readNestedBlocks(Gson gson, JsonReader in) throws IOException {
+        Deque<PartialBlock> outer = new ArrayDeque<>();
+        PartialBlock p = new PartialBlock();
+        Block built = null; // the last block finished, the previous block of the next one to finish
+        in.beginObject();
+        while(true) {
+            if(in.hasNext()) {
+                String name = in.nextName();
+                if("previousBlock".equals(name) && in.peek() == JsonToken.BEGIN_OBJECT) {
+                    // finish the nested block first, then come back to this one
+                    outer.push(p);
+                    p = new PartialBlock();
+                    in.beginObject();
+                } else {
+                    p.read(name, gson, in);
+                }
+            } else {
+                in.endObject();
+                built = p.build(built, false, in);
+                if(outer.isEmpty()) {
+                    return built;
+                }
+                p = outer.pop();
+            }
+        }
+    }
+
+    /** The fields of a block read so far. */
+    private static final class PartialBlock {
+        private Nonce nonce;
+        private int headerVersion = 0; // blocks from before headers had versions
+        private int difficulty = Mining.initialDifficulty; // blocks from before blocks had a difficulty
+        private long timestamp = 0L; // blocks from before blocks had a timestamp
+        private String hash;
+        private String previousHash;
+        private List<Transaction> txs;
+
+        private void read(String name, Gson gson, JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                return;
+            }
+            switch(name) {
+                case "nonce":
+                    nonce = gson.fromJson(in, Nonce.class);
+                    break;
+                case "headerVersion":
+                    headerVersion = in.nextInt();
+                    break;
+                case "difficulty":
+                    difficulty = in.nextInt();
+                    break;
+                case "timestamp":
+                    timestamp = in.nextLong();
+                    break;
+                case "hash":
+                    hash = gson.fromJson(in, Hashcode.class).toString();
+                    break;
+                case "previousHash":
+                    previousHash = gson.fromJson(in, Hashcode.class).toString();
+                    break;
+                case "transactions":
+                    txs = gson.fromJson(in, TRANSACTIONS);
+                    break;
+                default:
+                    // the id follows from the previous block
+                    in.skipValue();
+            }
+        }
+
+        /**
+         * @param previous the block before this one, null if this is the genesis block.
+         * @param checkHash true to check the block hashes to the hash stored with it. Old nested blockchains
+         *                  stored whatever hash the block last had, so theirs aren't checked.
+         * @return the block, linked to the previous one.
+         * @throws JsonParseException if a field is missing, or the hashes stored with the block don't match.
+         */
+        private Block build(Block previous, boolean checkHash, JsonReader in) {
+            if(nonce == null || txs == null) {
+                throw new JsonParseException("A block needs a nonce and transactions, at " + in.getPath());
+            }
+            String expectedPrevious = previous == null ? null : previous.getHash().toString();
+            if(previousHash != null && !previousHash.equals(expectedPrevious)) {
+                throw new JsonParseException("Block points at previous block " + previousHash + " but follows "
+                        + expectedPrevious + ", at " + in.getPath());
+            }
+            Block b = Block.newUnsafeBlock(txs, previous, nonce, headerVersion, difficulty, timestamp);
+            if(checkHash && hash != null && !hash.equals(b.getHash().toString())) {
+                throw new JsonParseException("Block has hash " + hash + " but hashes to " + b.getHash()
+                        + ", at " + in.getPath());
+            }
+            return b;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package edu.marist.jointstudy.essence.api.parse;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import edu.marist.jointstudy.essence.core.structures.Blockchain;
+
+import java.io.IOException;
+
+/**
+ * Has Gson write blockchains in the versioned flat format, and read any of the formats, see {@link BlockchainStream}.
+ * A factory rather than a plain adapter, so the blocks are written with the same Gson the blockchain is.
+ */
+public class BlockchainTypeAdapterFactory implements TypeAdapterFactory {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+        if(typeToken.getRawType() != Blockchain.class) {
+            return null;
+        }
+        return (TypeAdapter<T>) new TypeAdapter<Blockchain>() {
+            @Override
+            public void write(JsonWriter out, Blockchain bc) throws IOException {
+                if(bc == null) {
+                    out.nullValue();
+                    return;
+                }
+                BlockchainStream.write(bc, gson, out);
+            }
+
+            @Override
+            public Blockchain read(JsonReader in) throws IOException {
+                if(in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    return null;
+                }
+                return BlockchainStream.read(gson, in);
+            }
+        };
+    }
+}
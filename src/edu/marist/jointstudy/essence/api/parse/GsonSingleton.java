@@ -24,6 +24,7 @@ public enum GsonSingleton {
                     .registerTypeAdapter(Hashcode.class, new HashcodeJsonAdapter())
                     .registerTypeAdapter(Nonce.class, new NonceJsonAdapter())
                     .registerTypeAdapter(Block.class, new BlockSerializer())
+                    .registerTypeAdapterFactory(new BlockchainTypeAdapterFactory())
                     .create();
         }
         return gson;
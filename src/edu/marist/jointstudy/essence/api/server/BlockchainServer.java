@@ -1,20 +1,41 @@
 package edu.marist.jointstudy.essence.api.server;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /* NanoHTTPD
    GitHub: https://github.com/NanoHttpd/nanohttpd
    Documentation : https://jar-download.com/java-documentation-javadoc.php?a=nanohttpd&g=org.nanohttpd&v=2.2.0
  */
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import edu.marist.jointstudy.essence.Util;
+import edu.marist.jointstudy.essence.api.parse.BlockchainStream;
 import edu.marist.jointstudy.essence.api.parse.GsonSingleton;
 import edu.marist.jointstudy.essence.api.store.PersistentStore;
 import edu.marist.jointstudy.essence.api.store.Store;
+import edu.marist.jointstudy.essence.api.store.WriteBehindStore;
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+import edu.marist.jointstudy.essence.core.hash.Hashing;
+import edu.marist.jointstudy.essence.core.mine.Miner;
 import edu.marist.jointstudy.essence.core.mine.Mining;
 import edu.marist.jointstudy.essence.core.structures.Block;
+import edu.marist.jointstudy.essence.core.structures.BlockFilter;
+import edu.marist.jointstudy.essence.core.structures.BlockHeader;
 import edu.marist.jointstudy.essence.core.structures.Blockchain;
+import edu.marist.jointstudy.essence.core.structures.Mempool;
+import edu.marist.jointstudy.essence.core.structures.MerkleTree;
+import edu.marist.jointstudy.essence.core.structures.PayloadIndex;
 import edu.marist.jointstudy.essence.core.structures.Transaction;
 import okhttp3.HttpUrl;
 
@@ -38,44 +59,83 @@ public class BlockchainServer extends Server {
      */
     private boolean isSybil;
 
-    /** Where to store the blockchain. */
-    private Store<Blockchain> bcStore;
-
-    /** The blockchain this server deals with. */
-    private Blockchain bc;
+    /**
+     * Where the blockchain this server deals with is kept. It's in memory, and written to disk in the background, so
+     * requests never wait on the disk. Friends save the blockchains they pull to the same store.
+     */
+    private WriteBehindStore<Blockchain> bcStore;
 
     /**
      * The transactions submitted by clients that have not yet made it onto the blockchain. Clients must request that
-     * The blockchain be mined, which flushes the buffered transactions onto the blockchain.
+     * The blockchain be mined, which flushes the buffered transactions onto the blockchain. Set
+     * {@code -Dessence.mempool.capacity} to change how many can wait at once.
      */
-    private List<Transaction> transactionBuffer = new LinkedList<>();
-    /** The next transaction id for the buffer. Used as a cursor to remember which ids to give to which transactions.*/
-    private int nextTxIdForBuffer;
+    private Mempool transactionBuffer;
 
     /** Used to give anyone who asks all of the urls of this peer's friends. */
     private List<HttpUrl> friendlyUrls;
 
+    /**
+     * The serialized merkle trees and transactions of blocks, kept until a friend's blockchain replaces blocks. Set
+     * {@code -Dessence.responses.gzip=true} to also keep them gzipped.
+     */
+    private final ResponseCache responses =
+            new ResponseCache(ResponseCache.DEFAULT_CAPACITY, Boolean.getBoolean("essence.responses.gzip"));
+
+    /** Mines the blocks of this server's blockchain. */
+    private final Miner miner = new Miner(Mining.threads);
+
+    /**
+     * Signs the transactions of batches, one thread per processor. Kept apart from the common pool, which verifies
+     * blockchains in parallel.
+     */
+    private final ExecutorService signer = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            (r) -> {
+                Thread t = new Thread(r, "transaction-signer");
+                t.setDaemon(true);
+                return t;
+            });
+
     public BlockchainServer(int port, List<HttpUrl> friendlyUrls, Store<Blockchain> store) {
         super(port, GsonSingleton.INSTANCE.get());
-        this.bcStore = store;
+        this.bcStore = WriteBehindStore.of(store);
         this.friendlyUrls = friendlyUrls;
 
         Util.time("parsing blockchain", () -> {
             try {
-                Optional<Blockchain> maybeBc = store.get();
-                this.bc = maybeBc.orElse(new Blockchain());
+                if(!bcStore.get().isPresent()) {
+                    bcStore.save(new Blockchain());
+                }
             } catch(IOException e) {
                 e.printStackTrace();
                 System.err.println("Couldn't get the blockchain from disk.");
                 System.err.println(e.getMessage());
-                this.bc = new Blockchain();
+                bcStore.save(new Blockchain());
             }
         });
 
-        // set next tx id for the buffer to the lastTxId + 1, or 0 (if we have no last tx id)
-        nextTxIdForBuffer = this.bc.getLastTransactionId().isPresent() ?
-                this.bc.getLastTransactionId().getAsInt() + 1 :
-                0;
+        // the buffer's ids start at the lastTxId + 1, or 0 (if we have no last tx id)
+        transactionBuffer = new Mempool(Integer.getInteger("essence.mempool.capacity", Mempool.DEFAULT_CAPACITY),
+                nextTransactionId());
+
+        // index the stored blocks by signer and payload in the background, rather than on the first request that
+        // needs them
+        Blockchain loaded = blockchain();
+        ExecutorService indexer = Executors.newSingleThreadExecutor((r) -> {
+            Thread t = new Thread(r, "blockchain-indexer");
+            t.setDaemon(true);
+            return t;
+        });
+        CompletableFuture.runAsync(() -> {
+            loaded.indexSigners();
+            loaded.indexPayloads();
+        }, indexer).exceptionally((e) -> {
+            // lookups by signer or payload index whatever's left when they're first made
+            System.err.println("Couldn't index the blockchain by signer and payload at startup.");
+            System.err.println(e.getMessage());
+            return null;
+        });
+        indexer.shutdown(); // once it's done indexing
 
         APIConstants.displayStartupInfo(port);
 
@@ -102,11 +162,26 @@ public class BlockchainServer extends Server {
 
         get("/blockchain/length", this::getBlockchainLength);
 
-        // get the mining difficulty and max tx per block of this server
-        get("/details",
-                (s, ids) -> newApiResponse(Response.Status.OK,
-                        "{\"miningDifficulty\":" + Mining.difficulty +
-                                ", \"maxTransactionsPerBlock\": \"infinite\"}"));
+        // get the headers of some of the blocks, so friends can find where their blockchains split from this one
+        get("/blockchain/headers", this::getHeaders);
+
+        // get some of the blocks, so friends only download the blocks they're missing
+        get("/blockchain/blocks", this::getBlocks);
+
+        // get a page of the transactions after or before one, or the newest ones
+        get("/blockchain/transactions", this::getTxs);
+
+        // get the transactions with an id, public key and/or payload, skipping blocks whose filters rule them out
+        get("/blockchain/search", this::search);
+
+        // get a page of the transactions whose payloads have every word (or word prefix) in a query
+        get("/blockchain/search/payloads", this::searchPayloads);
+
+        // get a page of the transactions signed with a public key, by the SHA-256 hash of the key
+        get("/blockchain/signer/*/transactions", this::getSignerTxs);
+
+        // get the mining difficulty, measured hash rate and max tx per block of this server
+        get("/details", this::getDetails);
 
         // get the contents of this blockchain's buffer
         get("/blockchain/buffer", this::getBuffer);
@@ -117,6 +192,9 @@ public class BlockchainServer extends Server {
         // get a transaction within a block within a blockchain
         get("/blockchain/block/:/transaction/:", this::getTxFromBlock);
 
+        // get a proof that a transaction is in a block: the hashes linking it to the block's merkle root
+        get("/blockchain/block/:/transaction/:/proof", this::getTxProof);
+
         // get the merkle tree of a given block
         get("/blockchain/block/:/merkle", this::getMerkleTree);
 
@@ -137,6 +215,9 @@ public class BlockchainServer extends Server {
         // post a transaction to a blockchain's tx buffer
         // expect "/blockchain/{id}/transaction" {transaction: some payload}
         post("/blockchain/transaction", this::createTx);
+
+        // post many transactions at once, as a json array or newline-delimited json of {payload: some payload}
+        post("/blockchain/transactions", this::createTxs);
     }
 
     private void registerDeletes() {
@@ -155,12 +236,37 @@ public class BlockchainServer extends Server {
 
     /** @return a read-only copy of the server's transaction buffer. */
     public List<Transaction> transactionBuffer() {
-        return Collections.unmodifiableList(this.transactionBuffer);
+        return this.transactionBuffer.snapshot();
+    }
+
+    /**
+     * Renumbers the transactions waiting to be mined on from the last one in the blockchain, after a friend's
+     * blockchain was saved in place of this peer's. Never while a block is being mined, the miner holds the same lock.
+     */
+    public synchronized void resyncTransactionBuffer() {
+        transactionBuffer.renumber(nextTransactionId());
     }
 
     /** @return a read-only copy of the server's blocks in its blockchain. */
     public List<Block> blocks() {
-        return Collections.unmodifiableList(this.bc.asList());
+        return Collections.unmodifiableList(blockchain().asList());
+    }
+
+    /**
+     * @param count the most blocks to return.
+     * @return a read-only copy of the newest blocks in the server's blockchain, current block first.
+     */
+    public List<Block> latestBlocks(int count) {
+        Blockchain current = blockchain();
+        int height = current.size();
+        List<Block> latest = current.getBlocks(height - count, height);
+        Collections.reverse(latest);
+        return Collections.unmodifiableList(latest);
+    }
+
+    /** @return the blockchain this server deals with, as last saved by this server or its friends. */
+    protected Blockchain blockchain() {
+        return bcStore.current();
     }
 
     //
@@ -175,9 +281,15 @@ public class BlockchainServer extends Server {
     /** GET "/blockchain" */
     protected Response getBlockchain(IHTTPSession session, int[] ids) {
         try {
-            // update bc cache as well
-            this.bc = bcStore.get().get();
-            return this.newApiResponse(bc);
+            Blockchain current = blockchain();
+            String eTag = eTag(current);
+            if(isNotModified(session, eTag)) {
+                return newNotModifiedResponse(eTag);
+            }
+            // the flat, versioned format, written as it's sent
+            Response response = newStreamingApiResponse((writer) -> BlockchainStream.write(current, gson, writer));
+            response.addHeader("ETag", eTag);
+            return response;
         } catch (Exception e) {
             e.printStackTrace();
             return Failure.internalIOFailure(e).response(gson);
@@ -187,26 +299,301 @@ public class BlockchainServer extends Server {
     /** GET "/blockchain/length" */
     protected Response getBlockchainLength(IHTTPSession session, int[] ids) {
         try {
-            // update bc cache as well
-            this.bc = bcStore.get().get();
-            return newApiResponse("{\"length\": " + bc.size() + " }");
+            return newApiResponse("{\"length\": " + blockchain().size() + " }");
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Failure.internalIOFailure(e).response(gson);
+        }
+    }
+
+    /** @return the tag of the given blockchain, see {@link #eTag(int, Hashcode)}. */
+    private static String eTag(Blockchain bc) {
+        Block tip = bc.getCurrentBlock();
+        return eTag(bc.size(), tip == null ? null : tip.getHash());
+    }
+
+    /**
+     * Blockchains are only ever appended to or replaced by a blockchain with a different tip, so the height and the
+     * hash of the highest block tell whether a blockchain has changed.
+     *
+     * @param height the number of blocks in a blockchain.
+     * @param tipHash the hash of its highest block, null if it has none.
+     * @return an HTTP entity tag for the blockchain, e.g. {@code "12-000be659..."}.
+     */
+    public static String eTag(int height, Hashcode tipHash) {
+        return "\"" + height + "-" + (tipHash == null ? "" : tipHash.toString()) + "\"";
+    }
+
+    /** The most headers sent per request, they're small. */
+    private static final int MAX_HEADERS = 2000;
+
+    /** The most blocks sent per request, and how many are sent if the request doesn't say. */
+    private static final int MAX_BLOCKS = 500;
+    private static final int DEFAULT_BLOCKS = 100;
+
+    /** GET "/blockchain/headers?from=:&limit=:" */
+    protected Response getHeaders(IHTTPSession session, int[] ids) {
+        int from;
+        int limit;
+        try {
+            from = intParameter(session, "from", 0);
+            limit = Math.min(intParameter(session, "limit", MAX_HEADERS), MAX_HEADERS);
+        } catch (NumberFormatException e) {
+            return Failure.invalidParameter(e).response(gson);
+        }
+        try {
+            Blockchain current = blockchain();
+            String eTag = eTag(current);
+            if(isNotModified(session, eTag)) {
+                return newNotModifiedResponse(eTag);
+            }
+            int height = current.size();
+            List<BlockHeader> headers = new ArrayList<>();
+            for(int h = from; h < height && headers.size() < limit; h++) {
+                current.getBlock(h).map(BlockHeader::of).ifPresent(headers::add);
+            }
+            Response response = this.newApiResponse(new BlockHeader.Page(height, headers));
+            response.addHeader("ETag", eTag);
+            return response;
         } catch (Exception e) {
             e.printStackTrace();
             return Failure.internalIOFailure(e).response(gson);
         }
     }
 
+    /**
+     * GET "/blockchain/blocks?from=:&to=:&limit=:" or "/blockchain/blocks?latest=:"
+     * <p>The blocks from one height up to (not including) another, or the newest ones, genesis first.</p>
+     */
+    protected Response getBlocks(IHTTPSession session, int[] ids) {
+        Blockchain current = blockchain();
+        int from;
+        int limit;
+        try {
+            int latest = intParameter(session, "latest", -1);
+            from = latest < 0 ? intParameter(session, "from", 0) : Math.max(0, current.size() - latest);
+            int to = intParameter(session, "to", Integer.MAX_VALUE);
+            limit = Math.min(Math.min(intParameter(session, "limit", DEFAULT_BLOCKS), MAX_BLOCKS),
+                    latest < 0 ? Math.max(0, to - from) : latest);
+        } catch (NumberFormatException e) {
+            return Failure.invalidParameter(e).response(gson);
+        }
+        return newStreamingApiResponse((writer) -> BlockchainStream.writeSuffix(current, from, limit, gson, writer));
+    }
+
+    /**
+     * GET "/blockchain/transactions?after=:&before=:&limit=:"
+     * <p>The transactions after the one with the id {@code after}, or before the one with the id {@code before}, or
+     * else the newest ones, oldest first. {@code next} and {@code previous} are the ids to page on from.</p>
+     */
+    protected Response getTxs(IHTTPSession session, int[] ids) {
+        int after;
+        int before;
+        int limit;
+        try {
+            after = intParameter(session, "after", -1);
+            before = intParameter(session, "before", -1);
+            limit = Math.min(intParameter(session, "limit", DEFAULT_TRANSACTIONS), MAX_SEARCH_RESULTS);
+        } catch (NumberFormatException e) {
+            return Failure.invalidParameter(e).response(gson);
+        }
+        Blockchain current = blockchain();
+        List<Transaction> txs;
+        if(after >= 0) {
+            Optional<List<Transaction>> page = current.getTransactionsAfter(after, limit);
+            if(!page.isPresent()) {
+                return Failure.unknownCursor(after).response(gson);
+            }
+            txs = page.get();
+        } else if(before >= 0) {
+            Optional<List<Transaction>> page = current.getTransactionsBefore(before, limit);
+            if(!page.isPresent()) {
+                return Failure.unknownCursor(before).response(gson);
+            }
+            txs = page.get();
+        } else {
+            txs = current.getLatestTransactions(limit);
+        }
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("transactions", txs);
+        page.put("previous", txs.isEmpty() ? (before >= 0 ? before : null) : txs.get(0).getId());
+        page.put("next", txs.isEmpty() ? (after >= 0 ? after : null) : txs.get(txs.size() - 1).getId());
+        return newApiResponse(page);
+    }
+
+    /** How many transactions are sent if the request doesn't say. */
+    private static final int DEFAULT_TRANSACTIONS = 50;
+
+    /**
+     * GET "/blockchain/signer/{keyHash}/transactions?from=:&limit=:"
+     * <p>The signer's transactions oldest first, from the index of signers rather than searching every block.</p>
+     */
+    protected Response getSignerTxs(IHTTPSession session, int[] ids, String[] wildcards) {
+        String keyHash = wildcards[0];
+        if(!keyHash.matches("[0-9a-f]{64}")) {
+            return Failure.invalidKeyHash(keyHash).response(gson);
+        }
+        int from;
+        int limit;
+        try {
+            from = intParameter(session, "from", 0);
+            limit = Math.min(intParameter(session, "limit", MAX_SEARCH_RESULTS), MAX_SEARCH_RESULTS);
+        } catch (NumberFormatException e) {
+            return Failure.invalidParameter(e).response(gson);
+        }
+        Hashcode signer = Hashcode.SHA256.fromHex(keyHash);
+        Blockchain current = blockchain();
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("signer", keyHash);
+        page.put("total", current.countTransactionsSignedBy(signer));
+        page.put("from", from);
+        page.put("transactions", current.findTransactionsSignedBy(signer, from, limit));
+        return newApiResponse(page);
+    }
+
+    /**
+     * GET "/blockchain/search/payloads?q=:&from=:&limit=:"
+     * <p>The transactions whose payloads have every word in the query oldest first, from the index of payload words
+     * rather than searching every block. A word ending with "*" matches every word starting with it.</p>
+     */
+    protected Response searchPayloads(IHTTPSession session, int[] ids) {
+        String query = session.getParms().get("q");
+        if(query == null || PayloadIndex.words(query).isEmpty()) {
+            return Failure.missingPayloadQuery().response(gson);
+        }
+        int from;
+        int limit;
+        try {
+            from = intParameter(session, "from", 0);
+            limit = Math.min(intParameter(session, "limit", MAX_SEARCH_RESULTS), MAX_SEARCH_RESULTS);
+        } catch (NumberFormatException e) {
+            return Failure.invalidParameter(e).response(gson);
+        }
+        PayloadIndex.Page found = blockchain().findTransactionsByPayload(query, from, limit);
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("query", query);
+        page.put("total", found.getTotal());
+        page.put("from", from);
+        page.put("transactions", found.getTransactions());
+        return newApiResponse(page);
+    }
+
+    /** The most transactions a search sends. */
+    private static final int MAX_SEARCH_RESULTS = 1000;
+
+    /** Blocks searched whose filters said they might have a match, but didn't. */
+    private final AtomicLong filterFalsePositives = new AtomicLong();
+
+    /** Blocks skipped because their filters said they didn't have a match. */
+    private final AtomicLong filterSkips = new AtomicLong();
+
+    /**
+     * GET "/blockchain/search?transaction=:&publicKey=:&payload=:&limit=:"
+     * <p>Finds the transactions that match every parameter given. Only the blocks whose Bloom filters say they might
+     * have a match are decoded and searched.</p>
+     */
+    protected Response search(IHTTPSession session, int[] ids) {
+        int txId;
+        int limit;
+        try {
+            txId = intParameter(session, "transaction", -1);
+            limit = Math.min(intParameter(session, "limit", MAX_SEARCH_RESULTS), MAX_SEARCH_RESULTS);
+        } catch (NumberFormatException e) {
+            return Failure.invalidParameter(e).response(gson);
+        }
+        String publicKey = session.getParms().get("publicKey");
+        String payload = session.getParms().get("payload");
+        if(txId < 0 && publicKey == null && payload == null) {
+            return Failure.missingSearch().response(gson);
+        }
+
+        Blockchain current = blockchain();
+        List<Integer> blocks = new ArrayList<>();
+        List<Transaction> txs = new ArrayList<>();
+        int skipped = 0;
+        int falsePositives = 0;
+        for(int h = 0; h < current.size(); h++) {
+            BlockFilter filter = current.getFilter(h).orElse(null);
+            if(filter == null) {
+                continue;
+            }
+            if((txId >= 0 && !filter.mightHaveTransaction(txId))
+                    || (publicKey != null && !filter.mightHavePublicKey(publicKey))
+                    || (payload != null && !filter.mightHavePayload(payload))) {
+                skipped++;
+                continue;
+            }
+            boolean found = false;
+            for(Transaction t : current.getBlock(h).map(Block::getTransactions).orElse(Collections.emptyList())) {
+                if((txId < 0 || t.getId() == txId)
+                        && (publicKey == null || publicKey.equals(t.getPublicKey()))
+                        && (payload == null || payload.equals(t.getPayload()))) {
+                    found = true;
+                    if(txs.size() < limit) {
+                        txs.add(t);
+                    }
+                }
+            }
+            if(found) {
+                blocks.add(h);
+            } else {
+                falsePositives++;
+            }
+        }
+        filterSkips.addAndGet(skipped);
+        filterFalsePositives.addAndGet(falsePositives);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("blocks", blocks);
+        result.put("transactions", txs);
+        result.put("blocksSkipped", skipped);
+        result.put("blocksSearched", blocks.size() + falsePositives);
+        result.put("falsePositives", falsePositives);
+        result.put("falsePositiveRate", falsePositiveRate(falsePositives, skipped));
+        return newApiResponse(result);
+    }
+
+    /**
+     * @return the share of the blocks without a match that a filter let through anyway. Blocks a filter skips never
+     * have a match, so they're all blocks without one.
+     */
+    private static double falsePositiveRate(long falsePositives, long skipped) {
+        return falsePositives + skipped == 0 ? 0.0 : (double) falsePositives / (falsePositives + skipped);
+    }
+
+    /** GET "/details" */
+    protected Response getDetails(IHTTPSession session, int[] ids) {
+        int difficulty = blockchain().getNextDifficulty();
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("miningDifficulty", difficulty); // leading zero bits
+        details.put("target", String.format("%064x", Mining.target(difficulty)));
+        details.put("hashRate", miner.getHashRate()); // hashes per second over the last block mined
+        details.put("targetBlockMillis", Mining.retargeting.getTargetBlockMillis());
+        details.put("retargetInterval", Mining.retargeting.getInterval());
+        details.put("maxTransactionsPerBlock", "infinite");
+        details.put("bufferedTransactions", transactionBuffer.size());
+        details.put("bufferCapacity", transactionBuffer.getCapacity());
+        details.put("responseCacheHits", responses.hits());
+        details.put("responseCacheMisses", responses.misses());
+        details.put("responseCacheSize", responses.size());
+        details.put("searchFalsePositiveRate", falsePositiveRate(filterFalsePositives.get(), filterSkips.get()));
+        return this.newApiResponse(details);
+    }
+
     /** GET "/blockchain/buffer" */
     protected Response getBuffer(IHTTPSession session, int[] ids) {
-        return this.newApiResponse(transactionBuffer);
+        return this.newApiResponse(transactionBuffer.snapshot());
     }
 
     /** GET "/blockchain/transaction" */
     protected Response getTx(IHTTPSession session, int[] ids) {
         int txId = ids[0];
         try {
-            Transaction t = bc.findTransaction(txId).get(); // can throw unchecked exception
-            return this.newApiResponse(t);
+            Blockchain current = blockchain();
+            ResponseCache.Body body = responses.get(current, "transaction/" + txId,
+                    () -> current.findTransaction(txId).map((t) -> gson.toJson(t)))
+                    .get(); // can throw unchecked exception
+            return newApiResponse(session, body);
         } catch(Exception e) {
             return Failure.transactionLookup(e, txId).response(gson);
         }
@@ -215,15 +602,12 @@ public class BlockchainServer extends Server {
     /** GET "blockchain/block/:/merkle" */
     protected Response getMerkleTree(IHTTPSession session, int[] ids) {
         int blockId = ids[0];
-        // TODO: inefficient way of searching for a block, should have getBlock(int id)
-        Block potentialBlock = bc.getCurrentBlock();
-        while(potentialBlock.getId() != blockId) {
-            potentialBlock = potentialBlock.getPreviousBlock();
-            if(Objects.isNull(potentialBlock)) {
-                return Failure.invalidBlockId(blockId).response(gson);
-            }
-        }
-        return this.newApiResponse(potentialBlock.getTransactionsAsMerkleTree());
+        Blockchain current = blockchain();
+        return responses.get(current, "block/" + blockId + "/merkle",
+                () -> current.getBlock(blockId).map((b) ->
+                        gson.toJson(Collections.singletonMap("root", b.getTransactionsAsMerkleTree().getRoot()))))
+                .map((body) -> newApiResponse(session, body))
+                .orElseGet(() -> Failure.invalidBlockId(blockId).response(gson));
     }
 
     /** GET "/blockchain/block/:/transaction" */
@@ -231,31 +615,126 @@ public class BlockchainServer extends Server {
         int blockId = ids[0];
         int txId = ids[1];
         try {
-            Transaction t = bc.findTransactionWithBlockId(txId, blockId).get(); // can throw unchecked exception
-            return this.newApiResponse(t);
+            Blockchain current = blockchain();
+            ResponseCache.Body body = responses.get(current, "block/" + blockId + "/transaction/" + txId,
+                    () -> current.findTransactionWithBlockId(txId, blockId).map((t) -> gson.toJson(t)))
+                    .get(); // can throw unchecked exception
+            return newApiResponse(session, body);
+        } catch (Exception e) {
+            return Failure.transactionLookupWithBlockId(e, txId, blockId).response(gson);
+        }
+    }
+
+    /** GET "/blockchain/block/:/transaction/:/proof" */
+    protected Response getTxProof(IHTTPSession session, int[] ids) {
+        int blockId = ids[0];
+        int txId = ids[1];
+        try {
+            Blockchain current = blockchain();
+            ResponseCache.Body body = responses.get(current, "block/" + blockId + "/transaction/" + txId + "/proof",
+                    () -> current.getBlock(blockId).flatMap((b) -> proof(b, txId)).map((p) -> gson.toJson(p)))
+                    .get(); // can throw unchecked exception
+            return newApiResponse(session, body);
         } catch (Exception e) {
             return Failure.transactionLookupWithBlockId(e, txId, blockId).response(gson);
         }
     }
 
-    /** POST (MINE) "/blockchain" */
+    /** @return the proof the transaction is in the block, with the merkle root and transaction hash it links. */
+    private static Optional<Map<String, Object>> proof(Block b, int txId) {
+        List<Transaction> txs = b.getTransactions();
+        for(int i = 0; i < txs.size(); i++) {
+            if(txs.get(i).getId() == txId) {
+                MerkleTree<Transaction> tree = b.getTransactionsAsMerkleTree();
+                MerkleTree.Proof proof = tree.proof(i);
+                // hex strings, hashcodes in a map aren't serialized by their declared type
+                Map<String, Object> body = new LinkedHashMap<>();
+                body.put("merkleRoot", tree.getMerkleRoot().toString());
+                body.put("transaction", Hashing.hashFunction.hash(txs.get(i)).toString());
+                body.put("leaf", proof.getLeaf());
+                body.put("size", proof.getSize());
+                body.put("siblings", proof.getSiblings().stream()
+                        .map(Hashcode::toString)
+                        .collect(Collectors.toList()));
+                return Optional.of(body);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * POST "/blockchain/mine"
+     *
+     * <p>Answers with the header of the mined block, as a page of headers (see {@code getHeaders}) whose height is the
+     * blockchain's once it was added. The blockchain itself can be big, it's streamed by GET "/blockchain".</p>
+     */
     protected Response mineBlockchain(IHTTPSession s, int[] ids) {
         try {
-            return mineBlockchain() ?
-                    this.newApiResponse(bc) : newApiResponse(Response.Status.NO_CONTENT, "");
+            return mineBlockchain()
+                    .map((b) -> newApiResponse(new BlockHeader.Page(b.getId() + 1,
+                            Collections.singletonList(BlockHeader.of(b)))))
+                    .orElseGet(() -> newApiResponse(Response.Status.NO_CONTENT, ""));
         } catch (IOException e) {
             return this.newApiResponse(Failure.internalIOFailure(e));
+        } catch (CancellationException e) {
+            return Failure.miningCancelled(e).response(gson);
         }
     }
 
-    public boolean mineBlockchain() throws IOException {
-        if(transactionBuffer.isEmpty()) {
-           return false;
+    /**
+     * Mines the transaction buffer into a new block on the blockchain and saves it.
+     *
+     * <p>One block is mined at a time. Transactions submitted while a block is being mined wait for the next one.</p>
+     *
+     * <p>If a friend's blockchain is saved in place of this peer's while the block is being mined, the block is mined
+     * again on top of the friend's. The mined transactions only leave the buffer once the blockchain with them in it
+     * is saved.</p>
+     *
+     * @return the mined block, empty if there was nothing to mine.
+     * @throws CancellationException if mining was cancelled, the buffer is left untouched.
+     */
+    public synchronized Optional<Block> mineBlockchain() throws IOException {
+        List<Transaction> txs = transactionBuffer.snapshot();
+        if(txs.isEmpty()) {
+           return Optional.empty();
+        }
+        while(true) {
+            Blockchain bc = blockchain();
+            Block mined;
+            try {
+                mined = bc.add(txs, miner);
+            } catch (ConcurrentModificationException e) {
+                continue; // another block was added while mining
+            }
+            // friends either append to the blockchain under its lock, which add() would have noticed, or save another
+            // one over it, so the block is still ours if the blockchain is still in the store
+            if(bcStore.save(bc, bc)) { // written to disk in the background
+                transactionBuffer.remove(txs);
+                return Optional.of(mined);
+            }
+        }
+    }
+
+    /** Cancels the block currently being mined, if any. */
+    public void cancelMining() {
+        miner.cancel();
+    }
+
+    /**
+     * Stops the server, cancelling any mining in progress, and waits for the blockchain to be written, along with
+     * what the store keeps with it (e.g. the payload index of a {@code BlockLogStore}).
+     */
+    @Override
+    public void stop() {
+        cancelMining();
+        super.stop();
+        signer.shutdownNow();
+        try {
+            bcStore.flush();
+        } catch (IOException e) {
+            System.err.println("Couldn't finish writing the blockchain to disk.");
+            System.err.println(e.getMessage());
         }
-        bc.add(transactionBuffer);
-        transactionBuffer.clear();
-        bcStore.save(bc);
-        return true;
     }
 
     /** POST "/blockchain/transaction" */
@@ -268,31 +747,145 @@ public class BlockchainServer extends Server {
             JsonParser parser = new JsonParser();
             String payload = parser.parse(rawBody).getAsJsonObject().get("payload").getAsString();
 
-            Transaction t = submitTransactionToBuffer(Transaction.newTransaction(payload));
-
-            return this.newApiResponse(t);
+            Transaction t = Transaction.newTransaction(payload);
+            switch(submitTransactionToBuffer(t)) {
+                case FULL:
+                    Response full = Failure.bufferFull(transactionBuffer.getCapacity()).response(gson);
+                    full.addHeader("Retry-After", "1");
+                    return full;
+                case DUPLICATE:
+                    return Failure.duplicateTransaction(t).response(gson);
+                default:
+                    return this.newApiResponse(t);
+            }
         } catch(Exception e) {
             return this.newApiResponse(Failure.malformedTransactionBody(e));
         }
     }
 
-    public Transaction submitTransactionToBuffer(Transaction t) {
-        // the client won't specify the id, we do that
-        t.setId(nextTxIdForBuffer++);
-        transactionBuffer.add(t);
-        return t;
+    /** The longest batch body that's read, 16 MiB. Set {@code -Dessence.batch.maxBytes} to change it. */
+    private static final long MAX_BATCH_BYTES = Long.getLong("essence.batch.maxBytes", 16L * 1024 * 1024);
+
+    /** POST "/blockchain/transactions" */
+    protected Response createTxs(IHTTPSession s, int[] ids) {
+        OptionalLong length = contentLength(s);
+        if(!length.isPresent()) {
+            return unread(Failure.lengthRequired().response(gson));
+        }
+        if(length.getAsLong() > MAX_BATCH_BYTES) {
+            return unread(Failure.bodyTooLarge(MAX_BATCH_BYTES).response(gson));
+        }
+        Optional<List<Transaction>> read;
+        try {
+            read = readTransactions(bodyStream(s, length.getAsLong()), transactionBuffer.getCapacity());
+        } catch(Exception e) {
+            return unread(this.newApiResponse(Failure.malformedTransactionBody(e)));
+        }
+        if(!read.isPresent()) {
+            return unread(Failure.batchTooLarge(transactionBuffer.getCapacity()).response(gson));
+        }
+        List<Transaction> batch = read.get();
+        switch(transactionBuffer.offerAll(batch)) {
+            case FULL:
+                Response full = Failure.bufferFull(transactionBuffer.getCapacity()).response(gson);
+                full.addHeader("Retry-After", "1");
+                return full;
+            case DUPLICATE:
+                return Failure.duplicateTransactions().response(gson);
+            default:
+                List<Integer> txIds = new ArrayList<>(batch.size());
+                for(Transaction t : batch) {
+                    txIds.add(t.getId());
+                }
+                return this.newApiResponse(Collections.singletonMap("ids", txIds));
+        }
     }
 
-    /** DELETE "/blockchain/buffer" */
-    protected Response clearBuffer(IHTTPSession session, int[] ids) {
-        if(transactionBuffer.isEmpty()) {
-            return getBuffer(session, ids);
+    /** @return the response, closing the connection after it since some of the request's body wasn't read. */
+    private static Response unread(Response response) {
+        response.setKeepAlive(false);
+        return response;
+    }
+
+    /**
+     * Reads payloads from a json array, or from json objects one after another (e.g. one per line), and signs each one
+     * on another thread as soon as it's read, so signing keeps up with reading.
+     * @param body e.g. {@code [{"payload": "a"}, {"payload": "b"}]} or {@code {"payload": "a"}\n{"payload": "b"}}.
+     * @param limit the most payloads to read. Reading stops at the one after it, and none of them are signed.
+     * @return a transaction for each payload, in the order they were read, empty if there were more than limit.
+     * @throws IllegalStateException if the body isn't made of objects with a payload.
+     */
+    private Optional<List<Transaction>> readTransactions(InputStream body, int limit) {
+        List<CompletableFuture<Transaction>> signing = new ArrayList<>();
+        try(JsonReader in = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            in.setLenient(true); // lenient readers read values one after another, as well as one array
+            boolean array = in.peek() == JsonToken.BEGIN_ARRAY;
+            if(array) {
+                in.beginArray();
+            }
+            while(array ? in.hasNext() : in.peek() != JsonToken.END_DOCUMENT) {
+                if(signing.size() == limit) {
+                    signing.forEach((f) -> f.cancel(false)); // signatures not started yet never are
+                    return Optional.empty();
+                }
+                String payload = readPayload(in);
+                signing.add(CompletableFuture.supplyAsync(() -> Transaction.newTransaction(payload), signer));
+            }
+            if(array) {
+                in.endArray();
+            }
+        } catch(IOException e) {
+            signing.forEach((f) -> f.cancel(false));
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch(RuntimeException e) {
+            signing.forEach((f) -> f.cancel(false));
+            throw e;
+        }
+        List<Transaction> batch = new ArrayList<>(signing.size());
+        for(CompletableFuture<Transaction> f : signing) {
+            batch.add(f.join());
+        }
+        return Optional.of(batch);
+    }
+
+    /** @return the payload of the {"payload": ...} object the reader is at. */
+    private static String readPayload(JsonReader in) throws IOException {
+        String at = in.getPath();
+        String payload = null;
+        in.beginObject();
+        while(in.hasNext()) {
+            if("payload".equals(in.nextName()) && in.peek() != JsonToken.NULL) {
+                payload = in.nextString();
+            } else {
+                in.skipValue();
+            }
         }
+        in.endObject();
+        if(payload == null) {
+            throw new IllegalStateException("Expected a payload, at " + at);
+        }
+        return payload;
+    }
+
+    /**
+     * Puts the transaction on the buffer, unless it's full or already has the transaction.
+     * @param t the transaction. The client won't specify the id, we do that.
+     * @return whether the transaction was put on the buffer, and if not, why.
+     */
+    public Mempool.Offer submitTransactionToBuffer(Transaction t) {
+        return transactionBuffer.offer(t);
+    }
+
+    /** @return the id the next transaction added to the blockchain gets. */
+    private int nextTransactionId() {
+        OptionalInt lastTxId = blockchain().getLastTransactionId();
+        return lastTxId.isPresent() ? lastTxId.getAsInt() + 1 : 0;
+    }
 
-        int lastId = 0;
-        lastId = transactionBuffer.get(transactionBuffer.size() - 1).getId();
-        nextTxIdForBuffer = lastId - transactionBuffer.size() + 1;
-        transactionBuffer.clear();
+    /** DELETE "/blockchain/buffer" */
+    protected Response clearBuffer(IHTTPSession session, int[] ids) {
+        // the ids of cleared transactions are given out again
+        transactionBuffer.clear(nextTransactionId());
 
         return getBuffer(session, ids); // should return an empty collection
     }
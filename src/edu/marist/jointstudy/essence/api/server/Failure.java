@@ -1,6 +1,7 @@
 package edu.marist.jointstudy.essence.api.server;
 
 import com.google.gson.Gson;
+import edu.marist.jointstudy.essence.core.structures.Transaction;
 import fi.iki.elonen.NanoHTTPD;
 
 import java.util.logging.Logger;
@@ -84,6 +85,14 @@ public class Failure {
         );
     }
 
+    public static Failure unknownCursor(int txId) {
+        return new Failure(
+                NanoHTTPD.Response.Status.BAD_REQUEST,
+                "Expected the id of a transaction in the blockchain to page from, given: " + txId,
+                "We couldn't find the transaction to continue from."
+        );
+    }
+
     public static Failure transactionLookupWithBlockId(Exception e, int txId, int blockId) {
         return new Failure(
                 NanoHTTPD.Response.Status.BAD_REQUEST,
@@ -105,6 +114,17 @@ public class Failure {
         );
     }
 
+    // Mining
+
+    public static Failure miningCancelled(Exception e) {
+        return new Failure(
+                NanoHTTPD.Response.Status.CONFLICT,
+                "Mining was cancelled before the block was mined. The transaction buffer is unchanged. " +
+                        "Exception message: " + e.getMessage(),
+                "Mining was stopped, please try again."
+        );
+    }
+
     // Invalid Block id
 
     public static Failure invalidBlockId(int blockId) {
@@ -114,4 +134,118 @@ public class Failure {
                 "We couldn't find a block with an id matching " + blockId
         );
     }
+
+    // Query parameters
+
+    public static Failure invalidParameter(Exception e) {
+        return new Failure(
+                NanoHTTPD.Response.Status.BAD_REQUEST,
+                "Expected a non-negative number for the query parameter " + e.getMessage(),
+                "We couldn't understand what you asked for."
+        );
+    }
+
+    public static Failure missingSearch() {
+        return new Failure(
+                NanoHTTPD.Response.Status.BAD_REQUEST,
+                "Search by at least one of the query parameters transaction, publicKey or payload.",
+                "We couldn't tell what to search for."
+        );
+    }
+
+    public static Failure missingPayloadQuery() {
+        return new Failure(
+                NanoHTTPD.Response.Status.BAD_REQUEST,
+                "Expected the query parameter q to have at least one word of letters or digits.",
+                "We couldn't tell what to search for."
+        );
+    }
+
+    public static Failure invalidKeyHash(String keyHash) {
+        return new Failure(
+                NanoHTTPD.Response.Status.BAD_REQUEST,
+                "Expected the SHA-256 hash of a public key as 64 hex digits, given: " + keyHash,
+                "We couldn't understand which signer you asked for."
+        );
+    }
+
+    // Transaction buffer
+
+    public static Failure bufferFull(int capacity) {
+        return new Failure(
+                Status.TOO_MANY_REQUESTS,
+                "The transaction buffer already has " + capacity + " transactions waiting to be mined. " +
+                        "Try again after the next block is mined.",
+                "We're busy, please try again in a moment."
+        );
+    }
+
+    public static Failure duplicateTransaction(Transaction t) {
+        return new Failure(
+                NanoHTTPD.Response.Status.CONFLICT,
+                "A transaction with the signature " + t.getSignature() + " is already waiting to be mined.",
+                "That transaction was already submitted."
+        );
+    }
+
+    public static Failure duplicateTransactions() {
+        return new Failure(
+                NanoHTTPD.Response.Status.CONFLICT,
+                "Two of the transactions have the same signature, or one of them is already waiting to be mined. " +
+                        "None of them were added.",
+                "Those transactions were already submitted."
+        );
+    }
+
+    public static Failure batchTooLarge(int capacity) {
+        return new Failure(
+                NanoHTTPD.Response.Status.BAD_REQUEST,
+                "The batch has more than " + capacity + " transactions but at most " + capacity +
+                        " can wait to be mined. Split it into smaller batches.",
+                "That's too many transactions at once."
+        );
+    }
+
+    // Request bodies
+
+    public static Failure lengthRequired() {
+        return new Failure(
+                Status.LENGTH_REQUIRED,
+                "The request has to say how long its body is with a Content-Length header, chunked bodies aren't read.",
+                "We couldn't process your request."
+        );
+    }
+
+    public static Failure bodyTooLarge(long maxBytes) {
+        return new Failure(
+                Status.PAYLOAD_TOO_LARGE,
+                "The body of the request can be at most " + maxBytes + " bytes. Split it into smaller requests.",
+                "That's too much at once."
+        );
+    }
+
+    /** Statuses NanoHTTPD doesn't have. */
+    public enum Status implements NanoHTTPD.Response.IStatus {
+        LENGTH_REQUIRED(411, "Length Required"),
+        PAYLOAD_TOO_LARGE(413, "Payload Too Large"),
+        TOO_MANY_REQUESTS(429, "Too Many Requests");
+
+        private final int requestStatus;
+        private final String description;
+
+        Status(int requestStatus, String description) {
+            this.requestStatus = requestStatus;
+            this.description = description;
+        }
+
+        @Override
+        public String getDescription() {
+            return requestStatus + " " + description;
+        }
+
+        @Override
+        public int getRequestStatus() {
+            return requestStatus;
+        }
+    }
 }
@@ -0,0 +1,162 @@
+package edu.marist.jointstudy.essence.api.server;
+
+import edu.marist.jointstudy.essence.core.structures.Block;
+import edu.marist.jointstudy.essence.core.structures.Blockchain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>The encoded bodies of responses about blocks, e.g. a block's merkle tree or one of its transactions, so they're
+ * only serialized once.
+ *
+ * <p>Blocks don't change once they're in a blockchain, so cached bodies stay valid as long as the blockchain only
+ * grows. The cache remembers the tip of the blockchain its bodies came from; if the blockchain it's asked about no
+ * longer has that block at that height (a friend's blockchain replaced it) everything is dropped.</p>
+ *
+ * <p>Holds at most a fixed number of bodies, dropping the least recently used one to make room.</p>
+ */
+public class ResponseCache {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final boolean gzip;
+
+    private final Map<String, Body> bodies;
+
+    /** The tip of the blockchain the bodies came from, null if there are none. */
+    private Block tip;
+    private int tipHeight;
+
+    /** Bumped whenever the bodies are dropped, so a body rendered from a replaced blockchain isn't cached. */
+    private long generation = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity the most bodies to hold.
+     * @param gzip true to also keep each body gzipped, for clients that accept it.
+     */
+    public ResponseCache(int capacity, boolean gzip) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive, given: " + capacity);
+        }
+        this.gzip = gzip;
+        this.bodies = new LinkedHashMap<String, Body>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Body> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param bc the blockchain the body is about.
+     * @param key what the body is, e.g. the route and the ids in it.
+     * @param render makes the json body if it isn't cached, empty if there's nothing to respond with (e.g. the block
+     *               doesn't exist), which isn't cached.
+     * @return the cached body, or the rendered one.
+     */
+    public Optional<Body> get(Blockchain bc, String key, Supplier<Optional<String>> render) {
+        long rendering;
+        synchronized (this) {
+            follow(bc);
+            Body cached = bodies.get(key);
+            if(cached != null) {
+                hits.incrementAndGet();
+                return Optional.of(cached);
+            }
+            rendering = generation;
+        }
+        misses.incrementAndGet();
+        Optional<Body> body = render.get().map((json) -> new Body(json, gzip));
+        body.ifPresent((b) -> {
+            synchronized (this) {
+                if(generation == rendering) {
+                    bodies.put(key, b);
+                }
+            }
+        });
+        return body;
+    }
+
+    /** Drops every body. */
+    public synchronized void clear() {
+        bodies.clear();
+        tip = null;
+        generation++;
+    }
+
+    /** @return how many requests were answered from the cache. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** @return how many requests had to be rendered. */
+    public long misses() {
+        return misses.get();
+    }
+
+    /** @return how many bodies are held. */
+    public synchronized int size() {
+        return bodies.size();
+    }
+
+    /** Drops every body if the blockchain isn't the one they came from, or a longer version of it. */
+    private void follow(Blockchain bc) {
+        Block current = bc.getCurrentBlock();
+        if(current == tip) {
+            return;
+        }
+        if(tip != null) {
+            Block then = bc.getBlock(tipHeight).orElse(null);
+            boolean grew = then == tip || (then != null && then.getHash().toString().equals(tip.getHash().toString()));
+            if(!grew) {
+                clear();
+            }
+        }
+        tip = current;
+        tipHeight = bc.size() - 1;
+    }
+
+    /** An encoded response body. */
+    public static final class Body {
+        private final byte[] utf8;
+        private final byte[] gzipped;
+
+        private Body(String json, boolean gzip) {
+            this.utf8 = json.getBytes(StandardCharsets.UTF_8);
+            this.gzipped = gzip ? gzip(utf8) : null;
+        }
+
+        /** @return the body as UTF-8 json. */
+        public byte[] utf8() {
+            return utf8;
+        }
+
+        /** @return the gzipped body, empty if the cache doesn't gzip. */
+        public Optional<byte[]> gzipped() {
+            return Optional.ofNullable(gzipped);
+        }
+
+        private static byte[] gzip(byte[] bytes) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 32);
+            try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+                gz.write(bytes);
+            } catch (IOException e) {
+                // should not happen, it's all in memory
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+    }
+}
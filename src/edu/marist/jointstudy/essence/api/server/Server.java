@@ -1,19 +1,20 @@
 package edu.marist.jointstudy.essence.api.server;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import edu.marist.jointstudy.essence.Util;
 import fi.iki.elonen.NanoHTTPD;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 /**
@@ -83,6 +84,12 @@ public abstract class Server extends NanoHTTPD {
 
             // allows clients to view a resource and its information, e.g. "/blockchain/" gets the blockchain
             case GET:
+                if(!gets.containsKey(generalResourcePath)) {
+                    Optional<Response> wildcard = respondToWildcard(wildcardGets, path, ids, session);
+                    if(wildcard.isPresent()) {
+                        return wildcard.get();
+                    }
+                }
                 return respondOrNotFound(gets, generalResourcePath, ids, session);
 
             // allows clients to create a new resource based on HTTP body data they provide
@@ -126,6 +133,44 @@ public abstract class Server extends NanoHTTPD {
         return r.respond(session, ids);
     }
 
+    /**
+     * Responds with the first registered wildcard response whose path matches the requested one, if any does. A "*"
+     * in a registered path matches any one part of the requested path that isn't a number, a ":" matches a number.
+     *
+     * @param wildcards the wildcard responses by their paths split into parts.
+     * @param path the requested path split into parts.
+     * @param ids the ids found from the specific requested path
+     * @param session the client's request
+     * @return a response to the requested path, or empty if no wildcard path matches it.
+     */
+    private Optional<Response> respondToWildcard(
+            Map<List<String>, WildcardResponse> wildcards,
+            String[] path,
+            int[] ids,
+            IHTTPSession session) {
+
+        for(Map.Entry<List<String>, WildcardResponse> wildcard : wildcards.entrySet()) {
+            List<String> parts = wildcard.getKey();
+            if(parts.size() != path.length) {
+                continue;
+            }
+            List<String> matched = new ArrayList<>();
+            for(int i = 0; i < path.length && matched != null; i++) {
+                String part = parts.get(i);
+                boolean isId = Util.isInt(path[i]);
+                if(part.equals("*") && !isId) {
+                    matched.add(path[i]);
+                } else if(!(part.equals(":") ? isId : part.equals(path[i]))) {
+                    matched = null;
+                }
+            }
+            if(matched != null) {
+                return Optional.of(wildcard.getValue().respond(session, ids, matched.toArray(new String[0])));
+            }
+        }
+        return Optional.empty();
+    }
+
     // Maps all the GET requests to a lambda function
     // Allows me to map a resource path, e.g. GET "/blockchain/" to an arbitrary method of my choosing, that conforms
     // to ResourceResponse.
@@ -137,6 +182,17 @@ public abstract class Server extends NanoHTTPD {
         gets.put(resourcePath, response);
     }
 
+    // GET requests whose paths have wildcards, by their paths split into parts, e.g. [blockchain, signer, *]
+    private Map<List<String>, WildcardResponse> wildcardGets = new LinkedHashMap<>();
+
+    /**
+     * Registers a new GET whose path has wildcards, e.g. /blockchain/signer/&#42;/transactions. Paths without
+     * wildcards that match a request are responded to first.
+     */
+    protected void get(String resourcePath, WildcardResponse response) {
+        wildcardGets.put(Arrays.asList(parsePathFrom(resourcePath)), response);
+    }
+
     private Map<String, ResourceResponse> posts = new HashMap<>();
 
     protected void post(String resourcePath, ResourceResponse response) {
@@ -216,6 +272,113 @@ public abstract class Server extends NanoHTTPD {
         }
     }
 
+    /**
+     * @param session the client's request.
+     * @return how long the request says its body is, empty if it doesn't say (e.g. it's streamed in chunks) or it
+     * isn't a length.
+     */
+    protected static OptionalLong contentLength(IHTTPSession session) {
+        String header = session.getHeaders().get("content-length");
+        if(header == null) {
+            return OptionalLong.empty();
+        }
+        try {
+            long length = Long.parseLong(header.trim());
+            return length < 0 ? OptionalLong.empty() : OptionalLong.of(length);
+        } catch (NumberFormatException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * @param session the client's request.
+     * @param contentLength how long its body is, see {@link #contentLength(IHTTPSession)}.
+     * @return the body of the request, read as it's needed rather than all at once. Closing it leaves the connection
+     * open.
+     */
+    protected InputStream bodyStream(IHTTPSession session, long contentLength) {
+        return new BoundedInputStream(session.getInputStream(), contentLength);
+    }
+
+    /** Reads up to a number of bytes of another stream, without closing it (that would close the connection). */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if(b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if(read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // leave the connection open
+        }
+    }
+
+    /**
+     * @param session the client's request, which includes the query parameters.
+     * @param name the name of the query parameter, e.g. "from" in {@code /blockchain/headers?from=10}.
+     * @param defaultValue the value if the request doesn't have the parameter.
+     * @return the value of the parameter.
+     * @throws NumberFormatException if the parameter isn't a non-negative int, with the parameter as its message.
+     */
+    protected static int intParameter(IHTTPSession session, String name, int defaultValue) {
+        String value = session.getParms().get(name);
+        if(value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if(parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException ignored) {
+            // reported below, with the parameter's name
+        }
+        throw new NumberFormatException(name + "=" + value);
+    }
+
     /**
      * Extracts the ids in a path into an {@code int} array.
      *
@@ -263,6 +426,102 @@ public abstract class Server extends NanoHTTPD {
         return newApiResponse(this.gson.toJson(t));
     }
 
+    /**
+     * @param session the client's request, to tell if it accepts gzip.
+     * @param body an already encoded body.
+     * @return a 200 OK response with the body as it is, gzipped if the body has a gzipped form and the client accepts
+     * it.
+     */
+    public static Response newApiResponse(IHTTPSession session, ResponseCache.Body body) {
+        String acceptEncoding = session.getHeaders().get("accept-encoding");
+        Optional<byte[]> gzipped = body.gzipped();
+        boolean useGzip = gzipped.isPresent() && acceptEncoding != null && acceptEncoding.contains("gzip");
+        byte[] bytes = useGzip ? gzipped.get() : body.utf8();
+        Response response = addApiResponseHeaders(newFixedLengthResponse(Response.Status.OK, "application/json",
+                new ByteArrayInputStream(bytes), bytes.length));
+        if(useGzip) {
+            response.addHeader("Content-Encoding", "gzip");
+        }
+        return response;
+    }
+
+    /**
+     * <p>A response whose JSON body is written while it's being sent, in chunks, instead of being built as one
+     * {@code String} first.
+     *
+     * <p>The body is written on a separate thread into a pipe the response reads from. If writing fails part way,
+     * the response is cut short, the status has already been sent by then.</p>
+     *
+     * @param body writes the JSON body.
+     * @return a chunked 200 OK response with the body.
+     */
+    public static Response newStreamingApiResponse(JsonBody body) {
+        PipedInputStream in = new PipedInputStream(STREAMING_BUFFER_BYTES);
+        PipedOutputStream out;
+        try {
+            out = new PipedOutputStream(in);
+        } catch (IOException e) {
+            // should not happen, the input stream was just created
+            throw new IllegalStateException(e);
+        }
+        STREAMING_WRITERS.execute(() -> {
+            try (JsonWriter writer = new JsonWriter(
+                    new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))) {
+                body.write(writer);
+            } catch (IOException e) {
+                LOG.warning("Streaming response cut short: " + e.getMessage());
+            }
+        });
+        return addApiResponseHeaders(newChunkedResponse(Response.Status.OK, "application/json", in));
+    }
+
+    /**
+     * @param eTag the tag of the resource the client already has.
+     * @return an empty 304 Not Modified response, telling the client to use what it already has.
+     */
+    public static Response newNotModifiedResponse(String eTag) {
+        Response response = addApiResponseHeaders(newFixedLengthResponse(Response.Status.NOT_MODIFIED,
+                "application/json", ""));
+        response.addHeader("ETag", eTag);
+        return response;
+    }
+
+    /**
+     * @param session the client's request.
+     * @param eTag the current tag of the requested resource.
+     * @return true if the request's {@code If-None-Match} header lists the tag, or is {@code *}, so the client already
+     * has the resource as it is.
+     */
+    protected static boolean isNotModified(IHTTPSession session, String eTag) {
+        String ifNoneMatch = session.getHeaders().get("if-none-match"); // nanohttpd lower cases header names
+        if(ifNoneMatch == null) {
+            return false;
+        }
+        for(String tag : ifNoneMatch.split(",")) {
+            String t = tag.trim();
+            if(t.equals("*") || t.equals(eTag) || t.equals("W/" + eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Writes the body of a streaming response. */
+    @FunctionalInterface
+    public interface JsonBody {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    /** How much of a streaming response can be written ahead of what's been sent. */
+    private static final int STREAMING_BUFFER_BYTES = 64 * 1024;
+
+    /** Where the bodies of streaming responses are written. */
+    private static final ExecutorService STREAMING_WRITERS = Executors.newCachedThreadPool((r) -> {
+        Thread t = new Thread(r, "streaming-response");
+        t.setDaemon(true);
+        return t;
+    });
+
     /**
      * @param response a response containing JSON part of this API.
      * @return a response with the headers denoting a JSON payload, and other specifics to do with this API.
@@ -272,7 +531,8 @@ public abstract class Server extends NanoHTTPD {
         response.addHeader("Content-Type", "application/json");
         response.addHeader("Access-Control-Allow-Methods", "DELETE, GET, POST, PUT, OPTIONS");
         response.addHeader("Access-Control-Allow-Origin",  "*");
-        response.addHeader("Access-Control-Allow-Headers", "X-Requested-With, Content-Type");
+        response.addHeader("Access-Control-Allow-Headers", "X-Requested-With, Content-Type, If-None-Match");
+        response.addHeader("Access-Control-Expose-Headers", "ETag");
         return response;
     }
 
@@ -394,15 +654,24 @@ public abstract class Server extends NanoHTTPD {
                 "+-- GET  /date                                             - current date\n" +
                 "+-- GET  /time                                             - current time\n" +
                 "+-- GET  /datetime                                         - current date and time\n" +
-                "+-- GET  /details                                          - the server's current mining difficulty and maximum tx per block (for all blockchains)\n" +
+                "+-- GET  /details                                          - the server's current mining difficulty (leading zero bits and 256 bit target), measured hash rate, maximum tx per block and response cache hits, misses and size, and the false positive rate of block filters in searches\n" +
                 "+-- GET  /blockchains                                      - the blockchain ids that the server has stored\n" + 
-                " +- GET  /blockchain/{id}                                  - the entire blockchain with {id}\n" +
+                " +- GET  /blockchain/{id}                                  - the entire blockchain with {id}, streamed as a version 2 list of blocks, genesis first, tagged by its tip (send If-None-Match to get 304 Not Modified if unchanged)\n" +
+                " +- GET  /blockchain/headers?from={h}&limit={n}            - the headers of up to {n} blocks from height {h}, and the height of the blockchain\n" +
+                " +- GET  /blockchain/blocks?from={h}&to={t}&limit={n}      - up to {n} blocks from height {h} up to (not including) {t}, in the same format as the entire blockchain\n" +
+                " +- GET  /blockchain/blocks?latest={n}                     - the newest {n} blocks, in the same format as the entire blockchain\n" +
+                " +- GET  /blockchain/transactions?after={txId}&limit={n}   - up to {n} transactions after the one with id {txId} (or before it, with before={txId}; or else the newest), oldest first, and the ids to page on from\n" +
                 " +- GET  /blockchain/{id}/buffer                           - blockchain with {id}'s transaction buffer\n" +
+                " +- GET  /blockchain/signer/{keyHash}/transactions?from={i}&limit={n} - up to {n} of the transactions signed with the public key whose UTF-8 SHA-256 hash is {keyHash}, oldest first from the {i}th, and how many there are\n" +
+                " +- GET  /blockchain/search/payloads?q={words}&from={i}&limit={n} - up to {n} of the transactions whose payloads have every word in {words} (a word ending with * matches as a prefix), oldest first from the {i}th, and how many there are\n" +
+                " +- GET  /blockchain/search?transaction={txId}&publicKey={key}&payload={p}&limit={n} - up to {n} transactions matching every parameter given, the blocks they're in, and how many blocks their Bloom filters let the search skip and wrongly let through\n" +
                 " +- GET  /blockchain/{bcId}/transaction/{txId}             - the transaction with {txId} that belongs to blockchain with {bcId}\n" +
                 " +- GET  /blockchain/{bcId}/block/{bId}/transaction/{txId} - the transaction with {txId} that belongs to block with {bId} that belongs to blockchain with {bcId}\n" +
+                " +- GET  /blockchain/block/{bId}/transaction/{txId}/proof   - proof that the transaction with {txId} is in block {bId}: its hash, the block's merkle root, and the O(log n) sibling hashes linking them\n" +
                 "\n" +
                 "+-- POST /blockchain                                       - create a new blockchain, returns the newly created blockchain\n" +
                 " +- POST /blockchain/{id}/transaction                      - create a new transaction, slated to be added to blockchain with {id}, and put it on the server's transaction buffer\n" +
+                " +- POST /blockchain/transactions                          - create many transactions at once from a json array or newline-delimited json of {\"payload\": ...}, all put on the transaction buffer or none are; returns their ids\n" +
                 " +- POST /blockchain/{id}                                  - request the server empty its transactions from its tx buffer into a block, mine that block and add it to the blockchain\n" +
                 "\n" +
                 "+-- PUT \n" +
@@ -1,6 +1,7 @@
 package edu.marist.jointstudy.essence.api.server;
 
 import edu.marist.jointstudy.essence.api.store.Store;
+import edu.marist.jointstudy.essence.core.structures.Block;
 import edu.marist.jointstudy.essence.core.structures.Blockchain;
 import edu.marist.jointstudy.essence.core.structures.Transaction;
 import okhttp3.HttpUrl;
@@ -9,6 +10,7 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -36,8 +38,8 @@ public class SybilBlockchainServer extends BlockchainServer {
 
     /** Simulate no transactions to be mined. */
     @Override
-    public boolean mineBlockchain() throws IOException {
-        return false;
+    public Optional<Block> mineBlockchain() throws IOException {
+        return Optional.empty();
     }
 
     /** Simulate malformed transaction body for all submitted transactions. */
@@ -0,0 +1,22 @@
+package edu.marist.jointstudy.essence.api.server;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * A response to a request for a resource path with wildcards, e.g. /blockchain/signer/&#42;/transactions, where
+ * "*" stands for any one part of the url that isn't a number.
+ */
+@FunctionalInterface
+public interface WildcardResponse {
+
+    /**
+     * @param session the request that was sent.
+     * @param ids the ids in order of appearance in the original url, as for a {@link ResourceResponse}.
+     * @param wildcards the parts of the url that matched each "*", in order of appearance. Lowercase, like the rest of
+     *                  the path.
+     * @return a response to the client, typically with the requested resource or a {@link Failure} error if something
+     * went wrong.
+     */
+    NanoHTTPD.Response respond(NanoHTTPD.IHTTPSession session, int[] ids, String[] wildcards);
+
+}
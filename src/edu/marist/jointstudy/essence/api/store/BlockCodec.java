@@ -0,0 +1,273 @@
+package edu.marist.jointstudy.essence.api.store;
+
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+import edu.marist.jointstudy.essence.core.mine.Nonce;
+import edu.marist.jointstudy.essence.core.structures.Block;
+import edu.marist.jointstudy.essence.core.structures.BlockFilter;
+import edu.marist.jointstudy.essence.core.structures.Transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.function.Supplier;
+
+/**
+ * <p>Compact binary encoding of one block, without its previous block. Blocks are stored one after the other, each
+ * one's previous block is the one stored before it.
+ *
+ * <p>Layout, big-endian:</p>
+ * <pre>
+ * byte FORMAT | int id | long nonce | int headerVersion | int difficulty | long timestamp | byte hashLength | hash
+ * | byte rootLength | merkleRoot | int txCount
+ * | txCount * (int id | string payload | string publicKey | string signature | string scheme)
+ * | filter | int filterLength
+ * </pre>
+ * <p>where a string is an int byte length (-1 for null) followed by that many UTF-8 bytes. The hash is stored so a
+ * block can be compared against another chain without decoding it, it's recomputed when the block is decoded. The
+ * merkle root is stored so the block after it can be decoded without decoding this one. A transaction's scheme is
+ * its tag, null for untagged (DSA) transactions.</p>
+ * <p>The format byte is checked when a block is read, so a record written in another layout is reported instead of
+ * misread. The header version is the block's, see {@link Block#HEADER_VERSION}.</p>
+ * <p>The block's {@link BlockFilter} is stored at the end, so it can be read from the end of the record without
+ * reading past the transactions.</p>
+ */
+public final class BlockCodec {
+
+    /** The layout of the records written by {@link #encode(Block)}. */
+    static final byte FORMAT = 1;
+
+    /** Where the hash length byte is in an encoded block. */
+    private static final int HASH_POSITION = 1 + Integer.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES
+            + Long.BYTES;
+
+    private BlockCodec() { }
+
+    /** @return the encoding of the given block, without its previous block. */
+    public static byte[] encode(Block block) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT);
+            out.writeInt(block.getId());
+            out.writeLong(block.getNonce().longValue());
+            out.writeInt(block.getHeaderVersion());
+            out.writeInt(block.getDifficulty());
+            out.writeLong(block.getTimestamp());
+            byte[] hash = block.getHash().toByteArray();
+            out.writeByte(hash.length);
+            out.write(hash);
+            byte[] root = block.getTransactionsAsMerkleTree().getMerkleRoot().toByteArray();
+            out.writeByte(root.length);
+            out.write(root);
+            out.writeInt(block.getTransactions().size());
+            for(Transaction tx : block.getTransactions()) {
+                out.writeInt(tx.getId());
+                writeString(out, tx.getPayload());
+                writeString(out, tx.getPublicKey());
+                writeString(out, tx.getSignature());
+                writeString(out, tx.getScheme());
+            }
+            byte[] filter = block.getFilter().toByteArray();
+            out.write(filter);
+            out.writeInt(filter.length);
+        } catch (IOException e) {
+            // should not happen, it's all in memory
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param encoded an encoded block, from its position to its limit. The position is moved past the block.
+     * @param previousBlock the block stored before this one, null for the genesis block.
+     * @return the decoded block, linked to the given previous block.
+     * @throws IOException if the bytes aren't an encoded block.
+     */
+    public static Block decode(ByteBuffer encoded, Block previousBlock) throws IOException {
+        try {
+            Header header = new Header(encoded);
+            List<Transaction> txs = transactions(encoded);
+            // like parsing json, the id follows from the previous block
+            return Block.newUnsafeBlock(txs, previousBlock, header.nonce, header.headerVersion, header.difficulty,
+                    header.timestamp);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt block, it ends early or has a bad length.", e);
+        }
+    }
+
+    /**
+     * Decodes a block that loads its previous block on demand instead of referencing it.
+     *
+     * @param encoded an encoded block, from its position to its limit. The position is moved past the block.
+     * @param height the height of the block, which is also its id.
+     * @param previousMerkleRoot the merkle root of the block stored before this one, null for the genesis block.
+     * @param previousBlock supplies the block stored before this one.
+     * @return the decoded block.
+     * @throws IOException if the bytes aren't an encoded block.
+     */
+    public static Block decode(ByteBuffer encoded, int height, Hashcode previousMerkleRoot,
+                               Supplier<Block> previousBlock) throws IOException {
+        try {
+            Header header = new Header(encoded);
+            List<Transaction> txs = transactions(encoded);
+            return Block.newUnsafeBlock(txs, height, previousMerkleRoot, previousBlock,
+                    header.nonce, header.headerVersion, header.difficulty, header.timestamp);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt block, it ends early or has a bad length.", e);
+        }
+    }
+
+    /** @return the merkle root stored with the encoded block. Does not decode the block or move the position. */
+    public static Hashcode merkleRoot(ByteBuffer encoded) throws IOException {
+        try {
+            return Hashcode.SHA256.wrap(new Header(encoded.duplicate()).merkleRoot);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt block, it ends early or has a bad length.", e);
+        }
+    }
+
+    /**
+     * @return the id of the first transaction in the encoded block, empty if it has none. Does not decode the block or
+     * move the position.
+     */
+    public static OptionalInt firstTransactionId(ByteBuffer encoded) throws IOException {
+        try {
+            ByteBuffer view = encoded.duplicate();
+            new Header(view);
+            return view.getInt() == 0 ? OptionalInt.empty() : OptionalInt.of(view.getInt());
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt block, it ends early or has a bad length.", e);
+        }
+    }
+
+    /**
+     * @param encoded an encoded block, from its position to its limit.
+     * @return the filter stored with the encoded block. Does not decode the block or move the position.
+     */
+    public static BlockFilter filter(ByteBuffer encoded) throws IOException {
+        int end = encoded.limit();
+        if(end - encoded.position() < Integer.BYTES) {
+            throw new IOException("Corrupt block, it ends early.");
+        }
+        int length = encoded.getInt(end - Integer.BYTES);
+        int start = end - Integer.BYTES - length;
+        if(length < 0 || start < encoded.position()) {
+            throw new IOException("Corrupt block, filter length: " + length);
+        }
+        byte[] filter = new byte[length];
+        ByteBuffer view = encoded.duplicate();
+        view.position(start);
+        view.get(filter);
+        try {
+            return BlockFilter.fromByteArray(filter);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt block filter.", e);
+        }
+    }
+
+    /** @return the hash stored with the encoded block. Does not decode the block or move the position. */
+    public static Hashcode hash(ByteBuffer encoded) throws IOException {
+        try {
+            checkFormat(encoded.get(encoded.position()));
+            byte[] stored = new byte[encoded.get(encoded.position() + HASH_POSITION) & 0xFF];
+            ByteBuffer view = encoded.duplicate();
+            view.position(encoded.position() + HASH_POSITION + 1);
+            view.get(stored);
+            return Hashcode.SHA256.wrap(stored);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupt block, it ends early or has a bad length.", e);
+        }
+    }
+
+    /** @return true if the encoded block has the given hash. Does not decode the block. */
+    public static boolean hasHash(ByteBuffer encoded, byte[] hash) {
+        if(encoded.get(encoded.position()) != FORMAT) {
+            return false;
+        }
+        int length = encoded.get(encoded.position() + HASH_POSITION) & 0xFF;
+        if(length != hash.length) {
+            return false;
+        }
+        byte[] stored = new byte[length];
+        ByteBuffer view = encoded.duplicate();
+        view.position(encoded.position() + HASH_POSITION + 1);
+        view.get(stored);
+        return Arrays.equals(stored, hash);
+    }
+
+    private static List<Transaction> transactions(ByteBuffer encoded) throws IOException {
+        int txCount = encoded.getInt();
+        if(txCount < 0 || txCount > encoded.remaining()) {
+            throw new IOException("Corrupt block, transaction count: " + txCount);
+        }
+        List<Transaction> txs = new ArrayList<>(txCount);
+        for(int i = 0; i < txCount; i++) {
+            int txId = encoded.getInt();
+            String payload = readString(encoded);
+            String publicKey = readString(encoded);
+            String signature = readString(encoded);
+            String scheme = readString(encoded);
+            txs.add(Transaction.wrapUnsafe(payload, publicKey, signature, scheme, txId));
+        }
+        return txs;
+    }
+
+    /** Everything in an encoded block before its transactions. */
+    private static final class Header {
+        private final Nonce nonce;
+        private final int headerVersion;
+        private final int difficulty;
+        private final long timestamp;
+        private final byte[] merkleRoot;
+
+        /** Reads the header, leaving the position at the transaction count. */
+        private Header(ByteBuffer encoded) throws IOException {
+            checkFormat(encoded.get());
+            encoded.getInt(); // the id follows from the block's height
+            this.nonce = Nonce.newNonce(encoded.getLong());
+            this.headerVersion = encoded.getInt();
+            this.difficulty = encoded.getInt();
+            this.timestamp = encoded.getLong();
+            int hashLength = encoded.get() & 0xFF;
+            encoded.position(encoded.position() + hashLength); // the hash is recomputed
+            this.merkleRoot = new byte[encoded.get() & 0xFF];
+            encoded.get(merkleRoot);
+        }
+    }
+
+    private static void checkFormat(byte format) throws IOException {
+        if(format != FORMAT) {
+            throw new IOException("Unknown block format: " + format);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if(s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if(length == -1) {
+            return null;
+        }
+        if(length < 0 || length > in.remaining()) {
+            throw new IOException("Corrupt string length: " + length);
+        }
+        byte[] utf8 = new byte[length];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,523 @@
+package edu.marist.jointstudy.essence.api.store;
+
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+import edu.marist.jointstudy.essence.core.structures.Block;
+import edu.marist.jointstudy.essence.core.structures.Blockchain;
+import edu.marist.jointstudy.essence.core.structures.PayloadIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Stores a blockchain as an append-only log of binary encoded blocks (see {@link BlockCodec}), so saving a
+ * blockchain that grew by one block only writes that block.
+ *
+ * <p>The log is split into segment files of at most {@code segmentBytes} each, {@code blocks-00000.log},
+ * {@code blocks-00001.log}, etc. Each record in a segment is {@code int length | int crc32 | block}. An index file,
+ * {@code blocks.idx}, has one fixed size entry per block height, {@code int segment | long offset | int length},
+ * so any block can be found without scanning the log.</p>
+ *
+ * <p>Writes are forced to disk in batches of {@code syncEveryBlocks} blocks, and by {@link #flush()} and
+ * {@link #close()}. A crash of the process loses nothing, the OS still has the writes. Losing power can lose the
+ * last unforced batch, which a peer gets back from its friends. A torn write at the end of the log is found by its
+ * length or checksum when the store is opened and cut off.</p>
+ *
+ * <p>If a saved blockchain doesn't extend the stored one (a friend's longer chain replaced ours) the log is cut back
+ * to the blocks both have in common, and the rest is appended.</p>
+ *
+ * <p>In <em>mapped</em> mode {@link #get()} doesn't read the log, it memory maps it and returns a blockchain whose
+ * blocks are decoded when they're used and can be evicted again (see {@link MappedBlockSource}). Getting a blockchain
+ * of any length then only decodes its current block.</p>
+ *
+ * <p>The payload index of the blockchain last saved or gotten (see {@link PayloadIndex}) is written to
+ * {@code payloads.idx} by {@link #close()}, and by {@link #flush()} once it covers
+ * {@value #PAYLOAD_INDEX_EVERY_BLOCKS} more blocks than the one written before. {@code get()} reads it back, so only
+ * the blocks stored since have to be indexed. It's {@code byte hashLength | hash | index}, the hash being that of the
+ * last block it covers; it's ignored if the stored blockchain doesn't have that block anymore.</p>
+ */
+public class BlockLogStore implements Store<Blockchain>, Flushable, Closeable {
+
+    /** 64 MiB */
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    public static final int DEFAULT_SYNC_EVERY_BLOCKS = 16;
+
+    private static final String INDEX_FILE = "blocks.idx";
+
+    private static final String PAYLOAD_INDEX_FILE = "payloads.idx";
+
+    /** How many more blocks the payload index has to cover before {@code flush()} writes it again. */
+    static final int PAYLOAD_INDEX_EVERY_BLOCKS = 1024;
+
+    private static final Logger LOG = Logger.getLogger(BlockLogStore.class.getName());
+
+    /** segment, offset, length */
+    private static final int INDEX_ENTRY_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    /** length, crc32 */
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES + Integer.BYTES;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int syncEveryBlocks;
+    private final boolean mapped;
+
+    /** The sources handed out by {@code get()} in mapped mode, they have to hear about the log being cut back. */
+    private final List<WeakReference<MappedBlockSource>> sources = new ArrayList<>();
+
+    private FileChannel index;
+
+    /** The segment new blocks are appended to. */
+    private FileChannel segment;
+    private int segmentNumber;
+
+    /** The number of blocks stored. */
+    private int height;
+
+    /** Blocks appended since the last time the log and index were forced to disk. */
+    private int unsynced = 0;
+
+    /** The blockchain last saved or gotten, whose payload index is written. */
+    private WeakReference<Blockchain> indexed = new WeakReference<>(null);
+
+    /** The height of the payload index last written or read, -1 if there's none. */
+    private int payloadIndexHeight = -1;
+
+    /**
+     * Opens the block log in the given directory, creating it if it doesn't exist yet, with the default segment size
+     * and sync batch.
+     */
+    public BlockLogStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_SYNC_EVERY_BLOCKS, false);
+    }
+
+    /**
+     * @param directory where the log and its index are.
+     * @param segmentBytes the size a segment can grow to before a new one is started. A block bigger than this gets
+     *                     a segment to itself.
+     * @param syncEveryBlocks how many blocks are appended between forcing the log to disk, at least one.
+     * @param mapped true if {@code get()} returns blockchains decoded lazily from the memory mapped log, false if it
+     *               decodes every block up front.
+     */
+    public BlockLogStore(Path directory, long segmentBytes, int syncEveryBlocks, boolean mapped) throws IOException {
+        if(segmentBytes < 1 || syncEveryBlocks < 1) {
+            throw new IllegalArgumentException("segmentBytes and syncEveryBlocks must be positive, given: "
+                    + segmentBytes + ", " + syncEveryBlocks);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.syncEveryBlocks = syncEveryBlocks;
+        this.mapped = mapped;
+        if(mapped && segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Mapped segments can't be bigger than 2 GiB, given: " + segmentBytes);
+        }
+
+        if(!directory.toFile().exists()) {
+            if(!directory.toFile().mkdir()) {
+                throw new IOException("Unable to make a store directory: " + directory);
+            }
+        }
+        open();
+    }
+
+    /**
+     * Appends the blocks of the given blockchain that aren't stored yet. If the stored blocks aren't a prefix of the
+     * blockchain, the ones that differ are replaced. Only the blocks from where the two part ways up are decoded, a
+     * blockchain gotten from the store isn't read back in full to save its new blocks.
+     *
+     * <p>The blockchain is only locked to read its size and collect its new blocks, which don't change once they're
+     * part of it. The log is compared, cut back and written without holding the lock, so the blockchain can be read
+     * and added to in the meantime. If it changed while it was compared with the log, it's compared again.</p>
+     */
+    @Override
+    public synchronized void save(Blockchain bc) throws IOException {
+        int common;
+        List<Block> newBlocks;
+        while(true) {
+            int size;
+            Optional<Hashcode> tip;
+            synchronized (bc) {
+                size = bc.size();
+                tip = bc.getBlockHash(size - 1);
+            }
+            common = commonPrefix(bc, size);
+            synchronized (bc) {
+                // the tip hash commits to every block below it, so the same tip means the same blocks
+                if(bc.size() == size && sameHash(bc.getBlockHash(size - 1), tip)) {
+                    newBlocks = bc.getBlocks(common, size);
+                    break;
+                }
+            }
+        }
+        if(common < height) {
+            truncate(common);
+        }
+        for(Block b : newBlocks) {
+            append(BlockCodec.encode(b));
+        }
+        indexed = new WeakReference<>(bc);
+        if(unsynced >= syncEveryBlocks) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized Optional<Blockchain> get() throws IOException {
+        if(height == 0) {
+            return Optional.empty();
+        }
+        if(mapped) {
+            MappedBlockSource source = new MappedBlockSource(height,
+                    index.map(FileChannel.MapMode.READ_ONLY, 0, (long) height * INDEX_ENTRY_BYTES),
+                    segmentNumber + 1, this::segmentPath);
+            sources.removeIf((ref) -> ref.get() == null);
+            sources.add(new WeakReference<>(source));
+            return Optional.of(withPayloadIndex(Blockchain.newLazyBlockchain(source)));
+        }
+        Block current = null;
+        int openSegment = -1;
+        FileChannel reading = null;
+        try {
+            for(int h = 0; h < height; h++) {
+                ByteBuffer entry = readEntry(h);
+                int s = entry.getInt();
+                if(s != openSegment) {
+                    if(reading != null && reading != segment) reading.close();
+                    reading = s == segmentNumber ? segment : FileChannel.open(segmentPath(s), StandardOpenOption.READ);
+                    openSegment = s;
+                }
+                current = BlockCodec.decode(readRecord(reading, entry.getLong(), entry.getInt()), current);
+            }
+        } finally {
+            if(reading != null && reading != segment) reading.close();
+        }
+        return Optional.of(withPayloadIndex(Blockchain.newUnsafeBlockchain(current)));
+    }
+
+    @Override
+    public synchronized boolean exists() {
+        return height > 0;
+    }
+
+    /**
+     * Deletes the log, its index and the directory they're in.
+     * @return true if everything was deleted, false otherwise.
+     */
+    @Override
+    public synchronized boolean delete() {
+        try {
+            close();
+        } catch (IOException ignored) {
+            // deleting anyway
+        }
+        boolean didDelete = directory.resolve(INDEX_FILE).toFile().delete();
+        File payloadIndex = directory.resolve(PAYLOAD_INDEX_FILE).toFile();
+        didDelete = (!payloadIndex.exists() || payloadIndex.delete()) && didDelete;
+        for(int s = 0; segmentPath(s).toFile().exists(); s++) {
+            didDelete = segmentPath(s).toFile().delete() && didDelete;
+        }
+        return directory.toFile().delete() && didDelete;
+    }
+
+    /**
+     * Forces every block appended so far to disk, and writes the payload index if it covers
+     * {@value #PAYLOAD_INDEX_EVERY_BLOCKS} more blocks than the one written before.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if(unsynced > 0) {
+            segment.force(false);
+            index.force(false);
+            unsynced = 0;
+        }
+        writePayloadIndex(false);
+    }
+
+    /** Flushes and closes the log. The store can't be used afterwards. */
+    @Override
+    public synchronized void close() throws IOException {
+        if(index == null || !index.isOpen()) {
+            return;
+        }
+        try {
+            flush();
+            writePayloadIndex(true);
+        } finally {
+            segment.close();
+            index.close();
+        }
+    }
+
+    /** @return the number of blocks stored. */
+    public synchronized int size() {
+        return height;
+    }
+
+    /**
+     * @return the hash stored with the highest block, read without decoding the block or the blockchain, empty if
+     * there are no blocks.
+     */
+    public synchronized Optional<Hashcode> tipHash() throws IOException {
+        if(height == 0) {
+            return Optional.empty();
+        }
+        ByteBuffer entry = readEntry(height - 1);
+        entry.getInt(); // the highest block is always in the open segment
+        return Optional.of(BlockCodec.hash(readRecord(segment, entry.getLong(), entry.getInt())));
+    }
+
+    // ========= Log ==========
+
+    /** Opens the index and the last segment, cutting off anything a crash left half written. */
+    private void open() throws IOException {
+        index = FileChannel.open(directory.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        height = (int) (index.size() / INDEX_ENTRY_BYTES);
+
+        // drop index entries whose record didn't make it to disk in one piece
+        while(height > 0 && !isIntact(height - 1)) {
+            height--;
+        }
+        index.truncate((long) height * INDEX_ENTRY_BYTES);
+
+        long end = 0;
+        segmentNumber = 0;
+        if(height > 0) {
+            ByteBuffer last = readEntry(height - 1);
+            segmentNumber = last.getInt();
+            end = last.getLong() + RECORD_HEADER_BYTES + last.getInt();
+        }
+        deleteSegmentsAfter(segmentNumber);
+        segment = FileChannel.open(segmentPath(segmentNumber),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment.truncate(end); // records written after the last index entry
+    }
+
+    private void append(byte[] block) throws IOException {
+        long offset = segment.size();
+        if(offset > 0 && offset + RECORD_HEADER_BYTES + block.length > segmentBytes) {
+            segment.force(false); // the finished segment is never written again
+            segment.close();
+            segmentNumber++;
+            segment = FileChannel.open(segmentPath(segmentNumber),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            offset = 0;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(block);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + block.length)
+                .putInt(block.length)
+                .putInt((int) crc.getValue())
+                .put(block);
+        record.flip();
+        writeFully(segment, record, offset);
+
+        // the index is written after the record, so an entry never points at a record that isn't there
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES)
+                .putInt(segmentNumber)
+                .putLong(offset)
+                .putInt(block.length);
+        entry.flip();
+        writeFully(index, entry, (long) height * INDEX_ENTRY_BYTES);
+
+        height++;
+        unsynced++;
+    }
+
+    /** Removes every block from the given height up. */
+    private void truncate(int newHeight) throws IOException {
+        for(WeakReference<MappedBlockSource> ref : sources) {
+            MappedBlockSource source = ref.get();
+            if(source != null) {
+                source.pinFrom(newHeight); // their bytes are about to be overwritten
+            }
+        }
+        int keepSegment = 0;
+        long end = 0;
+        if(newHeight > 0) {
+            ByteBuffer last = readEntry(newHeight - 1);
+            keepSegment = last.getInt();
+            end = last.getLong() + RECORD_HEADER_BYTES + last.getInt();
+        }
+        index.truncate((long) newHeight * INDEX_ENTRY_BYTES);
+        if(keepSegment != segmentNumber) {
+            segment.close();
+            deleteSegmentsAfter(keepSegment);
+            segmentNumber = keepSegment;
+            segment = FileChannel.open(segmentPath(segmentNumber),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        segment.truncate(end);
+        height = newHeight;
+        unsynced++; // the truncation is forced with the next batch
+    }
+
+    /**
+     * @param size the number of blocks in the blockchain.
+     * @return how many blocks, from genesis up, the blockchain and this log have in common.
+     */
+    private int commonPrefix(Blockchain bc, int size) throws IOException {
+        // walk down from the highest block both could have, a replaced chain usually only differs near its tip
+        for(int h = Math.min(height, size) - 1; h >= 0; h--) {
+            Optional<Hashcode> hash = bc.getBlockHash(h);
+            if(hash.isPresent() && hasHash(h, hash.get().toByteArray())) {
+                return h + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean sameHash(Optional<Hashcode> a, Optional<Hashcode> b) {
+        return a.map(Hashcode::toString).equals(b.map(Hashcode::toString));
+    }
+
+    private boolean hasHash(int h, byte[] hash) throws IOException {
+        ByteBuffer entry = readEntry(h);
+        int s = entry.getInt();
+        long offset = entry.getLong();
+        int length = entry.getInt();
+        if(s == segmentNumber) {
+            return BlockCodec.hasHash(readRecord(segment, offset, length), hash);
+        }
+        try (FileChannel older = FileChannel.open(segmentPath(s), StandardOpenOption.READ)) {
+            return BlockCodec.hasHash(readRecord(older, offset, length), hash);
+        }
+    }
+
+    /** @return true if the record at the given height is all there and matches its checksum. */
+    private boolean isIntact(int h) throws IOException {
+        ByteBuffer entry = readEntry(h);
+        Path path = segmentPath(entry.getInt());
+        if(!path.toFile().exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            readRecord(channel, entry.getLong(), entry.getInt());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private ByteBuffer readEntry(int h) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+        readFully(index, entry, (long) h * INDEX_ENTRY_BYTES);
+        entry.flip();
+        return entry;
+    }
+
+    /** @return the block stored in the record at the given offset, after checking its length and checksum. */
+    private static ByteBuffer readRecord(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+        readFully(channel, record, offset);
+        record.flip();
+        int storedLength = record.getInt();
+        int storedCrc = record.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_BYTES, length);
+        if(storedLength != length || storedCrc != (int) crc.getValue()) {
+            throw new IOException("Corrupt block record at offset " + offset);
+        }
+        return record;
+    }
+
+    /**
+     * Writes the payload index of the blockchain last saved or gotten, unless it's the one written before.
+     * @param always false to only write it if it covers {@value #PAYLOAD_INDEX_EVERY_BLOCKS} more (or fewer) blocks
+     *               than the one written before, or none was.
+     */
+    private void writePayloadIndex(boolean always) throws IOException {
+        Blockchain bc = indexed.get();
+        if(bc == null) {
+            return;
+        }
+        PayloadIndex payloads;
+        byte[] lastHash;
+        synchronized (bc) {
+            int covered = bc.getPayloadIndexHeight();
+            boolean stale = payloadIndexHeight < 0
+                    || Math.abs(covered - payloadIndexHeight) >= PAYLOAD_INDEX_EVERY_BLOCKS;
+            if(covered == 0 || covered == payloadIndexHeight || !(always || stale)) {
+                return;
+            }
+            payloads = bc.getPayloadIndex();
+            lastHash = bc.getBlockHash(covered - 1).get().toByteArray();
+        }
+        Path file = directory.resolve(PAYLOAD_INDEX_FILE);
+        Path written = directory.resolve(PAYLOAD_INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(written)))) {
+            out.writeByte(lastHash.length);
+            out.write(lastHash);
+            payloads.write(out);
+        }
+        // a crash while it's written leaves the one written before
+        Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        payloadIndexHeight = payloads.height();
+    }
+
+    /** @return the blockchain, using the payload index written for it if there's one and it's still valid. */
+    private Blockchain withPayloadIndex(Blockchain bc) {
+        indexed = new WeakReference<>(bc);
+        Path file = directory.resolve(PAYLOAD_INDEX_FILE);
+        if(!Files.exists(file)) {
+            return bc;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] lastHash = new byte[in.readUnsignedByte()];
+            in.readFully(lastHash);
+            PayloadIndex payloads = PayloadIndex.read(in);
+            if(bc.usePayloadIndex(payloads, Hashcode.SHA256.wrap(lastHash))) {
+                payloadIndexHeight = payloads.height();
+            }
+        } catch (IOException e) {
+            // the blocks are indexed again instead
+            LOG.warning("Couldn't read the payload index: " + e.getMessage());
+        }
+        return bc;
+    }
+
+    private void deleteSegmentsAfter(int s) throws IOException {
+        for(int later = s + 1; segmentPath(later).toFile().exists(); later++) {
+            Files.delete(segmentPath(later));
+        }
+    }
+
+    private Path segmentPath(int s) {
+        return directory.resolve(String.format("blocks-%05d.log", s));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if(read < 0) {
+                throw new IOException("Unexpected end of " + channel + " at " + position);
+            }
+            position += read;
+        }
+    }
+}
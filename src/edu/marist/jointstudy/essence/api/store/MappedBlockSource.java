@@ -0,0 +1,210 @@
+package edu.marist.jointstudy.essence.api.store;
+
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+import edu.marist.jointstudy.essence.core.structures.Block;
+import edu.marist.jointstudy.essence.core.structures.BlockFilter;
+import edu.marist.jointstudy.essence.core.structures.BlockSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * <p>The blocks of a {@link BlockLogStore}, read straight out of memory mapped segment files.
+ *
+ * <p>Blocks are decoded the first time they're asked for and kept behind soft references, so the garbage collector
+ * can evict any of them when it's low on memory. They're decoded again if they're needed after that.</p>
+ *
+ * <p>The index and segments are mapped as they were when the source was created, blocks appended to the log later
+ * aren't part of it. If the log is cut back below the top of a source, the store first has the source
+ * {@link #pinFrom(int) pin} the blocks being cut, so the source never reads bytes that have been overwritten.</p>
+ */
+final class MappedBlockSource implements BlockSource {
+
+    /** segment, offset, length */
+    private static final int INDEX_ENTRY_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    /** length, crc32 */
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES + Integer.BYTES;
+
+    private final int size;
+    private final ByteBuffer index;
+    private final MappedByteBuffer[] segments;
+
+    /** Decoded blocks by height. */
+    private final AtomicReferenceArray<SoftReference<Block>> decoded;
+
+    /** The filters of the blocks by height, read from the log when they're first asked for. They're small. */
+    private final BlockFilter[] filters;
+
+    /** Blocks that have to stay decoded because their bytes are gone from the log. */
+    private final Map<Integer, Block> pinned = new HashMap<>();
+
+    /**
+     * @param size the number of blocks in the log.
+     * @param index the index of the log, at least {@code size} entries.
+     * @param segmentCount the number of segments in the log.
+     * @param segmentPath where each segment is.
+     */
+    MappedBlockSource(int size, ByteBuffer index, int segmentCount, IntFunction<Path> segmentPath)
+            throws IOException {
+        this.size = size;
+        this.index = index;
+        this.segments = new MappedByteBuffer[segmentCount];
+        for(int s = 0; s < segmentCount; s++) {
+            try (FileChannel channel = FileChannel.open(segmentPath.apply(s), StandardOpenOption.READ)) {
+                // the mapping stays valid after the channel is closed
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        this.decoded = new AtomicReferenceArray<>(size);
+        this.filters = new BlockFilter[size];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized Block get(int height) {
+        if(height < 0 || height >= size) {
+            throw new IndexOutOfBoundsException("Height: " + height + ", size: " + size);
+        }
+        Block pinnedBlock = pinned.get(height);
+        if(pinnedBlock != null) {
+            return pinnedBlock;
+        }
+        SoftReference<Block> ref = decoded.get(height);
+        Block b = ref == null ? null : ref.get();
+        if(b == null) {
+            try {
+                Hashcode previousRoot = height == 0 ? null : BlockCodec.merkleRoot(record(height - 1));
+                b = BlockCodec.decode(record(height), height, previousRoot,
+                        () -> height == 0 ? null : get(height - 1));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            decoded.set(height, new SoftReference<>(b));
+        }
+        return b;
+    }
+
+    /** Reads the filter stored at the end of the block, without decoding it. */
+    @Override
+    public synchronized BlockFilter filter(int height) {
+        if(height < 0 || height >= size) {
+            throw new IndexOutOfBoundsException("Height: " + height + ", size: " + size);
+        }
+        if(filters[height] == null) {
+            Block pinnedBlock = pinned.get(height);
+            try {
+                filters[height] = pinnedBlock != null ? pinnedBlock.getFilter()
+                        : BlockCodec.filter(record(height));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return filters[height];
+    }
+
+    /** Reads the hash stored with the block, without decoding it. */
+    @Override
+    public synchronized Hashcode hash(int height) {
+        if(height < 0 || height >= size) {
+            throw new IndexOutOfBoundsException("Height: " + height + ", size: " + size);
+        }
+        Block pinnedBlock = pinned.get(height);
+        if(pinnedBlock != null) {
+            return pinnedBlock.getHash();
+        }
+        try {
+            return BlockCodec.hash(record(height));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Binary searches the blocks by their first transaction id without decoding them, since transaction ids go up
+     * from block to block.
+     */
+    @Override
+    public synchronized OptionalInt heightOfTransaction(int transactionId) {
+        int low = 0;
+        int high = size - 1;
+        int candidate = -1; // the highest block whose first transaction id is at most the one being searched for
+        try {
+            while(low <= high) {
+                int mid = (low + high) >>> 1;
+                OptionalInt first = firstTransactionId(mid);
+                if(first.isPresent() && first.getAsInt() <= transactionId) {
+                    candidate = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if(candidate >= 0 && get(candidate).findTransaction(transactionId).isPresent()) {
+            return OptionalInt.of(candidate);
+        }
+        return OptionalInt.empty();
+    }
+
+    /** Decodes and holds on to every block from the given height up, before the log is cut back to that height. */
+    synchronized void pinFrom(int height) {
+        for(int h = Math.max(0, height); h < size; h++) {
+            if(!pinned.containsKey(h)) {
+                pinned.put(h, get(h));
+            }
+        }
+    }
+
+    private OptionalInt firstTransactionId(int height) throws IOException {
+        Block pinnedBlock = pinned.get(height);
+        if(pinnedBlock != null) {
+            return pinnedBlock.getTransactions().isEmpty() ?
+                    OptionalInt.empty() : OptionalInt.of(pinnedBlock.getTransactions().get(0).getId());
+        }
+        return BlockCodec.firstTransactionId(record(height));
+    }
+
+    /** @return the encoded block at the given height, after checking its length and checksum. */
+    private ByteBuffer record(int height) throws IOException {
+        int entry = height * INDEX_ENTRY_BYTES;
+        int segment = index.getInt(entry);
+        long offset = index.getLong(entry + Integer.BYTES);
+        int length = index.getInt(entry + Integer.BYTES + Long.BYTES);
+        if(segment < 0 || segment >= segments.length || offset + RECORD_HEADER_BYTES + length > segments[segment].limit()) {
+            throw new IOException("Block " + height + " is outside of the mapped log.");
+        }
+
+        ByteBuffer record = segments[segment].duplicate();
+        record.position((int) offset);
+        record.limit((int) offset + RECORD_HEADER_BYTES + length);
+        record = record.slice();
+        int storedLength = record.getInt();
+        int storedCrc = record.getInt();
+        ByteBuffer block = record.slice();
+        CRC32 crc = new CRC32();
+        crc.update(block.duplicate());
+        if(storedLength != length || storedCrc != (int) crc.getValue()) {
+            throw new IOException("Corrupt block record at height " + height);
+        }
+        return block;
+    }
+}
@@ -5,8 +5,12 @@ import edu.marist.jointstudy.essence.api.parse.GsonSingleton;
 import edu.marist.jointstudy.essence.core.structures.Blockchain;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Objects;
+import java.util.Optional;
 
 /**
  * <p>The default store for this API. The client and server portions of the peer save their blockchains to this one object.
@@ -22,18 +26,13 @@ public enum PersistentStoreSingleton {
 
     public Store<Blockchain> get() {
         if(Objects.isNull(this.instance)) {
-            // how to serialize and deserialize a blockchain
-            PersistentStore.Transfer<Blockchain> transfer =
-                    new PersistentStore.Transfer<>(gson::toJson, (str) -> gson.fromJson(str, Blockchain.class));
-
             try {
-                boolean isSybil = Preferences.isSybil();
-                int port = Preferences.getPort();
-                instance = new PersistentStore<>(
-                        transfer,
-                        Paths.get(isSybil ? "./sybil" : "./blockchain" + port),
-                        "bc.json"
-                );
+                Path directory = directory();
+                // -Dessence.store.mapped=true loads blocks lazily from the memory mapped log
+                BlockLogStore log = new BlockLogStore(directory, BlockLogStore.DEFAULT_SEGMENT_BYTES,
+                        BlockLogStore.DEFAULT_SYNC_EVERY_BLOCKS, Boolean.getBoolean("essence.store.mapped"));
+                migrateJson(directory, log);
+                instance = log;
             } catch (IOException e) {
                 System.err.println("Unable to create a new store.");
                 System.err.println(e.getMessage());
@@ -42,4 +41,29 @@ public enum PersistentStoreSingleton {
         }
         return instance;
     }
+
+    /** @return the directory the peer's blockchain, and anything else it keeps, is stored in. */
+    public Path directory() {
+        return Paths.get(Preferences.isSybil() ? "./sybil" : "./blockchain" + Preferences.getPort());
+    }
+
+    /**
+     * Peers used to store their blockchain as json in "bc.json". If there's one and the block log is empty, the
+     * blockchain is moved into the log and the json file is renamed to "bc.json.migrated".
+     */
+    private void migrateJson(Path directory, BlockLogStore log) throws IOException {
+        Path json = directory.resolve("bc.json");
+        if(log.exists() || !json.toFile().exists()) {
+            return;
+        }
+        // how to serialize and deserialize a blockchain
+        PersistentStore.Transfer<Blockchain> transfer =
+                new PersistentStore.Transfer<>(gson::toJson, (str) -> gson.fromJson(str, Blockchain.class));
+        Optional<Blockchain> bc = new PersistentStore<>(transfer, directory, "bc.json").get();
+        if(bc.isPresent()) {
+            log.save(bc.get());
+            log.flush();
+        }
+        Files.move(json, directory.resolve("bc.json.migrated"), StandardCopyOption.REPLACE_EXISTING);
+    }
 }
@@ -0,0 +1,183 @@
+package edu.marist.jointstudy.essence.api.store;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * <p>Keeps the latest T in memory and writes it to another store in the background.
+ *
+ * <p>{@link #get()} reads the other store once, after that it only returns what's in memory, so reading never touches
+ * the disk. {@link #save(Object)} replaces what's in memory right away and queues writing it to the other store on a
+ * single background thread. Saves that pile up while a write is in progress are collapsed into writing only the
+ * latest one.</p>
+ *
+ * <p>Everything that reads and saves the same T (e.g. a peer's server and its friends) should share one of these, so
+ * they all see each other's saves without going through the disk. Something that saves a T built from one it got
+ * earlier should use {@link #save(Object, Object)}, so it doesn't overwrite what was saved in between.</p>
+ *
+ * @param <T> the class being stored.
+ */
+public class WriteBehindStore<T> implements Store<T>, Flushable, Closeable {
+
+    private static final Logger LOG = Logger.getLogger(WriteBehindStore.class.getName());
+
+    /** Where T is written. */
+    private final Store<T> delegate;
+
+    /** The latest T saved, or read from the other store. */
+    private volatile T current;
+
+    /** Whether the other store has been read yet. */
+    private volatile boolean loaded = false;
+
+    /** The latest T saved that hasn't been written yet, null if there's none. */
+    private final AtomicReference<T> pending = new AtomicReference<>();
+
+    /** Writes to the other store, one save at a time, in the order they were saved. */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor((r) -> {
+        Thread t = new Thread(r, "write-behind-store");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** @param delegate where T is written in the background. */
+    public WriteBehindStore(Store<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param store a store.
+     * @return the store if it already writes behind, otherwise a write behind store in front of it.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> WriteBehindStore<T> of(Store<T> store) {
+        return store instanceof WriteBehindStore ? (WriteBehindStore<T>) store : new WriteBehindStore<>(store);
+    }
+
+    /** Keeps t in memory and queues writing it. Failures to write are logged, the next save tries again. */
+    @Override
+    public void save(T t) {
+        synchronized (this) {
+            current = t;
+            loaded = true;
+        }
+        queue(t);
+    }
+
+    /**
+     * Keeps next in memory and queues writing it, but only if what's in memory is still expected.
+     *
+     * @param expected what was gotten from this store, that next was built from (or is, if it was changed in place).
+     * @param next what to save.
+     * @return true if next was saved, false if something else was saved since expected was gotten.
+     */
+    public boolean save(T expected, T next) {
+        synchronized (this) {
+            if(!loaded || current != expected) {
+                return false;
+            }
+            current = next;
+        }
+        queue(next);
+        return true;
+    }
+
+    /** @return what's in memory, reading it from the other store the first time. */
+    @Override
+    public Optional<T> get() throws IOException {
+        if(!loaded) {
+            synchronized (this) {
+                if(!loaded) {
+                    current = delegate.get().orElse(null);
+                    loaded = true;
+                }
+            }
+        }
+        return Optional.ofNullable(current);
+    }
+
+    /** @return what's in memory, null if nothing's been saved or read yet. Never reads the other store. */
+    public T current() {
+        return current;
+    }
+
+    @Override
+    public boolean exists() {
+        return current != null || delegate.exists();
+    }
+
+    /** Forgets what's in memory, waits for queued writes, then deletes the other store. */
+    @Override
+    public boolean delete() {
+        synchronized (this) {
+            current = null;
+            loaded = true;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            LOG.warning("Couldn't finish writing before deleting: " + e.getMessage());
+        }
+        return delegate.delete();
+    }
+
+    /** Waits for every save so far to be written, then flushes the other store if it can be. */
+    @Override
+    public void flush() throws IOException {
+        try {
+            writer.submit(() -> { }).get(); // runs after every write queued before it
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the store to be written.", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        if(delegate instanceof Flushable) {
+            ((Flushable) delegate).flush();
+        }
+    }
+
+    /** Writes what's queued and closes the other store if it can be. The store can't be saved to afterwards. */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if(delegate instanceof Closeable) {
+                ((Closeable) delegate).close();
+            }
+        }
+    }
+
+    private void queue(T t) {
+        if(pending.getAndSet(t) == null) {
+            writer.execute(this::write);
+        }
+    }
+
+    private void write() {
+        T t = pending.getAndSet(null);
+        if(t == null) {
+            return;
+        }
+        try {
+            delegate.save(t);
+        } catch (IOException | RuntimeException e) {
+            LOG.warning("Couldn't write to the store: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package edu.marist.jointstudy.essence.core.hash;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>A SHA-256 digest for each thread, so hashing doesn't look up the provider and build a new digest every time.
+ *
+ * <p>A digest resets itself once it's finished, so it's ready for the next hash on the same thread. Callers should
+ * have everything they're hashing ready before getting the digest, in case getting it ready hashes something else on
+ * the same thread.</p>
+ */
+final class Digests {
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // should not happen
+            throw new IllegalStateException("SHA-256 is not available, consider using another HashFunction.", e);
+        }
+    });
+
+    private Digests() { }
+
+    /** @return this thread's SHA-256 digest. */
+    static MessageDigest sha256() {
+        return SHA_256.get();
+    }
+}
@@ -19,6 +19,7 @@ public interface Hashcode extends Hashable {
         /** The underlying bytes that this hashcode represents. */
         private transient byte[] bytes;
 
+        /** Lowercase hex of the bytes. Computed the first time it's needed, mining never needs it. */
         @SerializedName("hexBinary")
         private String textBytes;
 
@@ -27,7 +28,6 @@ public interface Hashcode extends Hashable {
 
         private SHA256(byte[] bytes) {
             this.bytes = bytes;
-            this.textBytes = DatatypeConverter.printHexBinary(bytes).toLowerCase();
         }
 
         /**
@@ -62,6 +62,9 @@ public interface Hashcode extends Hashable {
 
         @Override
         public String toString() {
+            if(textBytes == null) {
+                textBytes = DatatypeConverter.printHexBinary(bytes).toLowerCase();
+            }
             return textBytes;
         }
     }
@@ -0,0 +1,76 @@
+package edu.marist.jointstudy.essence.core.mine;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>Hashes a block header for mining: the fixed part of the header (everything but the nonce) is serialized and
+ * digested once, and each attempt starts from a copy of that digest (the <em>midstate</em>) and only hashes the 8
+ * nonce bytes.
+ *
+ * <p>{@code hash()} writes into the same buffers every time. Instances are <strong>not</strong> thread-safe, each
+ * mining thread gets its own from {@link #forWorker()}.</p>
+ */
+public final class HeaderHasher {
+
+    private static final int SHA_256_LENGTH = 32;
+
+    /** A SHA-256 digest that has already digested the header prefix. Never finished, only copied. */
+    private final MessageDigest midstate;
+
+    /** Reused for every attempt. */
+    private final byte[] nonceBytes = new byte[Long.BYTES];
+
+    /** Reused for every attempt. */
+    private final byte[] hash = new byte[SHA_256_LENGTH];
+
+    /** @param headerPrefix the bytes of a block header that come before the nonce. */
+    public HeaderHasher(byte[] headerPrefix) {
+        try {
+            this.midstate = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // should not happen
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+        this.midstate.update(headerPrefix);
+    }
+
+    private HeaderHasher(MessageDigest midstate) {
+        this.midstate = midstate;
+    }
+
+    /** @return a hasher for the same header, with its own midstate and buffers. */
+    public HeaderHasher forWorker() {
+        return new HeaderHasher(copy(midstate));
+    }
+
+    /**
+     * @param nonce the nonce to try.
+     * @return the SHA-256 hash of the header with the given nonce. The array is reused by the next call, copy it if
+     * it needs to be kept around.
+     */
+    public byte[] hash(long nonce) {
+        for(int i = 0; i < Long.BYTES; i++) {
+            nonceBytes[i] = (byte) (nonce >>> (8 * (Long.BYTES - 1 - i))); // big-endian, same as Nonce.toByteArray()
+        }
+        MessageDigest md = copy(midstate);
+        md.update(nonceBytes);
+        try {
+            md.digest(hash, 0, SHA_256_LENGTH);
+        } catch (DigestException e) {
+            // should not happen, the buffer is always big enough
+            throw new IllegalStateException(e);
+        }
+        return hash;
+    }
+
+    private static MessageDigest copy(MessageDigest md) {
+        try {
+            return (MessageDigest) md.clone();
+        } catch (CloneNotSupportedException e) {
+            // the default SHA-256 provider supports cloning
+            throw new IllegalStateException("The SHA-256 provider can't copy its state.", e);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package edu.marist.jointstudy.essence.core.mine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+ * <p>Searches the nonce space for a solution on a fixed pool of worker threads.
+ *
+ * <p>The nonce space is handed out to the workers in consecutive batches. As soon as one worker finds a solution, no
+ * more batches above it are handed out, and the batches still being searched below it are finished. This means the
+ * solution found is always the <em>lowest</em> solving nonce, exactly like searching from zero on a single thread,
+ * only faster.</p>
+ *
+ * <p>Searches can be cancelled with {@link #cancel()}, e.g. when a longer blockchain arrives from a friend and the
+ * block being mined is no longer needed.</p>
+ */
+public final class Miner {
+
+    /** How many consecutive nonces a worker claims at once. */
+    private static final int BATCH_SIZE = 4096;
+
+    /** The number of workers searching the nonce space at once. */
+    private final int threads;
+
+    /** Where the workers run. Threads are daemons so a miner never keeps the JVM alive. */
+    private final ExecutorService workers;
+
+    /** The searches currently in progress, so they can be cancelled. */
+    private final Set<Search> searches = ConcurrentHashMap.newKeySet();
+
+    /** Hashes per second over the last finished search, 0 if there wasn't one. */
+    private volatile double hashRate = 0;
+
+    /**
+     * @param threads the number of worker threads used to search the nonce space, at least one.
+     */
+    public Miner(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("A miner needs at least one thread, given: " + threads);
+        }
+        this.threads = threads;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, (r) -> {
+            Thread t = new Thread(r, "miner-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * <p>Finds the lowest nonce, starting at zero, that satisfies the test. Blocks until it's found or cancelled.
+     *
+     * <p>Each worker asks the {@code perWorker} supplier for its own test once, so tests are free to keep
+     * (non thread-safe) scratch state around between nonces.</p>
+     *
+     * @param perWorker supplies a test for each worker: true if the given nonce is a solution, false otherwise.
+     * @return the lowest nonce that is a solution.
+     * @throws CancellationException if the search was cancelled or the calling thread was interrupted.
+     * @throws ArithmeticException if every nonce up to {@code Long.MAX_VALUE} was tried without a solution.
+     */
+    public long search(Supplier<LongPredicate> perWorker) {
+        Search search = new Search();
+        searches.add(search);
+        long start = System.nanoTime();
+        try {
+            if(threads == 1) {
+                search.run(perWorker.get());
+            } else {
+                List<Callable<Void>> tasks = new ArrayList<>(threads);
+                for(int i = 0; i < threads; i++) {
+                    tasks.add(() -> {
+                        search.run(perWorker.get());
+                        return null;
+                    });
+                }
+                for(Future<Void> f : workers.invokeAll(tasks)) {
+                    f.get(); // rethrows anything a worker threw
+                }
+            }
+        } catch (InterruptedException e) {
+            search.cancelled = true;
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while mining.");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            searches.remove(search);
+            long elapsed = System.nanoTime() - start;
+            if(elapsed > 0) {
+                hashRate = search.attempts.sum() * 1e9 / elapsed;
+            }
+        }
+
+        if(search.cancelled) {
+            throw new CancellationException("Mining was cancelled.");
+        }
+        if(search.solution.get() == Long.MAX_VALUE) {
+            throw new ArithmeticException("No nonce up to " + Long.MAX_VALUE + " is a solution. Please consider " +
+                    "refreshing the timestamp and resetting the nonce to zero.");
+        }
+        return search.solution.get();
+    }
+
+    /** Cancels every search in progress. Their callers get a {@code CancellationException}. */
+    public void cancel() {
+        searches.forEach((s) -> s.cancelled = true);
+    }
+
+    /** @return the hashes per second measured over the last finished search, 0 if there wasn't one. */
+    public double getHashRate() {
+        return hashRate;
+    }
+
+    /** @return the number of worker threads this miner searches with. */
+    public int getThreads() {
+        return threads;
+    }
+
+    /** The shared state of one call to {@code search()}. */
+    private static final class Search {
+
+        /** The start of the next batch to be claimed. */
+        private final AtomicLong next = new AtomicLong();
+
+        /** The lowest solution found so far, {@code Long.MAX_VALUE} if none. */
+        private final AtomicLong solution = new AtomicLong(Long.MAX_VALUE);
+
+        /** How many nonces were tried. */
+        private final LongAdder attempts = new LongAdder();
+
+        private volatile boolean cancelled = false;
+
+        private void run(LongPredicate isSolution) {
+            while(!cancelled) {
+                long start = next.getAndAdd(BATCH_SIZE);
+                // anything from here on is higher than a solution we already have (or overflowed)
+                if(start < 0 || start >= solution.get()) {
+                    return;
+                }
+                long end = Math.min(start + BATCH_SIZE, solution.get());
+                if(end < 0) {
+                    end = Long.MAX_VALUE; // overflow, the last batch
+                }
+                for(long n = start; n < end && !cancelled; n++) {
+                    if(isSolution.test(n)) {
+                        attempts.add(n - start + 1);
+                        solution.accumulateAndGet(n, Math::min);
+                        return;
+                    }
+                }
+                attempts.add(end - start);
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package edu.marist.jointstudy.essence.core.mine;
 
 import edu.marist.jointstudy.essence.core.structures.Block;
 
+import java.math.BigInteger;
+
 /**
  * <p>A static settings class (interface) to tweak with the mining functionality from a centralized place.</p>
  *
@@ -9,14 +11,42 @@ import edu.marist.jointstudy.essence.core.structures.Block;
  */
 public interface Mining {
 
-    /** default difficulty (not very difficult, is it?) */
-    int difficulty = 3;
+    /**
+     * The difficulty, in leading zero bits, of the first blocks of a blockchain, before the first retarget. 12 bits is
+     * the old difficulty of 3 leading zero hex digits, so blocks mined before difficulty was stored are still valid.
+     */
+    int initialDifficulty = 12;
+
+    /** A block's hash has to have at least its difficulty many leading zero bits. */
+    MiningFunction miningFunction = MiningFunction.LEADING_ZERO_BITS;
+
+    /**
+     * How the difficulty follows the time it takes to mine blocks. Every peer on the network has to use the same
+     * settings, otherwise they won't agree on which blocks are mined.
+     */
+    Retargeting retargeting = new Retargeting(
+            Integer.getInteger("essence.mining.retargetInterval", 10),
+            Long.getLong("essence.mining.targetBlockMillis", 10_000L));
 
-    /** the target has has to have the difficulty number many leading zeros. */
-    MiningFunction miningFunction = MiningFunction.NUM_LEADING_ZEROS;
+    /** How many threads search for nonces at once, set with {@code -Dessence.mining.threads}. Defaults to all cores. */
+    int threads = Math.max(1,
+            Integer.getInteger("essence.mining.threads", Runtime.getRuntime().availableProcessors()));
+
+    /** The default miner, shared by anyone who doesn't bring their own. */
+    Miner miner = new Miner(threads);
+
+    /**
+     * @param difficulty a difficulty in leading zero bits.
+     * @return the same difficulty as a 256 bit target: a hash is valid if, read as an unsigned number, it is at most
+     * the target.
+     */
+    static BigInteger target(int difficulty) {
+        return BigInteger.ONE.shiftLeft(256 - difficulty).subtract(BigInteger.ONE);
+    }
 
+    /** @return true if the block's hash satisfies the block's own difficulty. */
     static boolean isMined(Block block) {
-        return miningFunction.isSolution(block.getHash(), difficulty);
+        return miningFunction.isSolution(block.getHash().toByteArray(), block.getDifficulty());
     }
 
 }
@@ -17,17 +17,81 @@ public interface MiningFunction {
      */
     boolean isSolution(Hashcode potentialSolution, int difficulty);
 
-    /** The hash is valid if the number of leading zero bytes in the hash corresponds to the difficulty. */
-    MiningFunction NUM_LEADING_ZEROS = (s, d) -> {
-        if(d < 0 || d > s.toString().length() ) {
-            return false;
+    /**
+     * Same as {@code isSolution(Hashcode, int)} but on the raw bytes of the hash, which is what the mining loop has.
+     * Implementations that can work on the bytes directly should override this to skip the wrapping.
+     *
+     * @param potentialSolution the bytes of a (block's) hash that might be valid.
+     * @param difficulty a value that represents how unlikely it is a {@code potentialSolution} is valid.
+     * @return {@code true} if the given {@code potentialSolution} is valid, {@code false} otherwise.
+     */
+    default boolean isSolution(byte[] potentialSolution, int difficulty) {
+        return isSolution(Hashcode.SHA256.wrap(potentialSolution), difficulty);
+    }
+
+    /**
+     * The hash is valid if it starts with at least difficulty many zero hex digits (nibbles), e.g. "000..." for a
+     * difficulty of 3. Works on the bytes of the hash, never on its hex string.
+     */
+    MiningFunction NUM_LEADING_ZEROS = new LeadingZeroNibbles();
+
+    /**
+     * The hash is valid if it starts with at least difficulty many zero bits. Each extra bit doubles the expected
+     * number of attempts, so the difficulty can be tuned a lot finer than with {@code NUM_LEADING_ZEROS}.
+     */
+    MiningFunction LEADING_ZERO_BITS = new LeadingZeroBits();
+
+    /** Implementation of {@code NUM_LEADING_ZEROS}. */
+    final class LeadingZeroNibbles implements MiningFunction {
+
+        private LeadingZeroNibbles() { }
+
+        @Override
+        public boolean isSolution(Hashcode potentialSolution, int difficulty) {
+            return isSolution(potentialSolution.toByteArray(), difficulty);
+        }
+
+        @Override
+        public boolean isSolution(byte[] s, int d) {
+            if(d < 0 || d > s.length * 2) {
+                return false;
+            }
+            // whole zero bytes first, two nibbles at a time
+            int i = 0;
+            for(; i < d / 2; i++) {
+                if(s[i] != 0) {
+                    return false;
+                }
+            }
+            // an odd difficulty also needs the high nibble of the next byte to be zero
+            return d % 2 == 0 || (s[i] & 0xf0) == 0;
         }
-        // true if the hash starts with d many 0 bytes
-        for (int i = 0; i < d; i++) {
-            if (!(s.toString().charAt(i) == '0')) {
+    }
+
+    /** Implementation of {@code LEADING_ZERO_BITS}. */
+    final class LeadingZeroBits implements MiningFunction {
+
+        private LeadingZeroBits() { }
+
+        @Override
+        public boolean isSolution(Hashcode potentialSolution, int difficulty) {
+            return isSolution(potentialSolution.toByteArray(), difficulty);
+        }
+
+        @Override
+        public boolean isSolution(byte[] s, int d) {
+            if(d < 0 || d > s.length * Byte.SIZE) {
                 return false;
             }
+            int i = 0;
+            for(; i < d / Byte.SIZE; i++) {
+                if(s[i] != 0) {
+                    return false;
+                }
+            }
+            int remainingBits = d % Byte.SIZE;
+            // e.g. 3 remaining bits: the byte has to be below 0b0010_0000
+            return remainingBits == 0 || (s[i] & 0xff) >>> (Byte.SIZE - remainingBits) == 0;
         }
-        return true;
-    };
+    }
 }
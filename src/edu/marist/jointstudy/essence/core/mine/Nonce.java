@@ -83,6 +83,11 @@ public final class Nonce implements Comparable<Nonce>, Hashable {
         return this.value == n.value;
     }
 
+    /** @return the underlying value of this nonce. */
+    public long longValue() {
+        return this.value;
+    }
+
     /** @return the {@code byte[]} equivalent of the underlying {@code long}'s value. */
     @Override
     public byte[] toByteArray() {
@@ -0,0 +1,80 @@
+package edu.marist.jointstudy.essence.core.mine;
+
+/**
+ * <p>Adjusts the mining difficulty so blocks keep coming at a steady pace, no matter how many miners there are or how
+ * fast their hardware is.
+ *
+ * <p>Every {@code interval} blocks, the time it took to mine the last {@code interval} blocks is compared to the
+ * time it should have taken. Difficulty is counted in leading zero bits, and each bit doubles the work, so the
+ * difficulty moves by the (rounded) base 2 logarithm of how far off the blocks were. To keep a few odd timestamps
+ * from swinging it wildly, it never moves more than {@code MAX_STEP} bits at once.</p>
+ *
+ * <p>Windows with blocks that have no timestamp (blocks mined before timestamps were stored have a timestamp of 0)
+ * keep the difficulty as it is.</p>
+ */
+public final class Retargeting {
+
+    /** The easiest difficulty allowed, in leading zero bits. */
+    public static final int MIN_DIFFICULTY = 1;
+
+    /** The hardest difficulty allowed, in leading zero bits. */
+    public static final int MAX_DIFFICULTY = 255;
+
+    /** The most bits the difficulty can move at one retarget, i.e. at most 4 times harder or easier. */
+    public static final int MAX_STEP = 2;
+
+    /** How many blocks between retargets. */
+    private final int interval;
+
+    /** How long a block should take to mine, in milliseconds. */
+    private final long targetBlockMillis;
+
+    /**
+     * @param interval how many blocks between retargets, at least 2.
+     * @param targetBlockMillis how long a block should take to mine, in milliseconds.
+     */
+    public Retargeting(int interval, long targetBlockMillis) {
+        if(interval < 2) {
+            throw new IllegalArgumentException("The retarget interval must be at least 2 blocks, given: " + interval);
+        }
+        if(targetBlockMillis < 1) {
+            throw new IllegalArgumentException("The target block time must be positive, given: " + targetBlockMillis);
+        }
+        this.interval = interval;
+        this.targetBlockMillis = targetBlockMillis;
+    }
+
+    /** @return true if the block at the given height is the first of a new difficulty. */
+    public boolean isRetargetHeight(int height) {
+        return height > 0 && height % interval == 0;
+    }
+
+    /**
+     * @param previousDifficulty the difficulty of the last {@code interval} blocks, in leading zero bits.
+     * @param firstTimestamp the timestamp of the first of the last {@code interval} blocks.
+     * @param lastTimestamp the timestamp of the last block.
+     * @return the difficulty of the next {@code interval} blocks, in leading zero bits.
+     */
+    public int nextDifficulty(int previousDifficulty, long firstTimestamp, long lastTimestamp) {
+        if(firstTimestamp <= 0 || lastTimestamp <= 0) {
+            return previousDifficulty; // no timestamps to go by
+        }
+        // interval blocks have interval - 1 gaps between them
+        long expected = targetBlockMillis * (interval - 1);
+        long actual = Math.max(1, lastTimestamp - firstTimestamp);
+
+        int step = (int) Math.round(Math.log((double) expected / actual) / Math.log(2));
+        step = Math.max(-MAX_STEP, Math.min(MAX_STEP, step));
+        return Math.max(MIN_DIFFICULTY, Math.min(MAX_DIFFICULTY, previousDifficulty + step));
+    }
+
+    /** @return how many blocks between retargets. */
+    public int getInterval() {
+        return interval;
+    }
+
+    /** @return how long a block should take to mine, in milliseconds. */
+    public long getTargetBlockMillis() {
+        return targetBlockMillis;
+    }
+}
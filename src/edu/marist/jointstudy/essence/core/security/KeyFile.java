@@ -0,0 +1,98 @@
+package edu.marist.jointstudy.essence.core.security;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * <p>A peer's key pair, kept in a file so the peer has the same identity (public key) every time it starts, and
+ * doesn't have to generate keys again.
+ *
+ * <p>The file is a properties file with the scheme's tag, the X.509 encoded public key and the PKCS#8 encoded private
+ * key, both in hex. It's only readable by its owner where the file system allows it. Each scheme has its own file, so
+ * switching schemes and back keeps the identity of each.</p>
+ */
+public final class KeyFile {
+
+    private KeyFile() { }
+
+    /** @return the name of the file the keys of the scheme are kept in, e.g. "identity-dsa.keys". */
+    public static String name(SignatureScheme scheme) {
+        return "identity-" + scheme.getTag() + ".keys";
+    }
+
+    /**
+     * @param file where the keys are kept.
+     * @param scheme the scheme the keys should be for.
+     * @return the key pair, empty if there's no file.
+     * @throws IOException if the file can't be read, or isn't a key pair of the scheme.
+     */
+    public static Optional<KeyPair> load(Path file, SignatureScheme scheme) throws IOException {
+        if(!Files.exists(file)) {
+            return Optional.empty();
+        }
+        Properties p = new Properties();
+        try(Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            p.load(in);
+        }
+        if(!scheme.getTag().equals(p.getProperty("scheme"))) {
+            throw new IOException(file + " has keys for " + p.getProperty("scheme") + ", not " + scheme.getTag());
+        }
+        try {
+            KeyFactory keyFactory = scheme.newKeyFactory();
+            PublicKey pub = keyFactory.generatePublic(
+                    new X509EncodedKeySpec(DatatypeConverter.parseHexBinary(p.getProperty("public", ""))));
+            PrivateKey priv = keyFactory.generatePrivate(
+                    new PKCS8EncodedKeySpec(DatatypeConverter.parseHexBinary(p.getProperty("private", ""))));
+            return Optional.of(new KeyPair(pub, priv));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IOException(file + " doesn't have a " + scheme + " key pair: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the key pair, replacing the file if there is one. Written to a temporary file first, so a crash never
+     * leaves half a key pair.
+     * @param file where the keys are kept.
+     * @param scheme the scheme the keys are for.
+     * @param keys the key pair.
+     */
+    public static void save(Path file, SignatureScheme scheme, KeyPair keys) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("scheme", scheme.getTag());
+        p.setProperty("public", DatatypeConverter.printHexBinary(keys.getPublic().getEncoded()).toLowerCase());
+        p.setProperty("private", DatatypeConverter.printHexBinary(keys.getPrivate().getEncoded()).toLowerCase());
+
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try {
+                Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // not a posix file system, e.g. windows, the file gets the directory's permissions
+            }
+            try(Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                p.store(out, "Essence peer identity, keep it private");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -3,9 +3,15 @@ package edu.marist.jointstudy.essence.core.security;
 import javax.xml.bind.DatatypeConverter;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Path;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
 
 public enum Security {
     INSTANCE();
@@ -27,8 +33,16 @@ public enum Security {
         }
     }
 
-    private PrivateKey priv;
-    private PublicKey pub;
+    private static final Logger LOG = Logger.getLogger(Security.class.getName());
+
+    /** This peer's key pair, null until it's loaded or its generation starts. */
+    private volatile CompletableFuture<KeyPair> keys;
+
+    /** Where the key pair is kept, null if it isn't. */
+    private Path keyFile;
+
+    /** The hex of the public key, put on every transaction, so it's only made once. */
+    private volatile String publicKeyHex;
 
     public static final String STRING_CHARSET = "UTF-8";
     public static final String PROVIDER = "SUN";
@@ -37,19 +51,78 @@ public enum Security {
     public static final int KEY_SIZE_BITS = 1024;
     public static final String SIG_ALGO = "SHA1withDSA";
 
-    Security() {
+    /** The scheme this peer signs with. */
+    private final SignatureScheme scheme = SignatureScheme.configured();
+
+    /** A signature of each scheme for each thread to verify with, given the public key each time. */
+    private final ThreadLocal<Map<SignatureScheme, Signature>> verifiers =
+            ThreadLocal.withInitial(() -> new EnumMap<>(SignatureScheme.class));
+
+    /** A key factory of each scheme for each thread, to decode public keys. */
+    private final ThreadLocal<Map<SignatureScheme, KeyFactory>> keyFactories =
+            ThreadLocal.withInitial(() -> new EnumMap<>(SignatureScheme.class));
+
+    Security() { }
+
+    /**
+     * <p>Loads this peer's key pair from the file, so it has the same identity as last time it ran. If there's no file
+     * (the first time the peer runs) a key pair is generated in the background and saved to the file. Signing waits
+     * for it if it isn't ready yet.
+     *
+     * <p>Must be called before anything is signed, otherwise the peer keeps the key pair it already has, which isn't
+     * saved.</p>
+     *
+     * @param file where the key pair is kept, e.g. {@code KeyFile.name(getScheme())} in the peer's store directory.
+     */
+    public synchronized void useKeyFile(Path file) {
+        if(file.equals(keyFile)) {
+            return;
+        }
+        if(keys != null) {
+            LOG.warning("Already signing with keys that aren't from " + file + ", keeping them.");
+            return;
+        }
+        keyFile = file;
+        try {
+            Optional<KeyPair> stored = KeyFile.load(file, scheme);
+            if(stored.isPresent()) {
+                keys = CompletableFuture.completedFuture(stored.get());
+                return;
+            }
+        } catch (IOException e) {
+            // don't overwrite keys that may be recoverable
+            LOG.warning("Couldn't load the keys, using new ones that won't be saved: " + e.getMessage());
+            keys = CompletableFuture.supplyAsync(this::generateKeys);
+            return;
+        }
+        keys = CompletableFuture.supplyAsync(() -> {
+            KeyPair pair = generateKeys();
+            try {
+                KeyFile.save(file, scheme, pair);
+            } catch (IOException e) {
+                LOG.warning("Couldn't save the keys, they'll be new next time: " + e.getMessage());
+            }
+            return pair;
+        });
+    }
+
+    /** @return this peer's key pair, generating one that isn't saved if there's no key file. */
+    private KeyPair keys() {
+        if(keys == null) {
+            synchronized (this) {
+                if(keys == null) {
+                    keys = CompletableFuture.completedFuture(generateKeys());
+                }
+            }
+        }
+        return keys.join();
+    }
+
+    private KeyPair generateKeys() {
         try {
-            // generates key pairs (private, and public)
-            // Sun microsystems (originally created Java, bought by Oracle) provides the DSA algorithm out of the box
-            KeyPairGenerator keyGen = KeyPairGenerator.getInstance(KEY_GEN_ALGO, PROVIDER);
-            keyGen.initialize(KEY_SIZE_BITS, SecureRandom.getInstance(RANDOMNESS_AGLO, PROVIDER));
-
-            // make the pair
-            KeyPair pair = keyGen.generateKeyPair();
-            priv = pair.getPrivate();
-            pub = pair.getPublic();
-        } catch (Exception e) {
-            e.printStackTrace();
+            return scheme.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Couldn't generate a " + scheme + " key pair.", e);
         }
     }
 
@@ -64,10 +137,18 @@ public enum Security {
      * @throws SignatureException
      */
     public String sign(String data) throws NoSuchProviderException, NoSuchAlgorithmException, InvalidKeyException, UnsupportedEncodingException, SignatureException {
-        Signature dsa = Signature.getInstance(SIG_ALGO, PROVIDER);
+        // a new signature each time, reusing one per thread made no difference (see SecurityBenchmark)
+        Signature dsa;
+        try {
+            dsa = scheme.newSignature();
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw e;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
 
         // need to give the signature the private key
-        dsa.initSign(priv);
+        dsa.initSign(keys().getPrivate());
 
         byte[] bytes = data.getBytes(STRING_CHARSET);
 
@@ -82,7 +163,8 @@ public enum Security {
      * @param data the data to be verified
      * @param publicKey a hexadecimal representation of the public key that ostensibly created the signature with the data
      * @param signature a hexadecimal representation of the signature generated with the public key and data to be checked.
-     * @return true iff the public key signed the data with the given signature, false otherwise.
+     * @return true iff the public key signed the data with the given signature using this peer's scheme, false otherwise.
+     * The public key is decoded once and kept with the {@link Verifier}'s keys.
      * @throws NoSuchProviderException
      * @throws NoSuchAlgorithmException
      * @throws InvalidKeyException
@@ -91,31 +173,74 @@ public enum Security {
      */
     public boolean isVerified(String data, String publicKey, String signature) throws NoSuchProviderException, NoSuchAlgorithmException, InvalidKeyException, IOException, SignatureException {
         try {
-            byte[] sigToVerify = DatatypeConverter.parseHexBinary(signature);
-            byte[] enPubKey = DatatypeConverter.parseHexBinary(publicKey);
+            return isVerified(scheme, data, Verifier.INSTANCE.publicKey(scheme, publicKey), signature);
+        } catch (InvalidKeySpecException keyEx) {
+            // the length for the key is invalid, fine, it's false
+            return false;
+        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException | SignatureException e) {
+            throw e;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * True iff the public key signed the data with the given signature, false otherwise.
+     * @param scheme the scheme the signature was made with
+     * @param data the data to be verified
+     * @param publicKey the public key that ostensibly created the signature with the data, e.g. from {@code toPublicKey()}
+     * @param signature a hexadecimal representation of the signature generated with the public key and data to be checked.
+     * @return true iff the public key signed the data with the given signature, false otherwise.
+     */
+    public boolean isVerified(SignatureScheme scheme, String data, PublicKey publicKey, String signature) throws GeneralSecurityException, IOException {
+        byte[] sigToVerify = DatatypeConverter.parseHexBinary(signature);
+
+        Map<SignatureScheme, Signature> sigs = verifiers.get();
+        Signature sig = sigs.get(scheme);
+        if(sig == null) {
+            sig = scheme.newSignature();
+            sigs.put(scheme, sig);
+        }
+        sig.initVerify(publicKey); // also resets it
 
-            X509EncodedKeySpec pubKeySpec = new X509EncodedKeySpec(enPubKey);
+        sig.update(data.getBytes(STRING_CHARSET));
 
-            KeyFactory keyFactory = KeyFactory.getInstance(KEY_GEN_ALGO, PROVIDER);
-            PublicKey pubKey = keyFactory.generatePublic(pubKeySpec);
+        return sig.verify(sigToVerify);
+    }
 
-            Signature sig = Signature.getInstance(SIG_ALGO, PROVIDER);
-            sig.initVerify(pubKey);
+    /**
+     * @param scheme the scheme the public key is for
+     * @param publicKey a hexadecimal representation of a public key, e.g. a transaction's.
+     * @return the public key.
+     * @throws InvalidKeySpecException if the hex isn't an encoded public key of the scheme.
+     */
+    public PublicKey toPublicKey(SignatureScheme scheme, String publicKey) throws GeneralSecurityException {
+        byte[] enPubKey = DatatypeConverter.parseHexBinary(publicKey);
 
-            sig.update(data.getBytes(STRING_CHARSET));
+        X509EncodedKeySpec pubKeySpec = new X509EncodedKeySpec(enPubKey);
 
-            return sig.verify(sigToVerify);
-        } catch (InvalidKeySpecException keyEx) {
-            // the length for the key is invalid, fine, it's false
-            return false;
+        Map<SignatureScheme, KeyFactory> factories = keyFactories.get();
+        KeyFactory keyFactory = factories.get(scheme);
+        if(keyFactory == null) {
+            keyFactory = scheme.newKeyFactory();
+            factories.put(scheme, keyFactory);
         }
+        return keyFactory.generatePublic(pubKeySpec);
+    }
+
+    /** @return the scheme this peer signs with. */
+    public SignatureScheme getScheme() {
+        return scheme;
     }
 
     public PublicKey getPublicKey() {
-        return pub;
+        return keys().getPublic();
     }
 
     public String getPublicKeyHexadecimal() {
-        return DatatypeConverter.printHexBinary(this.getPublicKey().getEncoded()).toLowerCase();
+        if(publicKeyHex == null) {
+            publicKeyHex = DatatypeConverter.printHexBinary(this.getPublicKey().getEncoded()).toLowerCase();
+        }
+        return publicKeyHex;
     }
 }
@@ -0,0 +1,134 @@
+package edu.marist.jointstudy.essence.core.security;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * <p>How a transaction is signed: the kind of key pair and the signature algorithm.
+ *
+ * <p>Each transaction says which scheme signed it, so a blockchain can have transactions signed with different
+ * schemes. Transactions from before there were schemes don't say, they were all signed with {@link #DSA}.</p>
+ *
+ * <p>A peer signs with the scheme set by {@code -Dessence.signature.scheme}, e.g. {@code p256}, DSA if it isn't
+ * set. Ed25519 needs Java 15 or later.</p>
+ */
+public enum SignatureScheme {
+
+    /** 1024 bit DSA over SHA-1. Slow to verify, and its keys are about 900 hex characters. */
+    DSA("dsa", "DSA", "SHA1withDSA", "SUN") {
+        @Override
+        void initialize(KeyPairGenerator keyGen) throws GeneralSecurityException {
+            keyGen.initialize(Security.KEY_SIZE_BITS, SecureRandom.getInstance(Security.RANDOMNESS_AGLO, "SUN"));
+        }
+    },
+
+    /** ECDSA on the NIST P-256 curve over SHA-256. */
+    ECDSA_P256("p256", "EC", "SHA256withECDSA", null) {
+        @Override
+        void initialize(KeyPairGenerator keyGen) throws GeneralSecurityException {
+            keyGen.initialize(new ECGenParameterSpec("secp256r1"));
+        }
+    },
+
+    /** EdDSA on Curve25519, the fastest to verify and the smallest keys and signatures. */
+    ED25519("ed25519", "Ed25519", "Ed25519", null);
+
+    private static final Logger LOG = Logger.getLogger(SignatureScheme.class.getName());
+
+    private final String tag;
+    private final String keyAlgorithm;
+    private final String signatureAlgorithm;
+    /** null for whichever provider has the algorithm. */
+    private final String provider;
+
+    /** Whether this java has the algorithms, null until it's been checked. */
+    private volatile Boolean available;
+
+    SignatureScheme(String tag, String keyAlgorithm, String signatureAlgorithm, String provider) {
+        this.tag = tag;
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.provider = provider;
+    }
+
+    /** Sets up a key pair generator for this scheme, if the default settings aren't what's wanted. */
+    void initialize(KeyPairGenerator keyGen) throws GeneralSecurityException { }
+
+    /** @return what transactions signed with this scheme are tagged with. */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @param tag a transaction's scheme tag, null for transactions from before there were schemes.
+     * @return the scheme with that tag, empty if there isn't one.
+     */
+    public static Optional<SignatureScheme> fromTag(String tag) {
+        if(tag == null) {
+            return Optional.of(DSA);
+        }
+        for(SignatureScheme scheme : values()) {
+            if(scheme.tag.equals(tag)) {
+                return Optional.of(scheme);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /** @return the scheme set by {@code -Dessence.signature.scheme}, DSA if it isn't set, unknown or unavailable. */
+    public static SignatureScheme configured() {
+        String tag = System.getProperty("essence.signature.scheme");
+        if(tag == null) {
+            return DSA;
+        }
+        Optional<SignatureScheme> scheme = fromTag(tag.trim().toLowerCase()).filter(SignatureScheme::isAvailable);
+        if(!scheme.isPresent()) {
+            LOG.warning("The signature scheme " + tag + " isn't known or available, signing with DSA.");
+        }
+        return scheme.orElse(DSA);
+    }
+
+    /** @return whether this java can sign and verify with this scheme. */
+    public boolean isAvailable() {
+        if(available == null) {
+            try {
+                newSignature();
+                newKeyFactory();
+                available = true;
+            } catch (GeneralSecurityException e) {
+                available = false;
+            }
+        }
+        return available;
+    }
+
+    /** @return a new key pair for this scheme. */
+    public KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator keyGen = provider == null
+                ? KeyPairGenerator.getInstance(keyAlgorithm)
+                : KeyPairGenerator.getInstance(keyAlgorithm, provider);
+        initialize(keyGen);
+        return keyGen.generateKeyPair();
+    }
+
+    /** @return a new signature for this scheme, not yet initialized to sign or verify. */
+    public Signature newSignature() throws GeneralSecurityException {
+        return provider == null
+                ? Signature.getInstance(signatureAlgorithm)
+                : Signature.getInstance(signatureAlgorithm, provider);
+    }
+
+    /** @return a new key factory for this scheme's keys. */
+    public KeyFactory newKeyFactory() throws GeneralSecurityException {
+        return provider == null
+                ? KeyFactory.getInstance(keyAlgorithm)
+                : KeyFactory.getInstance(keyAlgorithm, provider);
+    }
+}
@@ -0,0 +1,167 @@
+package edu.marist.jointstudy.essence.core.security;
+
+import edu.marist.jointstudy.essence.core.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <p>Verifies signatures, remembering which ones it has already verified.
+ *
+ * <p>Whether a public key signed some data never changes, so re-verifying a blockchain that's mostly been seen before
+ * only verifies the signatures that are new. Results are kept by the hash of the scheme, data, public key and
+ * signature together, and the decoded public keys by their hex, as most transactions are signed by the same few
+ * peers.</p>
+ *
+ * <p>Holds at most a fixed number of results and keys, dropping the least recently used to make room. Safe to use
+ * from many threads at once.</p>
+ */
+public class Verifier {
+
+    private static final Logger LOG = Logger.getLogger(Verifier.class.getName());
+
+    public static final int DEFAULT_CAPACITY = 100_000;
+    public static final int DEFAULT_KEY_CAPACITY = 1024;
+
+    /** Shared by every transaction. Set {@code -Dessence.verifier.capacity} to remember more or fewer results. */
+    public static final Verifier INSTANCE =
+            new Verifier(Integer.getInteger("essence.verifier.capacity", DEFAULT_CAPACITY), DEFAULT_KEY_CAPACITY);
+
+    /** Whether each signature checked was verified, by the hash of what was checked. */
+    private final Map<ByteBuffer, Boolean> results;
+
+    /** The decoded public keys, by their hex. */
+    private final Map<String, PublicKey> keys;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity the most results to hold.
+     * @param keyCapacity the most decoded public keys to hold.
+     */
+    public Verifier(int capacity, int keyCapacity) {
+        if(capacity < 1 || keyCapacity < 1) {
+            throw new IllegalArgumentException("The capacities must be positive, given: " + capacity + " and "
+                    + keyCapacity);
+        }
+        this.results = lru(capacity);
+        this.keys = lru(keyCapacity);
+    }
+
+    /**
+     * @param scheme the scheme the signature was made with.
+     * @param data the data to be verified.
+     * @param publicKey a hexadecimal representation of the public key that ostensibly created the signature.
+     * @param signature a hexadecimal representation of the signature.
+     * @return true iff the public key signed the data with the given signature, false otherwise, including if any of
+     * them are missing or malformed, or this java doesn't have the scheme.
+     */
+    public boolean isVerified(SignatureScheme scheme, String data, String publicKey, String signature) {
+        if(data == null || publicKey == null || signature == null || !scheme.isAvailable()) {
+            return false;
+        }
+        ByteBuffer key = key(scheme, data, publicKey, signature);
+        Boolean cached;
+        synchronized (results) {
+            cached = results.get(key);
+        }
+        if(cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+
+        boolean verified;
+        try {
+            verified = Security.INSTANCE.isVerified(scheme, data, publicKey(scheme, publicKey), signature);
+        } catch (InvalidKeySpecException | IllegalArgumentException e) {
+            verified = false; // not a key or not hex, can ignore
+        } catch (Exception e) {
+            // better be safe than sorry, and don't remember it, it may not be the signature's fault
+            LOG.warning("Couldn't verify a signature: " + e);
+            return false;
+        }
+        synchronized (results) {
+            results.put(key, verified);
+        }
+        return verified;
+    }
+
+    /** Forgets every result and key. */
+    public void clear() {
+        synchronized (results) {
+            results.clear();
+        }
+        synchronized (keys) {
+            keys.clear();
+        }
+    }
+
+    /** @return how many signatures didn't have to be verified again. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** @return how many signatures were verified. */
+    public long misses() {
+        return misses.get();
+    }
+
+    /** @return how many results are held. */
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    /** @return the public key the hex is of, only decoded the first time it's asked for (unless it's been dropped). */
+    PublicKey publicKey(SignatureScheme scheme, String hex) throws GeneralSecurityException {
+        String id = scheme.getTag() + ":" + hex;
+        PublicKey key;
+        synchronized (keys) {
+            key = keys.get(id);
+        }
+        if(key == null) {
+            key = Security.INSTANCE.toPublicKey(scheme, hex);
+            synchronized (keys) {
+                keys.put(id, key);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return the hash of the scheme, data, public key and signature, each prefixed by its length so they can't run
+     * together.
+     */
+    private static ByteBuffer key(SignatureScheme scheme, String data, String publicKey, String signature) {
+        byte[] t = scheme.getTag().getBytes(StandardCharsets.UTF_8);
+        byte[] d = data.getBytes(StandardCharsets.UTF_8);
+        byte[] k = publicKey.getBytes(StandardCharsets.UTF_8);
+        byte[] s = signature.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = ByteBuffer.allocate(4 * Integer.BYTES + t.length + d.length + k.length + s.length)
+                .putInt(t.length).put(t)
+                .putInt(d.length).put(d)
+                .putInt(k.length).put(k)
+                .putInt(s.length).put(s)
+                .array();
+        return ByteBuffer.wrap(Hashing.hashFunction.hash(() -> bytes).toByteArray());
+    }
+
+    private static <K, V> Map<K, V> lru(int capacity) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+}
@@ -1,9 +1,12 @@
 package edu.marist.jointstudy.essence.core.structures;
 
 import com.google.gson.annotations.SerializedName;
+import edu.marist.jointstudy.essence.core.hash.HashFunction;
 import edu.marist.jointstudy.essence.core.hash.Hashable;
 import edu.marist.jointstudy.essence.core.hash.Hashcode;
 import edu.marist.jointstudy.essence.core.hash.Hashing;
+import edu.marist.jointstudy.essence.core.mine.HeaderHasher;
+import edu.marist.jointstudy.essence.core.mine.Miner;
 import edu.marist.jointstudy.essence.core.mine.Mining;
 import edu.marist.jointstudy.essence.core.mine.Nonce;
 
@@ -12,6 +15,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static java.util.Objects.nonNull;
@@ -21,11 +25,29 @@ import static java.util.Objects.nonNull;
  */
 public class Block implements Hashable {
 
+    /**
+     * The header version new blocks are mined with. Version 1 headers commit the difficulty and timestamp to the hash,
+     * version 0 (legacy) headers don't, so blocks mined before there were versions keep their hashes.
+     */
+    public static final int HEADER_VERSION = 1;
+
     private int id;
+
+    /** What's hashed, see {@code HEADER_VERSION}. 0 for blocks from before there were versions. */
+    private int headerVersion;
     private transient MerkleTree<Transaction> transactionsTree;
 
     private Nonce nonce = Nonce.newZeroNonce();
 
+    /** How many leading zero bits this block's hash needs to be mined. */
+    private int difficulty = Mining.initialDifficulty;
+
+    /**
+     * When this block was created, in milliseconds since the epoch. 0 for blocks from before blocks had timestamps.
+     * Used to retarget the difficulty.
+     */
+    private long timestamp;
+
     // for json serialization
     private Hashcode hash = null;
 
@@ -34,19 +56,109 @@ public class Block implements Hashable {
 
     private Block previousBlock;
 
+    /**
+     * Loads the previous block on demand for blocks decoded lazily from storage, which don't hold on to their previous
+     * block so it can be evicted. Null otherwise.
+     */
+    private transient Supplier<Block> previousBlockLoader;
+
+    /** The merkle root of the previous block, for lazily decoded blocks. Null otherwise. */
+    private transient Hashcode previousMerkleRoot;
+
+    /** Built when the block is mined, or the first time it's asked for. */
+    private transient volatile BlockFilter filter;
+
     public static Block newUnsafeBlock(List<Transaction> transactions, Block previousBlock, Nonce nonce) {
+        return newUnsafeBlock(transactions, previousBlock, nonce, Mining.initialDifficulty, 0L);
+    }
+
+    /** Creates an unsafe legacy (version 0) block, see {@code HEADER_VERSION}. */
+    public static Block newUnsafeBlock(List<Transaction> transactions, Block previousBlock, Nonce nonce,
+                                       int difficulty, long timestamp) {
+        return newUnsafeBlock(transactions, previousBlock, nonce, 0, difficulty, timestamp);
+    }
+
+    /** @param headerVersion what the block's hash commits to, see {@code HEADER_VERSION}. */
+    public static Block newUnsafeBlock(List<Transaction> transactions, Block previousBlock, Nonce nonce,
+                                       int headerVersion, int difficulty, long timestamp) {
         Block b = new Block(transactions, previousBlock, nonce);
+        b.headerVersion = headerVersion;
+        b.difficulty = difficulty;
+        b.timestamp = timestamp;
+        b.getHash(); // trigger lazy hash instantiation
+        return b;
+    }
+
+    /**
+     * <b>Should only be used for decoding stored blocks.</b>
+     * <p>Creates an unsafe block that doesn't reference its previous block, it asks the given supplier for it when it's
+     * needed instead. That way the blocks below it can be evicted from memory and decoded again later.</p>
+     *
+     * @param id the id of the block, its height.
+     * @param previousMerkleRoot the merkle root of the previous block, null for the genesis block.
+     * @param previousBlock supplies the previous block, returns null for the genesis block.
+     * @param headerVersion what the block's hash commits to, see {@code HEADER_VERSION}.
+     */
+    public static Block newUnsafeBlock(List<Transaction> transactions, int id, Hashcode previousMerkleRoot,
+                                       Supplier<Block> previousBlock, Nonce nonce, int headerVersion, int difficulty,
+                                       long timestamp) {
+        Block b = new Block(transactions, null, nonce);
+        b.id = id;
+        b.headerVersion = headerVersion;
+        b.previousMerkleRoot = previousMerkleRoot;
+        b.previousBlockLoader = previousBlock;
+        b.difficulty = difficulty;
+        b.timestamp = timestamp;
         b.getHash(); // trigger lazy hash instantiation
         return b;
     }
 
     public static Block newBlock(List<Transaction> transactions, Block previousBlock) {
+        return newBlock(transactions, previousBlock, Mining.miner);
+    }
+
+    /**
+     * Creates and mines a new block at the initial difficulty, searching for its nonce with the given miner.
+     *
+     * @throws java.util.concurrent.CancellationException if the miner was cancelled before a nonce was found.
+     */
+    public static Block newBlock(List<Transaction> transactions, Block previousBlock, Miner miner) {
+        return newBlock(transactions, previousBlock, Mining.initialDifficulty, System.currentTimeMillis(), miner);
+    }
+
+    /**
+     * Creates and mines a new block, searching for its nonce with the given miner.
+     *
+     * @param difficulty how many leading zero bits the block's hash needs.
+     * @param timestamp when the block was created, in milliseconds since the epoch.
+     * @throws java.util.concurrent.CancellationException if the miner was cancelled before a nonce was found.
+     */
+    public static Block newBlock(List<Transaction> transactions, Block previousBlock, int difficulty, long timestamp,
+                                 Miner miner) {
         Block b = new Block(transactions, previousBlock);
+        b.headerVersion = HEADER_VERSION;
+        b.difficulty = difficulty;
+        b.timestamp = timestamp;
+
+        // compute the merkle roots up front, the miner's threads only ever read them
+        b.getTransactionsAsMerkleTree().getMerkleRoot();
+        b.getPreviousMerkleRoot();
+        b.getFilter();
 
         // mine
-        while(!b.isMined()) {
-            b.setNonce(b.getNonce().incremenented());
+        long nonce;
+        if(Hashing.hashFunction == HashFunction.SHA_256) {
+            // fast path: the header up to the nonce is hashed once, each attempt only hashes the nonce
+            HeaderHasher header = new HeaderHasher(b.headerPrefix());
+            nonce = miner.search(() -> {
+                HeaderHasher worker = header.forWorker();
+                return (n) -> Mining.miningFunction.isSolution(worker.hash(n), difficulty);
+            });
+        } else {
+            nonce = miner.search(() -> (n) -> b.isSolution(Nonce.newNonce(n)));
         }
+        b.setNonce(Nonce.newNonce(nonce));
+        b.getHash();
         return b;
     }
 
@@ -74,30 +186,50 @@ public class Block implements Hashable {
         return this.hash;
     }
 
-    // [byte].of(prevHash || transactions.merkleroot || id || nonce || source)
-    // or [byte].of(transactions.merkleroot || id || nonce || source) if prevHash == null
+    // [byte].of(prevHash || transactions.merkleroot || id || headerVersion || difficulty || timestamp || nonce)
+    // prevHash is left out for the genesis block. Legacy (version 0) headers leave out the version, difficulty and
+    // timestamp, so blocks mined before they were hashed keep their hashes.
     @Override
     public byte[] toByteArray() {
+        return toByteArray(this.getNonce());
+    }
+
+    /** @return the bytes of this block as if its nonce were the given one. Does not change this block. */
+    private byte[] toByteArray(Nonce nonce) {
+        byte[] prefix = headerPrefix();
+        byte[] nonceBytes = nonce.toByteArray();
+        return ByteBuffer.allocate(prefix.length + nonceBytes.length)
+                .put(prefix)
+                .put(nonceBytes)
+                .array();
+    }
+
+    /**
+     * @return the bytes of this block that come before the nonce:
+     * [byte].of(prevHash || merkleroot || id || headerVersion || difficulty || timestamp), without the last three for
+     * legacy headers.
+     */
+    private byte[] headerPrefix() {
         byte[] prevHashBytes = null; // stays null if this is genesis block
-        if(nonNull(this.getPreviousBlock())) {
-            prevHashBytes = this.getPreviousBlock().getTransactionsAsMerkleTree().getMerkleRoot().toByteArray();
+        Hashcode previousRoot = this.getPreviousMerkleRoot();
+        if(nonNull(previousRoot)) {
+            prevHashBytes = previousRoot.toByteArray();
         }
         int prevHashBytesLength = prevHashBytes != null ? prevHashBytes.length : 0;
-        byte[] nonceBytes = this.getNonce().toByteArray();
         byte[] merkleRootBytes = this.getTransactionsAsMerkleTree().getMerkleRoot().toByteArray();
 
+        int committed = headerVersion == 0 ? 0 : Integer.BYTES + Integer.BYTES + Long.BYTES;
         ByteBuffer buffer = ByteBuffer.allocate(
-                merkleRootBytes.length + prevHashBytesLength + Integer.BYTES + nonceBytes.length
-        );
+                merkleRootBytes.length + prevHashBytesLength + Integer.BYTES + committed);
 
         if(nonNull(prevHashBytes)) {
             buffer.put(prevHashBytes);
         }
-        return buffer
-                .put(merkleRootBytes)
-                .putInt(id)
-                .put(nonceBytes)
-                .array();
+        buffer.put(merkleRootBytes).putInt(id);
+        if(headerVersion != 0) {
+            buffer.putInt(headerVersion).putInt(difficulty).putLong(timestamp);
+        }
+        return buffer.array();
     }
 
     // ========= Mining ============
@@ -106,6 +238,13 @@ public class Block implements Hashable {
         return Mining.isMined(this);
     }
 
+    /** @return true if this block would be mined with the given nonce. Does not change this block. */
+    private boolean isSolution(Nonce nonce) {
+        byte[] bytes = toByteArray(nonce);
+        return Mining.miningFunction.isSolution(
+                Hashing.hashFunction.hash(() -> bytes).toByteArray(), this.difficulty);
+    }
+
     public boolean isVerified() {
         return this.txs.stream().allMatch(Transaction::isVerified);
     }
@@ -128,10 +267,26 @@ public class Block implements Hashable {
         return txs;
     }
 
+    /** @return a Bloom filter over the ids, public keys and payloads of this block's transactions. */
+    public BlockFilter getFilter() {
+        BlockFilter f = filter;
+        if(f == null) {
+            // building it twice at once is harmless, both are the same
+            f = BlockFilter.of(txs);
+            filter = f;
+        }
+        return f;
+    }
+
     public int getId() {
         return id;
     }
 
+    /** @return what this block's hash commits to, see {@code HEADER_VERSION}. */
+    public int getHeaderVersion() {
+        return headerVersion;
+    }
+
     public void setId(int id) {
         this.id = id;
     }
@@ -144,10 +299,31 @@ public class Block implements Hashable {
         this.nonce = nonce;
     }
 
+    /** @return how many leading zero bits this block's hash needs to be mined. */
+    public int getDifficulty() {
+        return difficulty;
+    }
+
+    /** @return when this block was created in milliseconds since the epoch, 0 if it's from before timestamps. */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
     public Block getPreviousBlock() {
+        if(previousBlock == null && previousBlockLoader != null) {
+            return previousBlockLoader.get();
+        }
         return previousBlock;
     }
 
+    /** @return the merkle root of the previous block's transactions, null if this is the genesis block. */
+    public Hashcode getPreviousMerkleRoot() {
+        if(previousBlock != null) {
+            return previousBlock.getTransactionsAsMerkleTree().getMerkleRoot();
+        }
+        return previousMerkleRoot;
+    }
+
     public Optional<Hashcode> getPreviousBlockHash() {
         Block prev = this.getPreviousBlock();
         return (prev == null) ? Optional.empty() : Optional.of(prev.getHash());
@@ -0,0 +1,142 @@
+package edu.marist.jointstudy.essence.core.structures;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * <p>A Bloom filter over the transactions of a block: their ids, the public keys that signed them, and the hashes of
+ * their payloads. Answers "might this block have ...?" without looking at the block's transactions.
+ *
+ * <p>A filter never says a block doesn't have something it has. It says a block might have something it doesn't
+ * about 1% of the time, with {@value #BITS_PER_ITEM} bits and {@value #HASHES} hashes per item; the block then has
+ * to be checked.</p>
+ *
+ * <p>Built when a block is mined, and stored with the block (see {@code BlockCodec}) so a stored block can be
+ * skipped without decoding it.</p>
+ */
+public final class BlockFilter {
+
+    static final int BITS_PER_ITEM = 10;
+    static final int HASHES = 7;
+
+    /** What an item is, hashed in front of it so e.g. a payload can't match a public key with the same text. */
+    private static final byte ID = 0;
+    private static final byte PUBLIC_KEY = 1;
+    private static final byte PAYLOAD = 2;
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int hashes;
+    private final long[] bits;
+
+    private BlockFilter(int hashes, long[] bits) {
+        this.hashes = hashes;
+        this.bits = bits;
+    }
+
+    /** @return a filter over the ids, public keys and payloads of the transactions. */
+    public static BlockFilter of(List<Transaction> txs) {
+        // every transaction adds three items, though a block's transactions often share a public key
+        long size = Math.max(64L, (long) txs.size() * 3 * BITS_PER_ITEM);
+        BlockFilter filter = new BlockFilter(HASHES, new long[(int) ((size + 63) / 64)]);
+        for(Transaction t : txs) {
+            filter.add(ID, Integer.toString(t.getId()));
+            if(t.getPublicKey() != null) {
+                filter.add(PUBLIC_KEY, t.getPublicKey());
+            }
+            if(t.getPayload() != null) {
+                filter.add(PAYLOAD, t.getPayload());
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * @param encoded a filter from {@link #toByteArray()}.
+     * @return the filter.
+     * @throws IllegalArgumentException if the bytes aren't a filter.
+     */
+    public static BlockFilter fromByteArray(byte[] encoded) {
+        if(encoded.length < 1 + Long.BYTES || (encoded.length - 1) % Long.BYTES != 0) {
+            throw new IllegalArgumentException("Not a block filter, it's " + encoded.length + " bytes.");
+        }
+        ByteBuffer in = ByteBuffer.wrap(encoded);
+        int hashes = in.get();
+        if(hashes < 1) {
+            throw new IllegalArgumentException("Not a block filter, it has " + hashes + " hashes.");
+        }
+        long[] bits = new long[in.remaining() / Long.BYTES];
+        in.asLongBuffer().get(bits);
+        return new BlockFilter(hashes, bits);
+    }
+
+    /** @return {@code byte hashes | long bits...}, big-endian. */
+    public byte[] toByteArray() {
+        ByteBuffer out = ByteBuffer.allocate(1 + bits.length * Long.BYTES);
+        out.put((byte) hashes);
+        out.asLongBuffer().put(bits);
+        return out.array();
+    }
+
+    /** @return false if the block definitely has no transaction with the id. */
+    public boolean mightHaveTransaction(int id) {
+        return mightContain(ID, Integer.toString(id));
+    }
+
+    /** @return false if the block definitely has no transaction signed with the public key. */
+    public boolean mightHavePublicKey(String publicKey) {
+        return mightContain(PUBLIC_KEY, publicKey);
+    }
+
+    /** @return false if the block definitely has no transaction with the payload. */
+    public boolean mightHavePayload(String payload) {
+        return mightContain(PAYLOAD, payload);
+    }
+
+    /** @return the number of bits in the filter. */
+    public int size() {
+        return bits.length * Long.SIZE;
+    }
+
+    private void add(byte kind, String item) {
+        long[] h = hash(kind, item);
+        for(int i = 0; i < hashes; i++) {
+            int bit = bit(h, i);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(byte kind, String item) {
+        long[] h = hash(kind, item);
+        for(int i = 0; i < hashes; i++) {
+            int bit = bit(h, i);
+            if((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return the i-th bit the item sets, combining two hashes of it rather than hashing it again each time. */
+    private int bit(long[] h, int i) {
+        return (int) Long.remainderUnsigned(h[0] + i * h[1], size());
+    }
+
+    /** @return two 64 bit hashes of the item, from one SHA-256 digest. */
+    private static long[] hash(byte kind, String item) {
+        MessageDigest digest = SHA_256.get();
+        digest.update(kind);
+        ByteBuffer d = ByteBuffer.wrap(digest.digest(item.getBytes(StandardCharsets.UTF_8)));
+        return new long[] { d.getLong(), d.getLong() };
+    }
+}
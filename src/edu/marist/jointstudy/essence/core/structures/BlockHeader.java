@@ -0,0 +1,105 @@
+package edu.marist.jointstudy.essence.core.structures;
+
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+import edu.marist.jointstudy.essence.core.mine.Nonce;
+
+import java.util.List;
+
+/**
+ * <p>Everything about a block except its transactions: enough to tell whether two peers' blockchains agree, and where
+ * they split, without downloading the blocks.
+ *
+ * <p>Only used to compare blockchains. A header can't be checked on its own, blocks are checked when they're
+ * downloaded and appended.</p>
+ */
+public final class BlockHeader {
+
+    private int id;
+    private Nonce nonce;
+    private int headerVersion;
+    private int difficulty;
+    private long timestamp;
+    private Hashcode hash;
+    private Hashcode previousHash;
+    private Hashcode merkleRoot;
+
+    // for json
+    private BlockHeader() { }
+
+    /** @return the header of the given block. */
+    public static BlockHeader of(Block b) {
+        BlockHeader header = new BlockHeader();
+        header.id = b.getId();
+        header.nonce = b.getNonce();
+        header.headerVersion = b.getHeaderVersion();
+        header.difficulty = b.getDifficulty();
+        header.timestamp = b.getTimestamp();
+        header.hash = b.getHash();
+        header.previousHash = b.getPreviousBlockHash().orElse(null);
+        header.merkleRoot = b.getTransactionsAsMerkleTree().getMerkleRoot();
+        return header;
+    }
+
+    /** @return the id of the block, which is also its height. */
+    public int getId() {
+        return id;
+    }
+
+    public Nonce getNonce() {
+        return nonce;
+    }
+
+    /** @return what the block's hash commits to, see {@link Block#HEADER_VERSION}. */
+    public int getHeaderVersion() {
+        return headerVersion;
+    }
+
+    public int getDifficulty() {
+        return difficulty;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Hashcode getHash() {
+        return hash;
+    }
+
+    /** @return the hash of the previous block, null for the genesis block. */
+    public Hashcode getPreviousHash() {
+        return previousHash;
+    }
+
+    public Hashcode getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    /**
+     * Some of the headers of a blockchain, lowest first, with the height of the whole blockchain so a peer knows how
+     * many blocks it's missing.
+     */
+    public static final class Page {
+
+        /** The number of blocks in the blockchain the headers are from. */
+        private int height;
+
+        private List<BlockHeader> headers;
+
+        // for json
+        private Page() { }
+
+        public Page(int height, List<BlockHeader> headers) {
+            this.height = height;
+            this.headers = headers;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public List<BlockHeader> getHeaders() {
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package edu.marist.jointstudy.essence.core.structures;
+
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+
+import java.util.OptionalInt;
+
+/**
+ * <p>Blocks that live somewhere other than the heap, e.g. in a file, and are decoded when they're asked for.
+ *
+ * <p>A blockchain built on a block source only keeps its current block in memory. The blocks a source hands out load
+ * their previous block through the source too, so a source is free to forget any block it handed out and decode it
+ * again the next time it's asked for.</p>
+ *
+ * @see Blockchain#newLazyBlockchain(BlockSource)
+ */
+public interface BlockSource {
+
+    /** @return the number of blocks in this source. */
+    int size();
+
+    /**
+     * @param height from 0 (the genesis block) to {@code size() - 1}.
+     * @return the block at the given height.
+     * @throws java.io.UncheckedIOException if the block couldn't be read.
+     */
+    Block get(int height);
+
+    /**
+     * @param transactionId the id of a transaction.
+     * @return the height of the block with the given transaction, empty if there isn't one. Searches every block
+     * from the top down unless a source knows better.
+     */
+    default OptionalInt heightOfTransaction(int transactionId) {
+        for(int height = size() - 1; height >= 0; height--) {
+            if(get(height).findTransaction(transactionId).isPresent()) {
+                return OptionalInt.of(height);
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    /**
+     * @param height from 0 (the genesis block) to {@code size() - 1}.
+     * @return the Bloom filter of the block at the given height. Decodes the block unless a source knows better.
+     * @throws java.io.UncheckedIOException if the block couldn't be read.
+     */
+    default BlockFilter filter(int height) {
+        return get(height).getFilter();
+    }
+
+    /**
+     * @param height from 0 (the genesis block) to {@code size() - 1}.
+     * @return the hash of the block at the given height. Decodes the block unless a source knows better.
+     * @throws java.io.UncheckedIOException if the block couldn't be read.
+     */
+    default Hashcode hash(int height) {
+        return get(height).getHash();
+    }
+}
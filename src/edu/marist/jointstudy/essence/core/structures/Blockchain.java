@@ -1,5 +1,10 @@
 package edu.marist.jointstudy.essence.core.structures;
 
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+import edu.marist.jointstudy.essence.core.mine.Miner;
+import edu.marist.jointstudy.essence.core.mine.Mining;
+
+import java.time.Clock;
 import java.util.*;
 
 /**
@@ -12,9 +17,79 @@ public class Blockchain {
     /** The block that was last added to the chain. Null if this blockchain is empty. */
     private Block currentBlock;
 
+    /** Where new blocks get their timestamps from. */
+    private transient Clock clock;
+
+    /**
+     * The blocks at the bottom of this blockchain that are decoded when they're needed, null if every block is in
+     * {@code blocks}.
+     */
+    private transient BlockSource source;
+
+    /**
+     * The blocks of this blockchain by height, genesis first, after the ones in {@code source}. Built from
+     * {@code indexedBlock}'s chain.
+     */
+    private transient List<Block> blocks = new ArrayList<>();
+
+    /** Where every transaction in {@code blocks} is, by transaction id. The ones in {@code source} aren't indexed. */
+    private transient TransactionIndex transactions = new TransactionIndex();
+
+    /**
+     * Where every signer's transactions are, including the ones in {@code source}. Stored blocks are indexed when
+     * they're first needed, blocks added afterwards as they're added.
+     */
+    private transient SignerIndex signers = new SignerIndex();
+
+    /** The words in every transaction's payload, indexed like {@code signers}. */
+    private transient PayloadIndex payloads = new PayloadIndex();
+
+    /**
+     * The block {@code blocks} ends with. When it isn't {@code currentBlock} (e.g. Gson set {@code currentBlock}
+     * directly while parsing) the indexes are rebuilt on the next lookup.
+     */
+    private transient Block indexedBlock;
+
     /** Create a new blockchain with null current block. */
     public Blockchain() {
-        size();
+        this(Clock.systemUTC());
+    }
+
+    /**
+     * Create a new blockchain with null current block.
+     * @param clock where new blocks get their timestamps from.
+     */
+    public Blockchain(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * <b>Should only be used for parsing.</b>
+     * <p>Wraps an existing chain of blocks. There are no guarantees that the blockchain is mined or verified.</p>
+     * @param currentBlock the last block of the chain, null for an empty blockchain.
+     * @return a blockchain whose current block is the given one.
+     */
+    public static Blockchain newUnsafeBlockchain(Block currentBlock) {
+        Blockchain bc = new Blockchain();
+        bc.currentBlock = currentBlock;
+        return bc;
+    }
+
+    /**
+     * <b>Should only be used for loading a stored blockchain.</b>
+     * <p>Wraps blocks that stay in storage until they're needed. Only the current block is decoded up front. Blocks
+     * added afterwards are kept in memory as usual.</p>
+     * @param source the stored blocks.
+     * @return a blockchain made of the given blocks.
+     */
+    public static Blockchain newLazyBlockchain(BlockSource source) {
+        Blockchain bc = new Blockchain();
+        if(source.size() > 0) {
+            bc.source = source;
+            bc.currentBlock = source.get(source.size() - 1);
+            bc.indexedBlock = bc.currentBlock;
+        }
+        return bc;
     }
 
     /**
@@ -24,14 +99,184 @@ public class Blockchain {
      * This method mines a new block when it is created, which is a blocking operation.
      *
      * @param transactions a list of transactions to be added to the blockchain.
+     * @return the block that was added.
+     */
+    public Block add(List<Transaction> transactions) {
+        return add(transactions, Mining.miner);
+    }
+
+    /**
+     * Same as {@code add(transactions)}, but mines the new block with the given miner.
+     *
+     * <p>The block is mined without holding the lock on this blockchain. If the miner is cancelled, or another block
+     * was added in the meantime, the blockchain is left as it was. The given transactions are never changed: the
+     * block gets renumbered copies of any whose ids don't already follow on from this blockchain's.</p>
+     *
+     * @param transactions a list of transactions to be added to the blockchain.
+     * @param miner searches for the new block's nonce.
+     * @return the block that was added.
+     * @throws java.util.concurrent.CancellationException if the miner was cancelled before the block was mined.
+     * @throws ConcurrentModificationException if the current block changed while the new block was mined.
+     */
+    public Block add(List<Transaction> transactions, Miner miner) {
+        Block previous;
+        int difficulty;
+        long earliest;
+        List<Transaction> numbered;
+        synchronized (this) {
+            previous = this.currentBlock;
+            difficulty = this.getNextDifficulty();
+            earliest = medianTimePast(lastBlocks(MEDIAN_TIME_BLOCKS)) + 1;
+            numbered = numbered(transactions, this.getLastTransactionId().orElse(-1) + 1);
+        }
+        // a clock that's behind, or stuck, still gives a valid timestamp
+        long timestamp = Math.max(clock.millis(), earliest);
+        Block mined = Block.newBlock(numbered, previous, difficulty, timestamp, miner);
+        synchronized (this) {
+            if(this.currentBlock != previous) {
+                throw new ConcurrentModificationException("Block " + mined.getId()
+                        + " was mined on a block that's no longer the current block.");
+            }
+            indexed(); // catch up first, in case currentBlock was replaced without the index knowing
+            this.currentBlock = mined;
+            index(mined);
+        }
+        return mined;
+    }
+
+    /**
+     * @return the transactions if their ids already run on from nextId, otherwise copies of them that do. A
+     * transaction numbered by the mempool keeps the id its client was told.
+     */
+    private static List<Transaction> numbered(List<Transaction> transactions, int nextId) {
+        boolean inOrder = true;
+        for(int i = 0; i < transactions.size() && inOrder; i++) {
+            inOrder = transactions.get(i).getId() == nextId + i;
+        }
+        List<Transaction> numbered = new ArrayList<>(transactions.size());
+        for(int i = 0; i < transactions.size(); i++) {
+            Transaction t = transactions.get(i);
+            numbered.add(inOrder ? t : t.withId(nextId + i));
+        }
+        return numbered;
+    }
+
+    /**
+     * <p>Appends a block that was mined somewhere else, e.g. downloaded from a friend, after checking it's a valid next
+     * block for this blockchain. Only the new block is checked, the blocks already in this blockchain aren't.
+     *
+     * <p>A valid next block points at the current block, is mined at the difficulty the retargeting schedule expects
+     * of it, has a valid timestamp (see {@code isMined()}), has only verified transactions, and numbers its
+     * transactions on from the last one in this blockchain.</p>
+     *
+     * @param block the block to append. Its previous block has to be this blockchain's current block.
+     * @throws IllegalArgumentException if the block isn't a valid next block, the blockchain is left as it was.
+     */
+    public synchronized void append(Block block) {
+        indexed();
+        checkNext(block, this.currentBlock, lastBlocks(checkedBlocks()), height(),
+                this.getLastTransactionId().orElse(-1) + 1, now());
+        this.currentBlock = block;
+        index(block);
+    }
+
+    /**
+     * <p>Appends blocks that were mined somewhere else, one after the other, after checking each is a valid next block
+     * like {@code append(Block)} does. The blocks are checked without holding the lock on this blockchain, so it can
+     * be read and added to in the meantime, only appending them takes the lock. Nothing in this blockchain is copied.
+     *
+     * @param blocks the blocks to append. The first one's previous block has to be this blockchain's current block,
+     *               each other one's the block before it.
+     * @return true if the blocks were appended, false if the current block changed while they were checked, the
+     * blockchain is left as it was.
+     * @throws IllegalArgumentException if a block isn't a valid next block, none of the blocks are appended.
+     */
+    public boolean appendAll(List<Block> blocks) {
+        Block tip;
+        int height;
+        int nextTxId;
+        List<Block> window;
+        synchronized (this) {
+            indexed();
+            tip = this.currentBlock;
+            height = height();
+            nextTxId = this.getLastTransactionId().orElse(-1) + 1;
+            window = lastBlocks(checkedBlocks());
+        }
+        long now = now();
+        Block previous = tip;
+        for(Block block : blocks) {
+            nextTxId = checkNext(block, previous, window, height++, nextTxId, now);
+            previous = block;
+            window.add(block);
+            if(window.size() > checkedBlocks()) {
+                window.remove(0);
+            }
+        }
+        synchronized (this) {
+            if(this.currentBlock != tip) {
+                return false;
+            }
+            indexed();
+            for(Block block : blocks) {
+                this.currentBlock = block;
+                index(block);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param block a block mined somewhere else.
+     * @param previous the block it has to follow, null if it has to be the genesis block.
+     * @param before the blocks up to previous, oldest first. At least {@code checkedBlocks()} of them, or all of them
+     *               if there aren't that many.
+     * @param height the height the block would be at.
+     * @param nextTxId the id its first transaction has to have.
+     * @param now the local clock, in milliseconds since the epoch.
+     * @return the id the first transaction of the block after it has to have.
+     * @throws IllegalArgumentException if the block isn't a valid next block.
      */
-    public void add(List<Transaction> transactions) {
-        int lastTxId = this.getLastTransactionId().orElse(-1);
-        for(Transaction tx: transactions) {
-            tx.setId(++lastTxId);
+    private static int checkNext(Block block, Block previous, List<Block> before, int height, int nextTxId, long now) {
+        if(block.getPreviousBlock() != previous) {
+            throw new IllegalArgumentException("Block " + block.getId() + " doesn't follow the current block.");
+        }
+        int expected = expectedDifficulty(before, height);
+        if(block.getDifficulty() != expected || !block.isMined()) {
+            throw new IllegalArgumentException("Block " + block.getId() + " isn't mined at difficulty " + expected);
         }
-        this.currentBlock = Block.newBlock(transactions, this.getCurrentBlock());
-        this.size++;
+        if(!hasValidTime(block, before, now)) {
+            throw new IllegalArgumentException("Block " + block.getId() + " has header version "
+                    + block.getHeaderVersion() + " and timestamp " + block.getTimestamp()
+                    + ", which can't follow the current block.");
+        }
+        for(Transaction tx : block.getTransactions()) {
+            if(tx.getId() != nextTxId++) {
+                throw new IllegalArgumentException("Block " + block.getId() + " has transaction " + tx.getId()
+                        + " out of order.");
+            }
+        }
+        if(block.getTransactions().isEmpty() || !block.isVerified()) {
+            throw new IllegalArgumentException("Block " + block.getId() + " has no or unverified transactions.");
+        }
+        return nextTxId;
+    }
+
+    /**
+     * @return a blockchain with the same blocks as this one, that blocks can be added to without changing this one.
+     * The blocks themselves are shared, they don't change once they're part of a blockchain.
+     */
+    public synchronized Blockchain copy() {
+        indexed();
+        Blockchain copy = new Blockchain(this.clock == null ? Clock.systemUTC() : this.clock);
+        copy.currentBlock = this.currentBlock;
+        copy.source = this.source;
+        copy.blocks = new ArrayList<>(this.blocks);
+        copy.transactions = this.transactions.copy();
+        copy.signers = this.signers.copy();
+        copy.payloads = this.payloads.copy();
+        copy.indexedBlock = this.indexedBlock;
+        return copy;
     }
 
     /** @return the last added block of this blockchain. */
@@ -45,50 +290,350 @@ public class Blockchain {
      * @param id the tx to be found.
      * @return the transaction with the matching id, or Optional.empty() if not present.
      */
-    public Optional<Transaction> findTransaction(int id) {
-        // search through each block
-        Block searchBlock = this.currentBlock;
-        while (searchBlock != null) {
-            Optional<Transaction> tx = searchBlock.findTransaction(id);
-            if (tx.isPresent()) {
-                return tx;
+    public synchronized Optional<Transaction> findTransaction(int id) {
+        long location = indexed().get(id);
+        if(location != TransactionIndex.ABSENT) {
+            return Optional.of(blockAt(TransactionIndex.height(location))
+                    .getTransactions().get(TransactionIndex.offset(location)));
+        }
+        if(source != null) {
+            OptionalInt height = source.heightOfTransaction(id);
+            if(height.isPresent()) {
+                return source.get(height.getAsInt()).findTransaction(id);
             }
-            searchBlock = searchBlock.getPreviousBlock();
         }
         return Optional.empty();
     }
 
-    public Optional<Transaction> findTransactionWithBlockId(int transactionId, int blockId) {
-        Block searchBlock = this.currentBlock;
-        while (searchBlock != null) {
-            if (searchBlock.getId() == blockId) {
-                return searchBlock.findTransaction(transactionId);
+    public synchronized Optional<Transaction> findTransactionWithBlockId(int transactionId, int blockId) {
+        long location = indexed().get(transactionId);
+        if(location == TransactionIndex.ABSENT || TransactionIndex.height(location) != blockId) {
+            // not indexed under this block: it's stored, or a block with a duplicate id holds it
+            return getBlock(blockId).flatMap((b) -> b.findTransaction(transactionId));
+        }
+        return Optional.of(blockAt(blockId).getTransactions().get(TransactionIndex.offset(location)));
+    }
+
+    /**
+     * @param id the id of the block, which is also its height.
+     * @return the block with the given id, Optional.empty() if there's no such block.
+     */
+    public synchronized Optional<Block> getBlock(int id) {
+        indexed();
+        if(id < 0 || id >= height()) {
+            return Optional.empty();
+        }
+        Block b = blockAt(id);
+        return b.getId() == id ? Optional.of(b) : Optional.empty();
+    }
+
+    /**
+     * @param from the height of the first block.
+     * @param to the height after the last block, past the current block is the same as up to it.
+     * @return the blocks from one height up to another, genesis first.
+     */
+    public synchronized List<Block> getBlocks(int from, int to) {
+        indexed();
+        List<Block> range = new ArrayList<>();
+        for(int h = Math.max(0, from); h < Math.min(to, height()); h++) {
+            range.add(blockAt(h));
+        }
+        return range;
+    }
+
+    /**
+     * @param transactionId the id of a transaction in this blockchain.
+     * @param limit the most transactions to return.
+     * @return the transactions after it, oldest first, empty if there's no transaction with the id.
+     */
+    public synchronized Optional<List<Transaction>> getTransactionsAfter(int transactionId, int limit) {
+        long location = locate(transactionId);
+        if(location == TransactionIndex.ABSENT) {
+            return Optional.empty();
+        }
+        List<Transaction> txs = new ArrayList<>();
+        int offset = TransactionIndex.offset(location) + 1;
+        for(int h = TransactionIndex.height(location); h < height() && txs.size() < limit; h++, offset = 0) {
+            List<Transaction> blockTxs = blockAt(h).getTransactions();
+            for(int i = offset; i < blockTxs.size() && txs.size() < limit; i++) {
+                txs.add(blockTxs.get(i));
             }
-            searchBlock = searchBlock.getPreviousBlock();
         }
-        return Optional.empty();
+        return Optional.of(txs);
+    }
+
+    /**
+     * @param transactionId the id of a transaction in this blockchain.
+     * @param limit the most transactions to return.
+     * @return the transactions right before it, oldest first, empty if there's no transaction with the id.
+     */
+    public synchronized Optional<List<Transaction>> getTransactionsBefore(int transactionId, int limit) {
+        long location = locate(transactionId);
+        if(location == TransactionIndex.ABSENT) {
+            return Optional.empty();
+        }
+        return Optional.of(transactionsBefore(TransactionIndex.height(location), TransactionIndex.offset(location),
+                limit));
+    }
+
+    /**
+     * @param limit the most transactions to return.
+     * @return the newest transactions, oldest first.
+     */
+    public synchronized List<Transaction> getLatestTransactions(int limit) {
+        indexed();
+        return transactionsBefore(height() - 1, Integer.MAX_VALUE, limit);
+    }
+
+    /**
+     * @param publicKeyHash the hash of a signer's public key, see {@link Transaction#getPublicKeyHash()}.
+     * @param from how many of the signer's transactions to skip, oldest first.
+     * @param limit the most transactions to return.
+     * @return the transactions signed with the public key, oldest first.
+     */
+    public synchronized List<Transaction> findTransactionsSignedBy(Hashcode publicKeyHash, int from, int limit) {
+        List<Transaction> txs = new ArrayList<>();
+        for(long location : signers().page(SignerIndex.signer(publicKeyHash), from, limit)) {
+            Transaction t = blockAt(TransactionIndex.height(location)).getTransactions()
+                    .get(TransactionIndex.offset(location));
+            // signers are indexed by part of the hash, another public key could share it
+            if(Arrays.equals(t.getPublicKeyHash().toByteArray(), publicKeyHash.toByteArray())) {
+                txs.add(t);
+            }
+        }
+        return txs;
+    }
+
+    /**
+     * @param publicKeyHash the hash of a signer's public key, see {@link Transaction#getPublicKeyHash()}.
+     * @return the number of transactions signed with the public key.
+     */
+    public synchronized int countTransactionsSignedBy(Hashcode publicKeyHash) {
+        return signers().count(SignerIndex.signer(publicKeyHash));
+    }
+
+    /**
+     * Indexes the blocks by signer, which is otherwise done the first time transactions are looked up by signer. Only
+     * holds the lock on this blockchain for a batch of blocks at a time.
+     */
+    public void indexSigners() {
+        while(true) {
+            synchronized (this) {
+                indexed();
+                if(signers.height() >= height()) {
+                    return;
+                }
+                for(int n = 0; n < INDEX_BATCH && signers.height() < height(); n++) {
+                    signers.add(blockAt(signers.height()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param query words that have to be in the payloads, see {@link PayloadIndex#words(String)}. A word ending with
+     *              "*" matches every word starting with it.
+     * @param from how many of the matching transactions to skip, oldest first.
+     * @param limit the most transactions to return.
+     * @return the transactions whose payloads have every word, oldest first, and how many there are in all.
+     */
+    public synchronized PayloadIndex.Page findTransactionsByPayload(String query, int from, int limit) {
+        long[] found = payloads().find(query);
+        List<Transaction> txs = new ArrayList<>();
+        for(int i = from; i < found.length && txs.size() < limit; i++) {
+            Block block = blockAt(TransactionIndex.height(found[i]));
+            txs.add(block.getTransactions().get(TransactionIndex.offset(found[i])));
+        }
+        return new PayloadIndex.Page(found.length, txs);
+    }
+
+    /**
+     * Indexes the blocks by the words in their payloads, which is otherwise done the first time transactions are
+     * looked up by payload. Only holds the lock on this blockchain for a batch of blocks at a time.
+     */
+    public void indexPayloads() {
+        while(true) {
+            synchronized (this) {
+                indexed();
+                if(payloads.height() >= height()) {
+                    return;
+                }
+                for(int n = 0; n < INDEX_BATCH && payloads.height() < height(); n++) {
+                    payloads.add(blockAt(payloads.height()));
+                }
+            }
+        }
+    }
+
+    /** @return the number of blocks indexed by the words in their payloads so far. */
+    public synchronized int getPayloadIndexHeight() {
+        indexed();
+        return payloads.height();
+    }
+
+    /** @return a copy of the payload index as it is, e.g. to be written out. */
+    public synchronized PayloadIndex getPayloadIndex() {
+        indexed();
+        return payloads.copy();
+    }
+
+    /**
+     * Uses a payload index read back from storage instead of indexing the blocks it covers again.
+     * @param index a payload index of this blockchain's blocks, or of the blocks of one it grew from.
+     * @param lastHash the hash of the last block the index covers, null if it covers none.
+     * @return true if the index is used, false if this blockchain doesn't have that block at that height.
+     */
+    public synchronized boolean usePayloadIndex(PayloadIndex index, Hashcode lastHash) {
+        indexed();
+        int covered = index.height();
+        if(covered > height() || (covered > 0 && (lastHash == null
+                || !blockAt(covered - 1).getHash().toString().equals(lastHash.toString())))) {
+            return false;
+        }
+        payloads = index;
+        return true;
+    }
+
+    /**
+     * @param id the id of the block, which is also its height.
+     * @return the Bloom filter of the block with the given id, Optional.empty() if there's no such block. A stored
+     * block's filter is read without decoding the block, if its source can.
+     */
+    public synchronized Optional<BlockFilter> getFilter(int id) {
+        indexed();
+        if(id < 0 || id >= height()) {
+            return Optional.empty();
+        }
+        int stored = source == null ? 0 : source.size();
+        return Optional.of(id < stored ? source.filter(id) : blocks.get(id - stored).getFilter());
     }
 
-    /** @return true if currentBlock is null, or if all the blocks in this blockchain are mined, False otherwise. */
+    /**
+     * @param id the id of the block, which is also its height.
+     * @return the hash of the block with the given id, Optional.empty() if there's no such block. A stored block's
+     * hash is read without decoding the block, if its source can.
+     */
+    public synchronized Optional<Hashcode> getBlockHash(int id) {
+        indexed();
+        if(id < 0 || id >= height()) {
+            return Optional.empty();
+        }
+        int stored = source == null ? 0 : source.size();
+        return Optional.of(id < stored ? source.hash(id) : blocks.get(id - stored).getHash());
+    }
+
+    /**
+     * @return true if currentBlock is null, or if all the blocks in this blockchain are mined at the difficulty the
+     * retargeting schedule expects of them, False otherwise.
+     */
     public boolean isMined() {
         if(this.currentBlock == null) return true;
-        for(Block current = this.currentBlock; current != null; current = current.getPreviousBlock()) {
-            if(!current.isMined()) {
+        // only the blocks the checks look back at are held at once, stored blocks can be evicted behind them
+        int windowSize = checkedBlocks();
+        long now = now();
+        List<Block> window = new ArrayList<>();
+        for(int height = 0; height < this.size(); height++) {
+            Block b;
+            synchronized (this) {
+                b = blockAt(height);
+            }
+            if(b.getDifficulty() != expectedDifficulty(window, height) || !b.isMined()
+                    || !hasValidTime(b, window, now)) {
                 return false;
             }
+            window.add(b);
+            if(window.size() > windowSize) {
+                window.remove(0);
+            }
         }
         return true;
     }
 
-    /** @return true iff all the transactions in this blockchain have verified signatures. */
+    /**
+     * <p>Blocks with versioned headers commit their timestamps to their hashes, so a timestamp can't be changed
+     * without mining the block again. To keep miners from picking timestamps that drag the difficulty down, a
+     * versioned block's timestamp has to be later than the median timestamp of the {@value #MEDIAN_TIME_BLOCKS}
+     * blocks before it, and at most {@value #MAX_FUTURE_MILLIS} milliseconds past the local clock.
+     *
+     * <p>Legacy blocks don't commit their timestamps, so theirs aren't checked, but they can't follow a versioned
+     * block.</p>
+     *
+     * @param before the blocks right before it, oldest first. At least {@code MEDIAN_TIME_BLOCKS} of them, or all of
+     *               them if there aren't that many.
+     * @param now the local clock, in milliseconds since the epoch.
+     * @return true if the block's header version and timestamp are valid after those blocks.
+     */
+    private static boolean hasValidTime(Block b, List<Block> before, long now) {
+        if(b.getHeaderVersion() == 0) {
+            return before.isEmpty() || before.get(before.size() - 1).getHeaderVersion() == 0;
+        }
+        return b.getTimestamp() > medianTimePast(before) && b.getTimestamp() <= now + MAX_FUTURE_MILLIS;
+    }
+
+    /**
+     * @param before blocks, oldest first.
+     * @return the median timestamp of the last {@code MEDIAN_TIME_BLOCKS} of them, 0 if there are none.
+     */
+    private static long medianTimePast(List<Block> before) {
+        int n = Math.min(MEDIAN_TIME_BLOCKS, before.size());
+        if(n == 0) {
+            return 0;
+        }
+        long[] timestamps = new long[n];
+        for(int i = 0; i < n; i++) {
+            timestamps[i] = before.get(before.size() - n + i).getTimestamp();
+        }
+        Arrays.sort(timestamps);
+        return timestamps[n / 2];
+    }
+
+    /** @return the local clock, in milliseconds since the epoch. */
+    private long now() {
+        return (clock == null ? Clock.systemUTC() : clock).millis();
+    }
+
+    /** @return the difficulty, in leading zero bits, that the next block added to this blockchain is mined at. */
+    public int getNextDifficulty() {
+        List<Block> window = new ArrayList<>();
+        synchronized (this) {
+            indexed();
+            // only the last retarget interval's worth of blocks matter
+            for(int h = Math.max(0, height() - Mining.retargeting.getInterval()); h < height(); h++) {
+                window.add(blockAt(h));
+            }
+        }
+        return expectedDifficulty(window, this.size());
+    }
+
+    /**
+     * @param before the blocks right before the given height, oldest first. At least a retarget interval's worth of
+     *               them, or all of them if there aren't that many.
+     * @param height the height of the block whose difficulty is expected.
+     * @return the difficulty the block at the given height must have.
+     */
+    private static int expectedDifficulty(List<Block> before, int height) {
+        if(height == 0) {
+            return Mining.initialDifficulty;
+        }
+        Block last = before.get(before.size() - 1);
+        if(!Mining.retargeting.isRetargetHeight(height)) {
+            return last.getDifficulty();
+        }
+        Block first = before.get(before.size() - Mining.retargeting.getInterval());
+        return Mining.retargeting.nextDifficulty(last.getDifficulty(), first.getTimestamp(), last.getTimestamp());
+    }
+
+    /**
+     * Signatures already verified aren't verified again, the rest are verified in parallel.
+     * @return true iff all the transactions in this blockchain have verified signatures.
+     */
     public boolean isVerified() {
         if(this.currentBlock == null) return true;
+        List<Transaction> txs = new ArrayList<>();
         for(Block current = this.currentBlock; current != null; current = current.getPreviousBlock()) {
-            if(!current.isVerified()) {
-                return false;
-            }
+            txs.addAll(current.getTransactions());
         }
-        return true;
+        return txs.parallelStream().allMatch(Transaction::isVerified);
     }
 
     /** @return the last transaction id officially a part of this blockchain, OptionalInt.empty() if the blockchain
@@ -102,21 +647,164 @@ public class Blockchain {
         return OptionalInt.of(txs.get(txs.size() - 1).getId());
     }
 
-    /** The number of blocks in this blockchain. */
-    private transient int size = 0;
-
     /** @return the number of blocks in this blockchain. */
-    public int size() {
-        // FIXME: inefficient
-        return this.asList().size();
+    public synchronized int size() {
+        indexed();
+        return height();
     }
 
-    /** @return the blocks in this blockchain as a list. Each block still contains a reference to the previous one.*/
+    /** @return the blocks in this blockchain as a list, current block first. Each block still contains a reference
+     * to the previous one.*/
     public List<Block> asList() {
-        List<Block> blockList = new ArrayList<>();
+        List<Block> blockList = this.blocksByHeight();
+        Collections.reverse(blockList);
+        return blockList;
+    }
+
+    /** @return a copy of the blocks in this blockchain, genesis first, so the index of a block is its height. */
+    public synchronized List<Block> blocksByHeight() {
+        indexed();
+        List<Block> byHeight = new ArrayList<>(height());
+        for(int h = 0; h < height(); h++) {
+            byHeight.add(blockAt(h));
+        }
+        return byHeight;
+    }
+
+    // ========= Indexing ==========
+
+    /** @return the transaction index, after making sure {@code blocks} and it are up to date with currentBlock. */
+    private TransactionIndex indexed() {
+        if(this.indexedBlock == this.currentBlock) {
+            return transactions;
+        }
+        // null if whatever created this blockchain skipped the constructor
+        if(blocks == null) blocks = new ArrayList<>();
+        if(transactions == null) transactions = new TransactionIndex();
+        if(signers == null) signers = new SignerIndex();
+        if(payloads == null) payloads = new PayloadIndex();
+        blocks.clear();
+        transactions.clear();
+        this.indexedBlock = null;
+        this.source = null; // the new chain is all in memory
+
+        List<Block> tipFirst = new ArrayList<>();
         for (Block current = this.currentBlock; current != null; current = current.getPreviousBlock()) {
-            blockList.add(current);
+            tipFirst.add(current);
         }
-        return blockList;
+        for(int i = tipFirst.size() - 1; i >= 0; i--) {
+            index(tipFirst.get(i));
+        }
+        // after the blocks, so they're indexed by signer and payload when they're first needed rather than now
+        signers.clear();
+        payloads.clear();
+        return transactions;
+    }
+
+    /** How many blocks back the median timestamp a versioned block has to be later than is taken over. */
+    static final int MEDIAN_TIME_BLOCKS = 11;
+
+    /** How far past the local clock a versioned block's timestamp can be, 2 hours. */
+    static final long MAX_FUTURE_MILLIS = 2 * 60 * 60 * 1000L;
+
+    /** How many blocks {@code indexSigners()} and {@code indexPayloads()} index at a time. */
+    private static final int INDEX_BATCH = 1000;
+
+    /** @return the signer index, after indexing every block not in it yet. */
+    private SignerIndex signers() {
+        indexed();
+        while(signers.height() < height()) {
+            signers.add(blockAt(signers.height()));
+        }
+        return signers;
+    }
+
+    /**
+     * @return where the transaction is, packed as {@code height << 32 | offset}, {@code TransactionIndex.ABSENT} if
+     * there's no transaction with the id.
+     */
+    private long locate(int transactionId) {
+        long location = indexed().get(transactionId);
+        if(location != TransactionIndex.ABSENT || source == null) {
+            return location;
+        }
+        OptionalInt height = source.heightOfTransaction(transactionId);
+        if(!height.isPresent()) {
+            return TransactionIndex.ABSENT;
+        }
+        List<Transaction> txs = source.get(height.getAsInt()).getTransactions();
+        for(int offset = 0; offset < txs.size(); offset++) {
+            if(txs.get(offset).getId() == transactionId) {
+                return ((long) height.getAsInt() << 32) | offset;
+            }
+        }
+        return TransactionIndex.ABSENT;
+    }
+
+    /** @return up to limit of the transactions before the one at the height and offset, oldest first. */
+    private List<Transaction> transactionsBefore(int height, int offset, int limit) {
+        List<Transaction> txs = new ArrayList<>();
+        for(int h = height; h >= 0 && txs.size() < limit; h--, offset = Integer.MAX_VALUE) {
+            List<Transaction> blockTxs = blockAt(h).getTransactions();
+            for(int i = Math.min(offset, blockTxs.size()) - 1; i >= 0 && txs.size() < limit; i--) {
+                txs.add(blockTxs.get(i));
+            }
+        }
+        Collections.reverse(txs);
+        return txs;
+    }
+
+    /** @return how many blocks back the difficulty and timestamp checks of a block look. */
+    private static int checkedBlocks() {
+        return Math.max(Mining.retargeting.getInterval(), MEDIAN_TIME_BLOCKS);
+    }
+
+    /** @return the last n blocks, oldest first, or all of them if there aren't that many. */
+    private List<Block> lastBlocks(int n) {
+        indexed();
+        List<Block> last = new ArrayList<>(n);
+        for(int h = Math.max(0, height() - n); h < height(); h++) {
+            last.add(blockAt(h));
+        }
+        return last;
+    }
+
+    /** @return the payload index, after indexing every block not in it yet. */
+    private PayloadIndex payloads() {
+        indexed();
+        while(payloads.height() < height()) {
+            payloads.add(blockAt(payloads.height()));
+        }
+        return payloads;
+    }
+
+    /** Appends a block to the indexes, it has to be the block after {@code indexedBlock}. */
+    private void index(Block block) {
+        int height = height();
+        blocks.add(block);
+        List<Transaction> txs = block.getTransactions();
+        // backwards, so within a block the first of any duplicate ids wins, like Block.findTransaction()
+        for(int offset = txs.size() - 1; offset >= 0; offset--) {
+            transactions.put(txs.get(offset).getId(), height, offset);
+        }
+        // if blocks below it are still to be indexed, this one's indexed along with them
+        if(signers.height() == height) {
+            signers.add(block);
+        }
+        if(payloads.height() == height) {
+            payloads.add(block);
+        }
+        this.indexedBlock = block;
+    }
+
+    /** @return the number of blocks, stored or in memory. Only valid after {@code indexed()}. */
+    private int height() {
+        return (source == null ? 0 : source.size()) + blocks.size();
+    }
+
+    /** @return the block at the given height, decoding it if it's stored. Only valid after {@code indexed()}. */
+    private Block blockAt(int height) {
+        int stored = source == null ? 0 : source.size();
+        return height < stored ? source.get(height) : blocks.get(height - stored);
     }
 }
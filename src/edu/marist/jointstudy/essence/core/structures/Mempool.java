@@ -0,0 +1,204 @@
+package edu.marist.jointstudy.essence.core.structures;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>The transactions waiting to be mined into a block, in the order they were submitted.
+ *
+ * <p>Safe to use from many threads at once: transactions are offered from every request thread while the miner takes
+ * them out. Ids are handed out and batches queued under one small lock, so no two transactions get the same id and
+ * the queue is in id order. Ids are provisional, the blockchain renumbers transactions that don't follow on from its
+ * last one when it adds them to a block.</p>
+ *
+ * <p>Holds at most a fixed number of transactions; offering more is refused until some are mined, so clients can be
+ * told to back off. A transaction with the same signature as one already waiting is refused too, e.g. a client
+ * retrying a submission.</p>
+ *
+ * <p>Transactions can be offered in batches. A batch is added whole or not at all, and is always mined whole, a
+ * {@code snapshot()} never has part of one.</p>
+ */
+public class Mempool {
+
+    /** What happened to an offered transaction. */
+    public enum Offer {
+        /** The transaction was added and given an id. */
+        ADDED,
+        /** A transaction with the same signature is already waiting. */
+        DUPLICATE,
+        /** The mempool is full. */
+        FULL
+    }
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    private final int capacity;
+
+    /** The batches waiting, a transaction offered on its own is a batch of one. */
+    private final ConcurrentLinkedQueue<List<Transaction>> batches = new ConcurrentLinkedQueue<>();
+
+    /** The signatures of the transactions waiting. */
+    private final Set<String> signatures = ConcurrentHashMap.newKeySet();
+
+    /** The number of transactions waiting, and being added. Kept apart as the queue's size is linear. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** Held while ids are handed out and batches queued, so the queue is in id order. */
+    private final Object ids = new Object();
+
+    private int nextId;
+
+    /**
+     * @param capacity the most transactions that can wait at once.
+     * @param nextId the id to give the first transaction offered.
+     */
+    public Mempool(int capacity, int nextId) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive, given: " + capacity);
+        }
+        this.capacity = capacity;
+        this.nextId = nextId;
+    }
+
+    /**
+     * Adds the transaction, setting its id, unless the mempool is full or already has a transaction with the same
+     * signature.
+     * @param t the transaction, its id is ignored.
+     * @return whether the transaction was added, and if not, why.
+     */
+    public Offer offer(Transaction t) {
+        return offerAll(Collections.singletonList(t));
+    }
+
+    /**
+     * Adds every transaction in the batch, setting their ids to consecutive ones, or none of them if there isn't room
+     * for all of them or any has the same signature as a transaction already waiting or another in the batch.
+     * @param batch the transactions, their ids are ignored.
+     * @return whether the batch was added, and if not, why.
+     */
+    public Offer offerAll(List<Transaction> batch) {
+        if(batch.isEmpty()) {
+            return Offer.ADDED;
+        }
+        int n;
+        do {
+            n = size.get();
+            if(n >= capacity || batch.size() > capacity - n) {
+                return Offer.FULL;
+            }
+        } while(!size.compareAndSet(n, n + batch.size()));
+
+        List<String> added = new ArrayList<>(batch.size());
+        for(Transaction t : batch) {
+            String signature = t.getSignature();
+            if(signature == null) {
+                continue;
+            }
+            if(!signatures.add(signature)) {
+                signatures.removeAll(added);
+                size.addAndGet(-batch.size());
+                return Offer.DUPLICATE;
+            }
+            added.add(signature);
+        }
+        synchronized (ids) {
+            for(Transaction t : batch) {
+                t.setId(nextId++);
+            }
+            batches.add(new ArrayList<>(batch));
+        }
+        return Offer.ADDED;
+    }
+
+    /** @return the transactions waiting, oldest first. Transactions offered while this is running may be left out. */
+    public List<Transaction> snapshot() {
+        List<Transaction> snapshot = new ArrayList<>();
+        for(List<Transaction> batch : batches) {
+            snapshot.addAll(batch);
+        }
+        return Collections.unmodifiableList(snapshot);
+    }
+
+    /**
+     * Takes transactions out once they've been mined into a block. Only the miner should take transactions out, and
+     * only ones from a {@code snapshot()}.
+     * @param mined the transactions to take out.
+     */
+    public void remove(Collection<Transaction> mined) {
+        Set<Transaction> minedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        minedSet.addAll(mined);
+        int removed = 0;
+        // the mined transactions are the oldest, so they're found at the head
+        for(Iterator<List<Transaction>> it = batches.iterator(); it.hasNext() && removed < minedSet.size(); ) {
+            List<Transaction> batch = it.next();
+            if(minedSet.contains(batch.get(0))) {
+                it.remove();
+                forget(batch);
+                removed += batch.size();
+            }
+        }
+    }
+
+    /**
+     * Takes every transaction out.
+     * @param nextId the id to give the next transaction offered.
+     * @return the transactions that were waiting, oldest first.
+     */
+    public List<Transaction> clear(int nextId) {
+        List<Transaction> drained = new ArrayList<>();
+        synchronized (ids) {
+            for(List<Transaction> batch = batches.poll(); batch != null; batch = batches.poll()) {
+                forget(batch);
+                drained.addAll(batch);
+            }
+            this.nextId = nextId;
+        }
+        return drained;
+    }
+
+    /**
+     * Gives the transactions waiting consecutive ids, oldest first, e.g. after the blockchain they'll be added to was
+     * replaced by a friend's. Must not be called while transactions from a {@code snapshot()} are being mined.
+     * @param nextId the id to give the oldest transaction waiting.
+     */
+    public void renumber(int nextId) {
+        synchronized (ids) {
+            for(List<Transaction> batch : batches) {
+                for(Transaction t : batch) {
+                    t.setId(nextId++);
+                }
+            }
+            this.nextId = nextId;
+        }
+    }
+
+    /** @return the number of transactions waiting. */
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return batches.isEmpty();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void forget(List<Transaction> batch) {
+        for(Transaction t : batch) {
+            if(t.getSignature() != null) {
+                signatures.remove(t.getSignature());
+            }
+        }
+        size.addAndGet(-batch.size());
+    }
+}
@@ -8,12 +8,14 @@ import edu.marist.jointstudy.essence.core.hash.Hashing;
 import java.util.*;
 
 /**
- * TODO: bloom filters?
  * TODO: lookup is only available for Transactions
  *
  * <p>A data structure whose internal nodes store a hashcode of their two children's hashes,
  * and whose leaf nodes store a hashcode of the data to which each points.</p>
  *
+ * <p>Whether a block might have a transaction, without looking at its tree, is answered by its
+ * {@link BlockFilter}.</p>
+ *
  * <dl>
  *     <dt>Merkle Root</dt>
  *     <dd>A <em>merkle root</em> is the hashcode of the root node in a merkle tree.
@@ -31,18 +33,64 @@ import java.util.*;
  *     It computes its hashcode using the hashes of its children.</dd>
  *
  *     <dt>Proof of Membership</dt>
- *     <dd>TODO</dd>
+ *     <dd>A <em>proof</em> (audit path) that a datum is in a tree is the hashes of the siblings of the nodes on the
+ *     path from its leaf up to the root, O(log n) of them. Hashing the datum's leaf with each sibling in turn gives
+ *     the merkle root only if the datum is in the tree at that position. See {@link #proof(int)} and
+ *     {@link #verify(Hashcode, Proof, Hashcode)}.</dd>
  *
  *     <dt>Proof of Nonmembership</dt>
  *     <dd>TODO</dd>
  * </dl>
  *
+ * <p>The tree is complete and ordered: the first leaves are paired on the bottom level, just enough of them that the
+ * level above (the <em>penultimate</em> level, the rest of the leaves and the pairs) has a power of two nodes, and
+ * a full binary tree is built on top of that. The hashes are kept level by level in flat arrays rather than in node
+ * objects. {@link #getRoot()} builds nodes only when they're asked for.</p>
+ *
+ * <p>Leaves can be appended, with the root hashed again in O(log n). Pairing the next two leaves shifts the leaves
+ * after them along the penultimate level, so a tree that's appended to keeps the hash of every perfect subtree over
+ * consecutive leaves (a <em>window</em>) of each power of two size: O(n log n) hashes, each only hashed once. Every
+ * node of the tree is then a window, except the O(log n) nodes over both pairs and leaves. Trees that are never
+ * appended to (a block's) don't keep windows, and neither do trees of more than {@value #MAX_WINDOWED_LEAVES}
+ * leaves, see {@link #append(Hashable)}.</p>
+ *
  * Created by Tom Magnusson on 5/22/2017.
  */
 public final class MerkleTree<D extends Hashable> {
 
-    /** Top level node of the tree. Its hashcode is a digest of all the transactions in the tree. */
-    private Node<D> root;
+    /**
+     * The most leaves windows are kept for, about 7 MiB of SHA-256 windows. Past it they'd take hundreds of MiB at a
+     * million leaves.
+     */
+    public static final int MAX_WINDOWED_LEAVES = 1 << 14;
+
+    /** The data of the leaves, left to right. */
+    private final List<D> data;
+
+    /** The number of bytes in a hash, 0 until the first leaf is hashed. */
+    private int width = 0;
+
+    /** The hashes of the leaves, one after another. The first {@code hashedLeaves} are filled in. */
+    private byte[] leaves = new byte[0];
+    private int hashedLeaves = 0;
+
+    /**
+     * The hashes of each level from the penultimate level up to the root, one after another. Null until the root is
+     * asked for, if there's only one leaf (the root is the leaf), or if the tree has been appended to.
+     */
+    private byte[][] levels = null;
+
+    /**
+     * Once the tree is appended to, {@code windows[j]} has the hash of the perfect subtree over leaves k to
+     * k + 2^j - 1, for every k, one after another. {@code windows[0]} isn't used, the leaves are the windows of 1.
+     */
+    private byte[][] windows = null;
+
+    /** The leaves every window ending at has been hashed for. */
+    private int windowedLeaves = 0;
+
+    /** Built when it's asked for, dropped when a leaf is appended. */
+    private Node<D> root = null;
 
     /**
      * <p>Constructs a complete, ordered Merkle Tree whose LEAF nodes contain the list of data in its original order,
@@ -55,16 +103,73 @@ public final class MerkleTree<D extends Hashable> {
      * @param data a list of data that the MerkleTree stores in its {@code LEAF} nodes.
      */
     public MerkleTree(List<D> data) {
-        this.root = Node.constructSubtree(Objects.requireNonNull(data));
+        if(Objects.requireNonNull(data).isEmpty()) {
+            throw new IllegalArgumentException("Data must contain at least one datum. The data given is empty: "
+                    + data);
+        }
+        this.data = new ArrayList<>(data);
+    }
+
+    /**
+     * <p>Adds a leaf to the right of the others. The first append hashes a window for every leaf already in the tree,
+     * later ones only O(log n) windows.
+     *
+     * <p>Windows take O(n log n) memory, so they're only kept while the tree has at most
+     * {@value #MAX_WINDOWED_LEAVES} leaves. Past that they're dropped, the tree only holds the hashes of its leaves
+     * and levels, O(n) of them, and the levels are hashed again from the leaves, in O(n), the next time the root or
+     * a proof is asked for.</p>
+     *
+     * @param datum the datum of the new leaf.
+     */
+    public synchronized void append(D datum) {
+        data.add(Objects.requireNonNull(datum));
+        root = null;
+        levels = null;
+        hashLeaves();
+        if(data.size() <= MAX_WINDOWED_LEAVES) {
+            hashWindows();
+        } else {
+            windows = null;
+            windowedLeaves = 0;
+        }
+    }
+
+    /** @return the number of leaves. */
+    public synchronized int size() {
+        return data.size();
+    }
+
+    /** @return the number of bytes of hashes the tree holds: its leaves', and its levels' or windows'. */
+    public synchronized long hashBytes() {
+        long bytes = leaves.length;
+        for(byte[][] hashes : new byte[][][] {levels, windows}) {
+            if(hashes != null) {
+                for(byte[] level : hashes) {
+                    bytes += level == null ? 0 : level.length;
+                }
+            }
+        }
+        return bytes;
     }
 
     /** Hashcode of the root node represents the structure of all the underlying transactions */
-    public Hashcode getMerkleRoot() {
-        return root.calculateHash();
+    public synchronized Hashcode getMerkleRoot() {
+        hashLeaves();
+        if(windows == null) {
+            hashLevels();
+        }
+        return Hashcode.SHA256.wrap(nodeHash(height(), 0));
     }
 
     /** @return the top level node of the tree. Its hashcode is a digest of all the transactions in the tree. */
-    public Node<D> getRoot() {
+    public synchronized Node<D> getRoot() {
+        if(root == null) {
+            hashLeaves();
+            if(windows == null) {
+                hashLevels();
+            }
+            root = buildNode(height(), 0);
+        }
         return this.root;
     }
 
@@ -73,6 +178,272 @@ public final class MerkleTree<D extends Hashable> {
         return this.getRoot().toString();
     }
 
+    /**
+     * @param leaf the index of the leaf, from the left.
+     * @return the hashes proving the leaf's datum is in the tree, from the leaf's sibling up to the root's children.
+     * @throws IndexOutOfBoundsException if there's no such leaf.
+     */
+    public synchronized Proof proof(int leaf) {
+        int size = data.size();
+        if(leaf < 0 || leaf >= size) {
+            throw new IndexOutOfBoundsException("No leaf " + leaf + " in a tree of " + size + " leaves.");
+        }
+        hashLeaves();
+        if(windows == null) {
+            hashLevels();
+        }
+        List<Hashcode> siblings = new ArrayList<>();
+        int pairs = pairs();
+        int index; // on the penultimate level
+        if(leaf < 2 * pairs) {
+            siblings.add(hashAt(leaf ^ 1));
+            index = leaf / 2;
+        } else {
+            index = leaf - pairs;
+        }
+        for(int level = 0; level < height(); level++, index /= 2) {
+            siblings.add(Hashcode.SHA256.wrap(nodeHash(level, index ^ 1)));
+        }
+        return new Proof(leaf, size, siblings);
+    }
+
+    /**
+     * @param datum the datum the proof is for.
+     * @param proof the hashes of the siblings of the nodes from the datum's leaf up to the root.
+     * @param merkleRoot the merkle root of the tree the datum should be in.
+     * @return true if the datum is in the tree with the merkle root at the leaf the proof is for.
+     */
+    public static boolean verify(Hashable datum, Proof proof, Hashcode merkleRoot) {
+        return verify(Hashing.hashFunction.hash(datum), proof, merkleRoot);
+    }
+
+    /**
+     * @param leafHash the hash of the datum the proof is for.
+     * @param proof the hashes of the siblings of the nodes from the datum's leaf up to the root.
+     * @param merkleRoot the merkle root of the tree the datum should be in.
+     * @return true if a datum with the hash is in the tree with the merkle root at the leaf the proof is for.
+     */
+    public static boolean verify(Hashcode leafHash, Proof proof, Hashcode merkleRoot) {
+        int size = proof.getSize();
+        int leaf = proof.getLeaf();
+        List<Hashcode> siblings = proof.getSiblings();
+        if(size < 1 || leaf < 0 || leaf >= size || siblings == null) {
+            return false;
+        }
+        int penultimate = penultimateSize(size);
+        int pairs = size - penultimate;
+        boolean paired = leaf < 2 * pairs;
+        // the shape of the tree follows from its size, so the sides of the siblings do too
+        if(siblings.size() != Integer.numberOfTrailingZeros(penultimate) + (paired ? 1 : 0)) {
+            return false;
+        }
+        Iterator<Hashcode> sibling = siblings.iterator();
+        byte[] hash = leafHash.toByteArray();
+        int index = leaf;
+        if(paired) {
+            hash = hashChildren(hash, sibling.next().toByteArray(), index % 2 == 1);
+            index /= 2;
+        } else {
+            index -= pairs;
+        }
+        for(; sibling.hasNext(); index /= 2) {
+            hash = hashChildren(hash, sibling.next().toByteArray(), index % 2 == 1);
+        }
+        return Arrays.equals(hash, merkleRoot.toByteArray());
+    }
+
+    /** @return the hash of the node and its sibling, in order. */
+    private static byte[] hashChildren(byte[] node, byte[] sibling, boolean siblingIsLeft) {
+        byte[] children = siblingIsLeft ? Util.combine(sibling, node) : Util.combine(node, sibling);
+        return Hashing.hashFunction.hash(() -> children).toByteArray();
+    }
+
+    /** @return the number of nodes on the penultimate level of a tree with the leaves, a power of two. */
+    private static int penultimateSize(int size) {
+        return size == 1 ? 1 : Integer.highestOneBit(size - 1);
+    }
+
+    /** @return the number of nodes on the penultimate level, a power of two. */
+    private int penultimateSize() {
+        return penultimateSize(data.size());
+    }
+
+    /** @return the number of pairs of leaves on the bottom level, the first nodes on the penultimate level. */
+    private int pairs() {
+        return data.size() - penultimateSize();
+    }
+
+    /** @return the level of the root, counting the penultimate level as 0. */
+    private int height() {
+        return Integer.numberOfTrailingZeros(penultimateSize());
+    }
+
+    /** Hashes the leaves that haven't been hashed yet. */
+    private void hashLeaves() {
+        int size = data.size();
+        if(hashedLeaves == size) {
+            return;
+        }
+        if(width == 0) {
+            width = Hashing.hashFunction.hash(data.get(0)).toByteArray().length;
+        }
+        leaves = ensureCapacity(leaves, size);
+        for(int i = hashedLeaves; i < size; i++) {
+            System.arraycopy(Hashing.hashFunction.hash(data.get(i)).toByteArray(), 0, leaves, i * width, width);
+        }
+        hashedLeaves = size;
+    }
+
+    /** Hashes the penultimate level from the leaves, and every level above it, up to the root. */
+    private void hashLevels() {
+        if(levels != null || data.size() == 1) {
+            return;
+        }
+        int penultimate = penultimateSize();
+        int pairs = pairs();
+        levels = new byte[height() + 1][];
+        levels[0] = new byte[penultimate * width];
+        for(int i = 0; i < penultimate; i++) {
+            if(i < pairs) {
+                hashPair(leaves, 2 * i * width, levels[0], i * width);
+            } else {
+                // the leaves after the pairs are on the penultimate level themselves
+                System.arraycopy(leaves, (i + pairs) * width, levels[0], i * width, width);
+            }
+        }
+        for(int l = 1; l < levels.length; l++) {
+            levels[l] = new byte[levels[l - 1].length / 2];
+            for(int i = 0; i < levels[l].length / width; i++) {
+                hashPair(levels[l - 1], 2 * i * width, levels[l], i * width);
+            }
+        }
+    }
+
+    /** Hashes every window that ends at a leaf that windows haven't been hashed for yet. */
+    private void hashWindows() {
+        int size = data.size();
+        int tallest = 31 - Integer.numberOfLeadingZeros(size); // the largest window fits in the leaves
+        if(windows == null) {
+            windows = new byte[tallest + 1][];
+        } else if(windows.length <= tallest) {
+            windows = Arrays.copyOf(windows, tallest + 1);
+        }
+        for(int j = 1; j <= tallest; j++) {
+            windows[j] = ensureCapacity(windows[j] == null ? new byte[0] : windows[j], size - (1 << j) + 1);
+        }
+        for(int last = windowedLeaves; last < size; last++) {
+            for(int j = 1; (1 << j) <= last + 1; j++) {
+                int k = last + 1 - (1 << j);
+                int half = 1 << (j - 1);
+                byte[] pair = Util.combine(window(j - 1, k), window(j - 1, k + half));
+                System.arraycopy(Hashing.hashFunction.hash(() -> pair).toByteArray(), 0, windows[j], k * width, width);
+            }
+        }
+        windowedLeaves = size;
+    }
+
+    /** @return the hash of the perfect subtree over leaves k to k + 2^j - 1. */
+    private byte[] window(int j, int k) {
+        byte[] from = j == 0 ? leaves : windows[j];
+        return Arrays.copyOfRange(from, k * width, (k + 1) * width);
+    }
+
+    /** @return the hash of the node at the level (0 is the penultimate level) and index, from the left. */
+    private byte[] nodeHash(int level, int index) {
+        if(data.size() == 1) {
+            return window(0, 0);
+        }
+        if(windows == null) {
+            return Arrays.copyOfRange(levels[level], index * width, (index + 1) * width);
+        }
+        // the node is over penultimate nodes first to end - 1
+        int first = index << level;
+        int end = (index + 1) << level;
+        int pairs = pairs();
+        if(end <= pairs) {
+            return window(level + 1, 2 * first); // only pairs
+        }
+        if(first >= pairs) {
+            return window(level, first + pairs); // only leaves
+        }
+        byte[] children = Util.combine(nodeHash(level - 1, 2 * index), nodeHash(level - 1, 2 * index + 1));
+        return Hashing.hashFunction.hash(() -> children).toByteArray();
+    }
+
+    /** @return the node at the level (0 is the penultimate level) and index, and the nodes below it. */
+    private Node<D> buildNode(int level, int index) {
+        if(level == 0) {
+            int pairs = pairs();
+            if(index < pairs) {
+                Node<D> left = new Node<>(data.get(2 * index), hashAt(2 * index));
+                Node<D> right = new Node<>(data.get(2 * index + 1), hashAt(2 * index + 1));
+                return new Node<>(left, right, Hashcode.SHA256.wrap(nodeHash(0, index)));
+            }
+            return new Node<>(data.get(index + pairs), hashAt(index + pairs));
+        }
+        return new Node<>(buildNode(level - 1, 2 * index), buildNode(level - 1, 2 * index + 1),
+                Hashcode.SHA256.wrap(nodeHash(level, index)));
+    }
+
+    /** @return the hash of the leaf. */
+    private Hashcode hashAt(int leaf) {
+        return Hashcode.SHA256.wrap(window(0, leaf));
+    }
+
+    /** Hashes the two hashes in {@code from} starting at {@code offset} into {@code to} at {@code at}. */
+    private void hashPair(byte[] from, int offset, byte[] to, int at) {
+        byte[] pair = Arrays.copyOfRange(from, offset, offset + 2 * width);
+        System.arraycopy(Hashing.hashFunction.hash(() -> pair).toByteArray(), 0, to, at, width);
+    }
+
+    /** @return the hashes, with room for at least {@code count} of them. */
+    private byte[] ensureCapacity(byte[] hashes, int count) {
+        if(hashes.length >= count * width) {
+            return hashes;
+        }
+        return Arrays.copyOf(hashes, Math.max(count, 2 * hashes.length / width) * width);
+    }
+
+    /**
+     * <p>A proof that a datum is in a merkle tree: which leaf it's at, how many leaves the tree has, and the hashes
+     * of the siblings of the nodes from the leaf up to the root, lowest first.
+     *
+     * <p>The size gives the shape of the tree, so whether each sibling is on the left or the right doesn't need to be
+     * sent.</p>
+     */
+    public static final class Proof {
+
+        private final int leaf;
+        private final int size;
+        private final List<Hashcode> siblings;
+
+        public Proof(int leaf, int size, List<Hashcode> siblings) {
+            this.leaf = leaf;
+            this.size = size;
+            this.siblings = Collections.unmodifiableList(new ArrayList<>(siblings));
+        }
+
+        /** @return the index of the leaf, from the left. */
+        public int getLeaf() {
+            return leaf;
+        }
+
+        /** @return the number of leaves in the tree. */
+        public int getSize() {
+            return size;
+        }
+
+        /** @return the hashes of the siblings of the nodes from the leaf up to the root, lowest first. */
+        public List<Hashcode> getSiblings() {
+            return siblings;
+        }
+
+        @Override
+        public String toString() {
+            return "Proof of leaf " + leaf + " of " + size + ": " + siblings;
+        }
+    }
+
     /**
      * <p>Nodes in a merkle tree come in two flavors: {@code LEAF} and {@code INTERNAl}.
      *
@@ -122,6 +493,18 @@ public final class MerkleTree<D extends Hashable> {
             this.datum = null;
         }
 
+        // Instantiate a LEAF whose hash is already known
+        private Node(D datum, Hashcode hashcode) {
+            this(datum);
+            this.hashcode = hashcode;
+        }
+
+        // Instantiate an INTERNAL node whose hash is already known
+        private Node(Node<D> left, Node<D> right, Hashcode hashcode) {
+            this(left, right);
+            this.hashcode = hashcode;
+        }
+
         /**
          * <p>Creates a new leaf node with the given datum.</p>
          *
@@ -145,126 +528,6 @@ public final class MerkleTree<D extends Hashable> {
             return new Node<>(left, right);
         }
 
-        /**
-         * <p>Constructs a complete, ordered tree whose LEAF nodes contain the list of data in its original order,
-         * left to right.
-         *
-         * <p>More specifically:
-         * <ul>
-         *   <li>Each leaf node contains one datum in the list of data
-         *   <li>The leaves maintain the order of the list passed into the constructor.
-         *   <li>The tree produced is complete, meaning:
-         *   <ul>
-         *     <li>All INTERNAL nodes have two children
-         *     <li>All nodes are built as left as possible while still being strictly balanced.
-         *     <li>It is strictly balanced, meaning:
-         *     <ul>
-         *       <li>The balance factor between any two leaf nodes is: -1 <= bf <= 1.
-         *       <li>Leaf nodes are not more than one level away from each other.
-         *
-         * @param data a nonnull, nonemtpy list of data
-         * @param <D> the type of data that the LEAF nodes hold.
-         * @return a complete, ordered tree
-         */
-        public static <D extends Hashable> Node<D> constructSubtree(List<D> data) {
-
-            if(Objects.requireNonNull(data).size() == 0) {
-                throw new IllegalArgumentException("Data must contain at least one datum. The data given is empty: "
-                        + data);
-            }
-
-            int size = data.size();
-
-            // easy single case
-            if(size == 1) {
-                return Node.newLeaf(data.get(0));
-            }
-
-            // 2^(log[2](floor(size)))
-            // the next closest power of two greater than or equal to the size of the list of data
-            int nextPowerOfTwo = (int) Math.pow(2, Math.ceil( Math.log(size) / Math.log(2) ));
-
-            // the amount of nodes that would be needed to be added
-            // to the size to make it that next power of two
-            int exremainder = nextPowerOfTwo - size;
-
-            // TODO: better name for `whenToStop`
-            // the index at which we stop pairing the bottom level nodes
-            int whenToStop = size - exremainder;
-
-            List<Node<D>> leaves = new ArrayList<>(exremainder);
-            // create all the LEAF nodes
-            for(int i = whenToStop; i < size; i++) {
-                leaves.add(Node.newLeaf(data.get(i)));
-            }
-            // TODO: figure out nice `map` function that works with generics (lambdas don't like generics)
-
-            // The capacity is the next lowest power of two.
-            // Contains nodes on the second from the bottom level (to create a full "super" tree out of).
-            List<Node<D>> penultimateLevel = new ArrayList<>(nextPowerOfTwo / 2);
-
-            // Helpful debug information
-            // System.out.println("Construction Iteration:\nSize: " + size + "\nnextPowerOfTwo: "
-            // + nextPowerOfTwo + "\nexremainder: " + exremainder + "\nwhenToStop: " + whenToStop + "\n");
-
-            // skip by two to pair all the nodes that are
-            // supposed to be on the bottom-most level
-            for(int i = 0; i < whenToStop; i += 2) {
-                Node<D> left = Node.newLeaf(data.get(i));
-                Node<D> right = Node.newLeaf(data.get(i + 1));
-                Node<D> internal = Node.newInternal(left, right);
-                penultimateLevel.add(internal);
-            }
-
-            // add the rest of the leaves to the second from the bottom level
-            penultimateLevel.addAll(leaves);
-            // postcondition: the size of level is a power of two: |level| = 2^k | k is an element of *N*
-
-            // recursively create the binary tree based on the penultimate level.
-            // this is easy because the penultimate level has a size that is a power of two
-            return Node.constructFullBinaryTree(penultimateLevel);
-        }
-
-        /** @return {@code true} if {@code x} is a power of two, {@code false} otherwise.*/
-        private static boolean isPowerOfTwo(int x) {
-            return ((double) x ) == Math.pow(2, Math.log(x) / Math.log(2));
-        }
-
-        /**
-         * Precondition: the list of nodes must have a size of 2^k where k is a natural number.
-         *
-         * @param nodes, nonnull, nonempty list of nodes having a size of a power of two.
-         * @return a full binary tree, whose lowest level contains the list of nodes passed in.
-         */
-        public static <D extends Hashable> Node<D> constructFullBinaryTree(final List<Node<D>> nodes) {
-            if(Objects.requireNonNull(nodes).size() == 0) {
-                throw new IllegalArgumentException("Data must contain at least one datum. Nodes given: " + nodes);
-            }
-
-            int size = nodes.size();
-
-            if(!isPowerOfTwo(nodes.size())) {
-                throw new IllegalArgumentException(
-                        "The list of nodes must have a size that is a power of two. Its size is: " + size);
-            }
-
-            // Base case: single node
-            if(size == 1) {
-                return nodes.get(0);
-            }
-
-            // halve the list
-            int i = size / 2;
-
-            // Recursive case: pair the subtrees
-            List<Node<D>> left = nodes.subList(0, i);
-            List<Node<D>> right = nodes.subList(i, size);
-
-            return Node.newInternal(
-                    Node.constructFullBinaryTree(left),
-                    Node.constructFullBinaryTree(right));
-        }
-
         /* ACCESSORS */
 
         /** Lazy instantiation cache used by {@code getHash()}. */
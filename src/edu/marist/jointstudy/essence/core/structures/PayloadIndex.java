@@ -0,0 +1,260 @@
+package edu.marist.jointstudy.essence.core.structures;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>An inverted index of the words in transactions' payloads: each word maps to where the transactions whose
+ * payloads have it are in a blockchain, the height of the block and the offset in its transactions, oldest first.
+ *
+ * <p>A word is a run of letters and digits, lowercased; anything else separates words. Words longer than
+ * {@value #MAX_WORD_LENGTH} characters aren't indexed. The words are kept sorted, so every word starting with a
+ * prefix is found together.</p>
+ *
+ * <p>Blocks are indexed from the genesis block up, one at a time. The index can be written out and read back, so a
+ * stored blockchain doesn't have to be indexed again every time it's loaded.</p>
+ */
+public final class PayloadIndex {
+
+    static final int MAX_WORD_LENGTH = 64;
+
+    /** Starts an index written by {@code write()}. */
+    private static final int MAGIC = 0x50494458; // "PIDX"
+    private static final int VERSION = 1;
+
+    private final TreeMap<String, Postings> words = new TreeMap<>();
+
+    /** The number of blocks indexed. */
+    private int height = 0;
+
+    /** The locations of one word's transactions, packed as {@code height << 32 | offset}, oldest first. */
+    private static final class Postings {
+        private long[] locations = new long[2];
+        private int count = 0;
+
+        private void add(long location) {
+            if(count == locations.length) {
+                locations = Arrays.copyOf(locations, 2 * count);
+            }
+            locations[count++] = location;
+        }
+    }
+
+    /** Some of the transactions a search found, with how many it found in all. */
+    public static final class Page {
+
+        private int total;
+
+        private List<Transaction> transactions;
+
+        public Page(int total, List<Transaction> transactions) {
+            this.total = total;
+            this.transactions = transactions;
+        }
+
+        /** @return how many transactions the search found in all. */
+        public int getTotal() {
+            return total;
+        }
+
+        public List<Transaction> getTransactions() {
+            return transactions;
+        }
+    }
+
+    /** @return the words of the text, lowercased, each once, in the order they first appear. */
+    public static List<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        if(text == null) {
+            return new ArrayList<>(words);
+        }
+        int start = -1;
+        for(int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if(inWord && start < 0) {
+                start = i;
+            } else if(!inWord && start >= 0) {
+                if(i - start <= MAX_WORD_LENGTH) {
+                    words.add(text.substring(start, i).toLowerCase());
+                }
+                start = -1;
+            }
+        }
+        return new ArrayList<>(words);
+    }
+
+    /**
+     * Indexes the payloads of the next block's transactions.
+     * @param block the block at height {@code height()}.
+     */
+    void add(Block block) {
+        List<Transaction> txs = block.getTransactions();
+        for(int offset = 0; offset < txs.size(); offset++) {
+            long location = ((long) height << 32) | (offset & 0xFFFFFFFFL);
+            for(String word : words(txs.get(offset).getPayload())) {
+                words.computeIfAbsent(word, (w) -> new Postings()).add(location);
+            }
+        }
+        height++;
+    }
+
+    /** @return the number of blocks indexed, from the genesis block up. */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Finds the transactions whose payloads have every word in the query. A word ending with "*" matches every word
+     * starting with it, e.g. {@code "transfer acc*"}.
+     *
+     * @param query words separated by anything that isn't a letter or digit.
+     * @return the locations of the transactions, packed as {@code height << 32 | offset} (see
+     * {@link TransactionIndex#height(long)}), oldest first. Empty if the query has no words.
+     */
+    long[] find(String query) {
+        List<long[]> matches = new ArrayList<>();
+        for(String part : query.trim().split("\\s+")) {
+            List<String> partWords = words(part);
+            for(int i = 0; i < partWords.size(); i++) {
+                boolean prefix = part.endsWith("*") && i == partWords.size() - 1;
+                matches.add(prefix ? withPrefix(partWords.get(i)) : withWord(partWords.get(i)));
+            }
+        }
+        if(matches.isEmpty()) {
+            return new long[0];
+        }
+        // the fewest matches first, so the rest only have to be searched for those
+        matches.sort((a, b) -> Integer.compare(a.length, b.length));
+        long[] found = matches.get(0);
+        for(int i = 1; i < matches.size() && found.length > 0; i++) {
+            found = intersect(found, matches.get(i));
+        }
+        return found;
+    }
+
+    void clear() {
+        words.clear();
+        height = 0;
+    }
+
+    PayloadIndex copy() {
+        PayloadIndex copy = new PayloadIndex();
+        for(Map.Entry<String, Postings> word : words.entrySet()) {
+            // the arrays are appended to in place, so they can't be shared
+            Postings postings = new Postings();
+            postings.locations = Arrays.copyOf(word.getValue().locations, Math.max(2, word.getValue().count));
+            postings.count = word.getValue().count;
+            copy.words.put(word.getKey(), postings);
+        }
+        copy.height = height;
+        return copy;
+    }
+
+    /**
+     * Writes the index: {@code int magic | int version | int height | int wordCount | wordCount * (utf word | int
+     * count | count * long location)}.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(height);
+        out.writeInt(words.size());
+        for(Map.Entry<String, Postings> word : words.entrySet()) {
+            out.writeUTF(word.getKey());
+            out.writeInt(word.getValue().count);
+            for(int i = 0; i < word.getValue().count; i++) {
+                out.writeLong(word.getValue().locations[i]);
+            }
+        }
+    }
+
+    /**
+     * @param in an index written by {@code write()}.
+     * @return the index.
+     * @throws IOException if it isn't an index, or one this version can't read.
+     */
+    public static PayloadIndex read(DataInputStream in) throws IOException {
+        if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a payload index, or a version that can't be read.");
+        }
+        PayloadIndex index = new PayloadIndex();
+        index.height = in.readInt();
+        int wordCount = in.readInt();
+        if(index.height < 0 || wordCount < 0) {
+            throw new IOException("Corrupt payload index, height " + index.height + " and " + wordCount + " words.");
+        }
+        for(int w = 0; w < wordCount; w++) {
+            String word = in.readUTF();
+            int count = in.readInt();
+            if(count < 1) {
+                throw new IOException("Corrupt payload index, " + count + " locations for a word.");
+            }
+            Postings postings = new Postings();
+            postings.locations = new long[count];
+            for(int i = 0; i < count; i++) {
+                postings.locations[i] = in.readLong();
+            }
+            postings.count = count;
+            index.words.put(word, postings);
+        }
+        return index;
+    }
+
+    private long[] withWord(String word) {
+        Postings postings = words.get(word);
+        return postings == null ? new long[0] : Arrays.copyOf(postings.locations, postings.count);
+    }
+
+    private long[] withPrefix(String prefix) {
+        Map<String, Postings> matching = words.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        int total = 0;
+        for(Postings postings : matching.values()) {
+            total += postings.count;
+        }
+        long[] all = new long[total];
+        int n = 0;
+        for(Postings postings : matching.values()) {
+            System.arraycopy(postings.locations, 0, all, n, postings.count);
+            n += postings.count;
+        }
+        if(matching.size() > 1) {
+            // a payload can have several words with the prefix
+            Arrays.sort(all);
+            n = 0;
+            for(int i = 0; i < all.length; i++) {
+                if(i == 0 || all[i] != all[i - 1]) {
+                    all[n++] = all[i];
+                }
+            }
+        }
+        return n == all.length ? all : Arrays.copyOf(all, n);
+    }
+
+    /** @return the locations in both, which are sorted. {@code fewer} is searched for in {@code more}. */
+    private static long[] intersect(long[] fewer, long[] more) {
+        long[] both = new long[fewer.length];
+        int n = 0;
+        int from = 0;
+        for(long location : fewer) {
+            int i = Arrays.binarySearch(more, from, more.length, location);
+            if(i >= 0) {
+                both[n++] = location;
+                from = i + 1;
+            } else {
+                from = -i - 1;
+            }
+            if(from >= more.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(both, n);
+    }
+}
@@ -0,0 +1,149 @@
+package edu.marist.jointstudy.essence.core.structures;
+
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Maps signers to where their transactions are in a blockchain, oldest first: the height of each one's block and
+ * its offset in that block's transactions.
+ *
+ * <p>A signer is the first 8 bytes of the SHA-256 hash of its public key (see
+ * {@link Transaction#getPublicKeyHash()}), so every signer takes the same room however long its key is. Open
+ * addressing over primitive arrays like {@link TransactionIndex}, with each signer's locations in one growing
+ * array, so a page of them is found without going through the ones before it.</p>
+ *
+ * <p>Blocks are indexed from the genesis block up, one at a time.</p>
+ */
+final class SignerIndex {
+
+    private static final int INITIAL_CAPACITY = 64; // a power of two
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[][] locations = new long[INITIAL_CAPACITY][];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private boolean[] used = new boolean[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /** The number of blocks indexed. */
+    private int height = 0;
+
+    /** @return the signer the public key hash is indexed under. */
+    static long signer(Hashcode publicKeyHash) {
+        return ByteBuffer.wrap(publicKeyHash.toByteArray()).getLong();
+    }
+
+    /**
+     * Indexes the transactions of the next block.
+     * @param block the block at height {@code height()}.
+     */
+    void add(Block block) {
+        List<Transaction> txs = block.getTransactions();
+        for(int offset = 0; offset < txs.size(); offset++) {
+            Hashcode keyHash = txs.get(offset).getPublicKeyHash();
+            if(keyHash != null) {
+                put(signer(keyHash), ((long) height << 32) | (offset & 0xFFFFFFFFL));
+            }
+        }
+        height++;
+    }
+
+    /** @return the number of blocks indexed, from the genesis block up. */
+    int height() {
+        return height;
+    }
+
+    /** @return the number of transactions the signer signed. */
+    int count(long signer) {
+        int i = find(signer);
+        return used[i] ? counts[i] : 0;
+    }
+
+    /**
+     * @return the locations of the signer's transactions from the {@code from}th oldest, at most {@code limit} of
+     * them, packed as {@code height << 32 | offset} (see {@link TransactionIndex#height(long)}).
+     */
+    long[] page(long signer, int from, int limit) {
+        int i = find(signer);
+        if(!used[i] || from >= counts[i]) {
+            return new long[0];
+        }
+        return Arrays.copyOfRange(locations[i], from, (int) Math.min(counts[i], (long) from + limit));
+    }
+
+    SignerIndex copy() {
+        SignerIndex copy = new SignerIndex();
+        copy.keys = keys.clone();
+        copy.locations = new long[locations.length][];
+        for(int i = 0; i < locations.length; i++) {
+            // the arrays are appended to in place, so they can't be shared
+            copy.locations[i] = used[i] ? Arrays.copyOf(locations[i], counts[i]) : null;
+        }
+        copy.counts = counts.clone();
+        copy.used = used.clone();
+        copy.size = size;
+        copy.height = height;
+        return copy;
+    }
+
+    void clear() {
+        Arrays.fill(used, false);
+        Arrays.fill(locations, null);
+        size = 0;
+        height = 0;
+    }
+
+    private void put(long signer, long location) {
+        if(2 * (size + 1) > keys.length) {
+            grow();
+        }
+        int i = find(signer);
+        if(!used[i]) {
+            used[i] = true;
+            keys[i] = signer;
+            locations[i] = new long[4];
+            counts[i] = 0;
+            size++;
+        }
+        if(counts[i] == locations[i].length) {
+            locations[i] = Arrays.copyOf(locations[i], 2 * counts[i]);
+        }
+        locations[i][counts[i]++] = location;
+    }
+
+    /** @return the slot the signer is in, or the empty slot it would go in. */
+    private int find(long signer) {
+        int i = slot(signer, keys.length);
+        while(used[i] && keys[i] != signer) {
+            i = (i + 1) & (keys.length - 1);
+        }
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[][] oldLocations = locations;
+        int[] oldCounts = counts;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        locations = new long[oldKeys.length * 2][];
+        counts = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        for(int old = 0; old < oldKeys.length; old++) {
+            if(oldUsed[old]) {
+                int i = find(oldKeys[old]);
+                used[i] = true;
+                keys[i] = oldKeys[old];
+                locations[i] = oldLocations[old];
+                counts[i] = oldCounts[old];
+            }
+        }
+    }
+
+    /** Signers are already hashes, so their low bits are spread out. */
+    private static int slot(long signer, int capacity) {
+        return (int) signer & (capacity - 1);
+    }
+}
@@ -1,10 +1,22 @@
 package edu.marist.jointstudy.essence.core.structures;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import edu.marist.jointstudy.essence.core.hash.HashFunction;
 import edu.marist.jointstudy.essence.core.hash.Hashable;
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
 import edu.marist.jointstudy.essence.core.security.Security;
+import edu.marist.jointstudy.essence.core.security.SignatureScheme;
+import edu.marist.jointstudy.essence.core.security.Verifier;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
+import java.util.Optional;
 
 /**
  * TODO: include id in signature
@@ -17,6 +29,9 @@ public class Transaction implements Hashable, Identifiable {
     private String publicKey; // the public key of the peer that signed this transaction
     private String signature; // the signature of the transaction, that the public key created with the paylod
     private String payload; // the body of the transaction
+    // the tag of the SignatureScheme that signed this transaction, null for DSA (from before schemes), left out of json
+    @JsonAdapter(value = OmittedIfNull.class, nullSafe = false)
+    private String scheme;
 
     /**
      * <b>Should only be used for parsing.</b>
@@ -46,6 +61,18 @@ public class Transaction implements Hashable, Identifiable {
         return new Transaction(payload, publicKey, signature, id);
     }
 
+    /**
+     * <b>Should only be used for parsing.</b>
+     * <p>Creates an unsafe transaction signed with the given scheme, see {@code wrapUnsafe()}.</p>
+     * @param scheme the tag of the scheme the transaction says it was signed with, null for DSA.
+     * @return an unsafe, existing transaction, with no guarantee of validity.
+     */
+    public static Transaction wrapUnsafe(String payload, String publicKey, String signature, String scheme, int id) {
+        Transaction t = new Transaction(payload, publicKey, signature, id);
+        t.scheme = scheme;
+        return t;
+    }
+
     /**
      * Creates a new transaction. New transactions are guaranteed to be verified.
      *
@@ -78,6 +105,9 @@ public class Transaction implements Hashable, Identifiable {
     private Transaction(String payload) {
         this.setPayload(payload);
         this.publicKey = Security.INSTANCE.getPublicKeyHexadecimal();
+        // DSA transactions aren't tagged, so they're the same as ones from before there were schemes
+        SignatureScheme signedWith = Security.INSTANCE.getScheme();
+        this.scheme = signedWith == SignatureScheme.DSA ? null : signedWith.getTag();
         try {
             this.signature = Security.INSTANCE.sign(payload);
         } catch (Exception e) {
@@ -85,16 +115,14 @@ public class Transaction implements Hashable, Identifiable {
         }
     }
 
-    /** @return true iff the public key of this transaction signed its payload to create its signature. */
+    /**
+     * @return true iff the public key of this transaction signed its payload to create its signature. Transactions
+     * with the same payload, public key and signature are only verified once.
+     */
     public boolean isVerified() {
-        try {
-            return Security.INSTANCE.isVerified(this.getPayload(), this.getPublicKey(), this.getSignature());
-        } catch (IllegalArgumentException iae) {
-            return false; // not the right length, can ignore
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false; // better be safe than sorry
-        }
+        Optional<SignatureScheme> signedWith = SignatureScheme.fromTag(this.scheme);
+        return signedWith.isPresent() &&
+                Verifier.INSTANCE.isVerified(signedWith.get(), this.getPayload(), this.getPublicKey(), this.getSignature());
     }
 
     public int getId() {
@@ -105,6 +133,13 @@ public class Transaction implements Hashable, Identifiable {
         this.id = id;
     }
 
+    /** @return a copy of this transaction with another id, this one is left as it is. */
+    Transaction withId(int id) {
+        Transaction copy = new Transaction(payload, publicKey, signature, id);
+        copy.scheme = scheme;
+        return copy;
+    }
+
     /** @return hexadecimal String representation of this transaction's signature. */
     public String getSignature() {
         return signature;
@@ -119,21 +154,41 @@ public class Transaction implements Hashable, Identifiable {
         return publicKey;
     }
 
+    /**
+     * @return the SHA-256 hash of the UTF-8 bytes of this transaction's public key, which identifies its signer with
+     * a fixed width. Null if the transaction has no public key.
+     */
+    public Hashcode getPublicKeyHash() {
+        if(publicKey == null) {
+            return null;
+        }
+        byte[] key = publicKey.getBytes(StandardCharsets.UTF_8);
+        return HashFunction.SHA_256.hash(() -> key);
+    }
+
+    /** @return the tag of the scheme this transaction was signed with, null for DSA. */
+    public String getScheme() {
+        return scheme;
+    }
+
     public void setPayload(String payload) {
         this.payload = payload;
     }
 
     @Override
     public byte[] toByteArray() {
+        // untagged (DSA) transactions hash the same as they did before there were schemes
         return ByteBuffer.allocate(
                 Integer.BYTES +
                         payload.getBytes().length +
                         (Objects.nonNull(signature) ? signature.getBytes().length : 0) +
-                        (Objects.nonNull(publicKey) ? publicKey.getBytes().length : 0))
+                        (Objects.nonNull(publicKey) ? publicKey.getBytes().length : 0) +
+                        (Objects.nonNull(scheme) ? scheme.getBytes().length : 0))
                 .putInt(id)
                 .put(payload.getBytes())
                 .put(Objects.nonNull(signature) ? signature.getBytes() : new byte[0])
                 .put(Objects.nonNull(publicKey) ? publicKey.getBytes() : new byte[0])
+                .put(Objects.nonNull(scheme) ? scheme.getBytes() : new byte[0])
                 .array();
     }
 
@@ -155,6 +210,31 @@ public class Transaction implements Hashable, Identifiable {
         return (this.getId() == tx.getId()) &&
                 (this.getPayload().equals(tx.getPayload())) &&
                 (this.getPublicKey().equals(tx.getPublicKey()) &&
-                (this.getSignature().equals(tx.getSignature())));
+                (this.getSignature().equals(tx.getSignature()))) &&
+                Objects.equals(this.scheme, tx.scheme);
+    }
+
+    /** Writes a string field, or leaves the field out if it's null, even if gson writes nulls. */
+    private static final class OmittedIfNull extends TypeAdapter<String> {
+        @Override
+        public void write(JsonWriter out, String value) throws IOException {
+            if(value == null) {
+                boolean serializeNulls = out.getSerializeNulls();
+                out.setSerializeNulls(false); // drops the field's name too
+                out.nullValue();
+                out.setSerializeNulls(serializeNulls);
+            } else {
+                out.value(value);
+            }
+        }
+
+        @Override
+        public String read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return in.nextString();
+        }
     }
 }
@@ -0,0 +1,103 @@
+package edu.marist.jointstudy.essence.core.structures;
+
+import java.util.Arrays;
+
+/**
+ * <p>Maps transaction ids to where the transaction is in a blockchain: the height of its block and its offset in that
+ * block's transactions.
+ *
+ * <p>Open addressing over primitive arrays, so an index of millions of transactions is a few flat arrays instead of
+ * millions of boxed map entries. Putting an id that's already there replaces its location.</p>
+ */
+final class TransactionIndex {
+
+    /** Returned by {@code get()} for ids that aren't in the index. */
+    static final long ABSENT = -1L;
+
+    private static final int INITIAL_CAPACITY = 64; // a power of two
+
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private boolean[] used = new boolean[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * @param id the transaction's id.
+     * @param height the height of the block the transaction is in.
+     * @param offset where the transaction is in its block's transactions.
+     */
+    void put(int id, int height, int offset) {
+        if(2 * (size + 1) > keys.length) {
+            grow();
+        }
+        insert(id, ((long) height << 32) | (offset & 0xFFFFFFFFL));
+    }
+
+    /** @return the location of the transaction packed as {@code height << 32 | offset}, {@code ABSENT} if unknown. */
+    long get(int id) {
+        for(int i = slot(id, keys.length); used[i]; i = (i + 1) & (keys.length - 1)) {
+            if(keys[i] == id) {
+                return values[i];
+            }
+        }
+        return ABSENT;
+    }
+
+    static int height(long location) {
+        return (int) (location >>> 32);
+    }
+
+    static int offset(long location) {
+        return (int) location;
+    }
+
+    TransactionIndex copy() {
+        TransactionIndex copy = new TransactionIndex();
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.used = used.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void insert(int id, long location) {
+        int i = slot(id, keys.length);
+        while(used[i]) {
+            if(keys[i] == id) {
+                values[i] = location;
+                return;
+            }
+            i = (i + 1) & (keys.length - 1);
+        }
+        used[i] = true;
+        keys[i] = id;
+        values[i] = location;
+        size++;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        size = 0;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldUsed[i]) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /** Spreads consecutive ids (the common case) over the table. */
+    private static int slot(int id, int capacity) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (capacity - 1);
+    }
+}
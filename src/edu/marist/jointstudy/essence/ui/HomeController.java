@@ -9,6 +9,7 @@ import edu.marist.jointstudy.essence.api.server.APIConstants;
 import edu.marist.jointstudy.essence.api.store.Preferences;
 import edu.marist.jointstudy.essence.core.hash.Hashcode;
 import edu.marist.jointstudy.essence.core.structures.Block;
+import edu.marist.jointstudy.essence.core.structures.Mempool;
 import edu.marist.jointstudy.essence.core.structures.Transaction;
 import javafx.application.Platform;
 import javafx.beans.property.*;
@@ -48,6 +49,9 @@ public class HomeController {
     @FXML private Button requestMiningButton;
 
     // Blockchain table
+    /** The most blocks the table shows, the newest ones, so a long blockchain isn't copied every refresh. */
+    private static final int LATEST_BLOCKS = 50;
+
     @FXML private TableView<Block> blockchainTableView;
     @FXML private TableColumn<Block, Integer> blockIdColumn;
     @FXML private TableColumn<Block, String> hashColumn;
@@ -252,7 +256,8 @@ public class HomeController {
     }
 
     private void refreshBlockchain() {
-        Platform.runLater(() -> blockchainTableView.setItems(new ObservableListWrapper<>(peer.blocks())));
+        Platform.runLater(() ->
+                blockchainTableView.setItems(new ObservableListWrapper<>(peer.latestBlocks(LATEST_BLOCKS))));
     }
 
     @FXML private void onToggleServer(ActionEvent ae) {
@@ -270,7 +275,12 @@ public class HomeController {
         Dialog<Transaction> d = Dialogs.createTransaction();
 
         d.showAndWait().ifPresent((transaction) -> {
-            peer.submitTransactionToBuffer(transaction);
+            Mempool.Offer offer = peer.submitTransactionToBuffer(transaction);
+            if(offer == Mempool.Offer.FULL) {
+                Helpers.makeToast(toastLabel, "The buffer is full, mine it first.", 2);
+            } else if(offer == Mempool.Offer.DUPLICATE) {
+                Helpers.makeToast(toastLabel, "That transaction is already in the buffer.", 2);
+            }
             refreshTxBuffer();
         });
     }
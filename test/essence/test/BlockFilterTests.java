@@ -0,0 +1,55 @@
+package essence.test;
+
+import edu.marist.jointstudy.essence.core.structures.BlockFilter;
+import edu.marist.jointstudy.essence.core.structures.Transaction;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockFilterTests {
+
+    private static List<Transaction> transactions(int count) {
+        List<Transaction> txs = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            txs.add(Transaction.wrapUnsafe("payload" + i, "key" + (i % 10), "sig" + i, i));
+        }
+        return txs;
+    }
+
+    @Test
+    void hasEveryTransaction() {
+        List<Transaction> txs = transactions(500);
+        BlockFilter filter = BlockFilter.of(txs);
+        for(Transaction t : txs) {
+            assertTrue(filter.mightHaveTransaction(t.getId()));
+            assertTrue(filter.mightHavePublicKey(t.getPublicKey()));
+            assertTrue(filter.mightHavePayload(t.getPayload()));
+        }
+    }
+
+    @Test
+    void rarelyHasOtherTransactions() {
+        BlockFilter filter = BlockFilter.of(transactions(500));
+        int falsePositives = 0;
+        for(int i = 500; i < 10_500; i++) {
+            if(filter.mightHaveTransaction(i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 300, falsePositives + " false positives in 10000");
+        // a payload isn't mistaken for a public key with the same text
+        assertFalse(filter.mightHavePublicKey("payload0") && filter.mightHavePublicKey("payload1"));
+    }
+
+    @Test
+    void readsBackTheSame() {
+        BlockFilter filter = BlockFilter.of(transactions(20));
+        BlockFilter read = BlockFilter.fromByteArray(filter.toByteArray());
+        assertArrayEquals(filter.toByteArray(), read.toByteArray());
+        assertTrue(read.mightHavePayload("payload7"));
+        assertThrows(IllegalArgumentException.class, () -> BlockFilter.fromByteArray(new byte[3]));
+    }
+}
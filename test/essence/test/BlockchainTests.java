@@ -1,16 +1,32 @@
 package essence.test;
 
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+import edu.marist.jointstudy.essence.core.mine.Mining;
+import edu.marist.jointstudy.essence.core.structures.Block;
 import edu.marist.jointstudy.essence.core.structures.Blockchain;
+import edu.marist.jointstudy.essence.core.structures.Transaction;
 import essence.test.util.Generate;
 import org.junit.jupiter.api.*;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
 import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class BlockchainTests {
 
-    private Blockchain bc = new Blockchain();
+    private Blockchain bc = new Blockchain(Generate.fixedClock());
 
     @Nested
     @DisplayName("Empty (just created)")
@@ -58,7 +74,7 @@ public class BlockchainTests {
 
         @Test
         void expectedHash() {
-            assertEquals("000c82d62127b10120494a4eb38908b4abfa819e8071f4e7e5a346f525d2cddb",
+            assertEquals("000ea9012a458409f18a33bbbadd288ff006d2d99cfd92248737f9b3b8b0ddf1",
                     bc.getCurrentBlock().getHash().toString());
         }
 
@@ -96,7 +112,7 @@ public class BlockchainTests {
 
         @Test
         void expectedHash() {
-            assertEquals("000be659874ac33e21aff7b5126907860447f177321f7a289fc0972ae5a7cd3a",
+            assertEquals("000bfa4980cb2acd821226d829a9e2dc3512cc18dd237af5e3e7720d0a7f2bf4",
                     bc.getCurrentBlock().getHash().toString());
         }
 
@@ -106,6 +122,42 @@ public class BlockchainTests {
             assertEquals(3, bc.getLastTransactionId().getAsInt());
         }
 
+        @Test
+        void size() {
+            assertEquals(2, bc.size());
+        }
+
+        @Test
+        void getBlockByHeight() {
+            assertSame(bc.getCurrentBlock().getPreviousBlock(), bc.getBlock(0).get());
+            assertSame(bc.getCurrentBlock(), bc.getBlock(1).get());
+            assertFalse(bc.getBlock(2).isPresent());
+            assertFalse(bc.getBlock(-1).isPresent());
+        }
+
+        @Test
+        void findTransaction() {
+            assertEquals(2, bc.findTransaction(2).get().getId());
+            assertSame(bc.getCurrentBlock().getTransactions().get(1), bc.findTransaction(2).get());
+            assertFalse(bc.findTransaction(4).isPresent());
+        }
+
+        @Test
+        void addingToACopyLeavesTheOriginal() {
+            Blockchain copy = bc.copy();
+            copy.add(Generate.singleTransactionList());
+            assertEquals(3, copy.size());
+            assertEquals(2, bc.size());
+            assertTrue(copy.findTransaction(4).isPresent());
+            assertFalse(bc.findTransaction(4).isPresent());
+        }
+
+        @Test
+        void findTransactionWithBlockId() {
+            assertEquals(0, bc.findTransactionWithBlockId(0, 0).get().getId());
+            assertFalse(bc.findTransactionWithBlockId(0, 1).isPresent());
+        }
+
     }
 
     @Nested
@@ -124,5 +176,232 @@ public class BlockchainTests {
             int newLastTxId = bc.getLastTransactionId().getAsInt();
             assertNotEquals(oldLastTxId, newLastTxId);
         }
+
+        @Test
+        void addingLeavesTheGivenTransactionsAsTheyWere() {
+            List<Transaction> txs = Generate.singleTransactionListWithId(7);
+            bc.add(txs);
+            assertEquals(7, txs.get(0).getId());
+            assertEquals(2, bc.getLastTransactionId().getAsInt());
+        }
+
+        @Test
+        void addingRefusesABlockMinedOnAReplacedCurrentBlock() {
+            AtomicBoolean raced = new AtomicBoolean();
+            AtomicLong ticks = new AtomicLong();
+            Blockchain[] racing = new Blockchain[1];
+            Clock clock = new Clock() {
+                @Override
+                public ZoneId getZone() {
+                    return ZoneOffset.UTC;
+                }
+
+                @Override
+                public Clock withZone(ZoneId zone) {
+                    return this;
+                }
+
+                @Override
+                public Instant instant() {
+                    // read while the first block is being mined, so another block gets in first
+                    if(!raced.getAndSet(true)) {
+                        racing[0].add(Generate.singleTransactionList());
+                    }
+                    return Instant.ofEpochSecond(ticks.incrementAndGet());
+                }
+            };
+            racing[0] = new Blockchain(clock);
+            List<Transaction> txs = Generate.singleTransactionList();
+            assertThrows(ConcurrentModificationException.class, () -> racing[0].add(txs));
+            assertEquals(1, racing[0].size());
+        }
+    }
+
+    @Nested
+    @DisplayName("Appending blocks mined elsewhere")
+    class Append {
+        private Blockchain mined = new Blockchain();
+
+        @BeforeEach
+        void mineTwoSignedBlocks() {
+            mined.add(Collections.singletonList(Transaction.newTransaction("Hello")));
+            mined.add(Collections.singletonList(Transaction.newTransaction("World")));
+        }
+
+        @Test
+        void appendFollowingBlock() {
+            Blockchain prefix = Blockchain.newUnsafeBlockchain(mined.getBlock(0).get());
+            prefix.append(mined.getCurrentBlock());
+            assertEquals(2, prefix.size());
+            assertSame(mined.getCurrentBlock(), prefix.getCurrentBlock());
+            assertTrue(prefix.findTransaction(1).isPresent());
+        }
+
+        @Test
+        void appendRejectsBlockNotFollowingCurrentBlock() {
+            Block current = mined.getCurrentBlock();
+            assertThrows(IllegalArgumentException.class, () -> mined.append(current));
+            assertEquals(2, mined.size());
+            assertSame(current, mined.getCurrentBlock());
+        }
+
+        @Test
+        void appendRejectsTimestampNotAfterMedianOfPreviousBlocks() {
+            Blockchain prefix = Blockchain.newUnsafeBlockchain(mined.getBlock(0).get());
+            long median = mined.getBlock(0).get().getTimestamp();
+            assertThrows(IllegalArgumentException.class, () -> prefix.append(following(prefix, median)));
+            prefix.append(following(prefix, median + 1));
+            assertEquals(2, prefix.size());
+        }
+
+        @Test
+        void appendRejectsTimestampTooFarAhead() {
+            long now = System.currentTimeMillis();
+            Blockchain prefix = Blockchain.newUnsafeBlockchain(mined.getBlock(0).get());
+            assertThrows(IllegalArgumentException.class,
+                    () -> prefix.append(following(prefix, now + TimeUnit.HOURS.toMillis(3))));
+            prefix.append(following(prefix, now + TimeUnit.HOURS.toMillis(1)));
+            assertEquals(2, prefix.size());
+        }
+
+        @Test
+        void appendRejectsLegacyBlockAfterVersionedBlock() {
+            Blockchain prefix = Blockchain.newUnsafeBlockchain(mined.getBlock(0).get());
+            Block versioned = following(prefix, System.currentTimeMillis());
+            Block legacy = Block.newUnsafeBlock(versioned.getTransactions(), versioned.getPreviousBlock(),
+                    versioned.getNonce(), 0, versioned.getDifficulty(), versioned.getTimestamp());
+            assertThrows(IllegalArgumentException.class, () -> prefix.append(legacy));
+            assertEquals(1, prefix.size());
+        }
+
+        @Test
+        void appendAllAppendsFollowingBlocksInPlace() {
+            Blockchain prefix = Blockchain.newUnsafeBlockchain(mined.getBlock(0).get());
+            assertTrue(prefix.appendAll(Collections.singletonList(mined.getCurrentBlock())));
+            assertEquals(2, prefix.size());
+            assertSame(mined.getCurrentBlock(), prefix.getCurrentBlock());
+            assertTrue(prefix.findTransaction(1).isPresent());
+        }
+
+        @Test
+        void appendAllAppendsNoneIfOneIsInvalid() {
+            Blockchain genesis = Blockchain.newUnsafeBlockchain(mined.getBlock(0).get());
+            Blockchain empty = new Blockchain();
+            List<Block> outOfOrder = Arrays.asList(mined.getCurrentBlock(), mined.getBlock(0).get());
+            assertThrows(IllegalArgumentException.class, () -> empty.appendAll(outOfOrder));
+            assertNull(empty.getCurrentBlock());
+            assertThrows(IllegalArgumentException.class,
+                    () -> genesis.appendAll(Arrays.asList(mined.getCurrentBlock(), mined.getCurrentBlock())));
+            assertEquals(1, genesis.size());
+        }
+
+        @Test
+        void appendAllRejectsBlocksNotFollowingTheCurrentBlock() {
+            Blockchain prefix = Blockchain.newUnsafeBlockchain(mined.getBlock(0).get());
+            Block theirs = mined.getCurrentBlock();
+            prefix.append(following(prefix, System.currentTimeMillis()));
+            assertThrows(IllegalArgumentException.class, () -> prefix.appendAll(Collections.singletonList(theirs)));
+            assertEquals(2, prefix.size());
+        }
+
+        /** @return a block mined onto bc's current block with the given timestamp. */
+        private Block following(Blockchain bc, long timestamp) {
+            Transaction signed = Transaction.newTransaction("Again");
+            Transaction numbered = Transaction.wrapUnsafe(signed.getPayload(), signed.getPublicKey(),
+                    signed.getSignature(), signed.getScheme(), bc.getLastTransactionId().getAsInt() + 1);
+            return Block.newBlock(Collections.singletonList(numbered), bc.getCurrentBlock(), bc.getNextDifficulty(),
+                    timestamp, Mining.miner);
+        }
+
+        @Test
+        void appendRejectsUnverifiedBlock() {
+            bc.add(Generate.singleTransactionList());
+            Blockchain prefix = new Blockchain();
+            assertThrows(IllegalArgumentException.class, () -> prefix.append(bc.getCurrentBlock()));
+            assertNull(prefix.getCurrentBlock());
+        }
+    }
+
+    @Nested
+    @DisplayName("Paging through blocks and transactions")
+    class Pages {
+        @BeforeEach
+        void addBlocks() {
+            bc.add(Generate.twoTransactionListWithIds(0, 1));
+            bc.add(Generate.singleTransactionList());
+            bc.add(Generate.threeTransactionList());
+        }
+
+        @Test
+        void getsARangeOfBlocks() {
+            List<Block> blocks = bc.getBlocks(1, 3);
+            assertEquals(Arrays.asList(1, 2), blocks.stream().map(Block::getId).collect(Collectors.toList()));
+            assertEquals(3, bc.getBlocks(-5, 100).size());
+            assertTrue(bc.getBlocks(2, 1).isEmpty());
+        }
+
+        @Test
+        void pagesForwardAndBackAcrossBlocks() {
+            assertEquals(Arrays.asList(2, 3, 4), ids(bc.getTransactionsAfter(1, 3).get()));
+            assertEquals(Collections.singletonList(5), ids(bc.getTransactionsAfter(4, 10).get()));
+            assertTrue(bc.getTransactionsAfter(5, 10).get().isEmpty());
+            assertEquals(Arrays.asList(1, 2, 3), ids(bc.getTransactionsBefore(4, 3).get()));
+            assertTrue(bc.getTransactionsBefore(0, 3).get().isEmpty());
+            assertFalse(bc.getTransactionsAfter(6, 3).isPresent());
+            assertFalse(bc.getTransactionsBefore(6, 3).isPresent());
+        }
+
+        @Test
+        void getsTheNewestTransactions() {
+            assertEquals(Arrays.asList(2, 3, 4, 5), ids(bc.getLatestTransactions(4)));
+            assertEquals(6, bc.getLatestTransactions(100).size());
+            assertTrue(new Blockchain().getLatestTransactions(10).isEmpty());
+        }
+
+        private List<Integer> ids(List<Transaction> txs) {
+            return txs.stream().map(Transaction::getId).collect(Collectors.toList());
+        }
+    }
+
+    @Nested
+    @DisplayName("Transactions by signer")
+    class Signers {
+        private Transaction signed(String payload, String key) {
+            return Transaction.wrapUnsafeNoId(payload, key, "sig-" + payload);
+        }
+
+        @Test
+        void findsASignersTransactionsOldestFirst() {
+            bc.add(Arrays.asList(signed("a0", "alice"), signed("b0", "bob")));
+            bc.add(Arrays.asList(signed("a1", "alice"), signed("a2", "alice")));
+            Hashcode alice = signed("", "alice").getPublicKeyHash();
+            assertEquals(3, bc.countTransactionsSignedBy(alice));
+            assertEquals(Arrays.asList(0, 2, 3), ids(bc.findTransactionsSignedBy(alice, 0, 10)));
+            assertEquals(Collections.singletonList(2), ids(bc.findTransactionsSignedBy(alice, 1, 1)));
+            assertEquals(0, bc.countTransactionsSignedBy(signed("", "carol").getPublicKeyHash()));
+
+            // kept up to date as blocks are added, and copies don't share it
+            Blockchain copy = bc.copy();
+            bc.add(Collections.singletonList(signed("a3", "alice")));
+            assertEquals(4, bc.countTransactionsSignedBy(alice));
+            assertEquals(3, copy.countTransactionsSignedBy(alice));
+        }
+
+        @Test
+        void indexesTheBlocksItWasCreatedWith() {
+            bc.add(Collections.singletonList(signed("a0", "alice")));
+            Hashcode alice = signed("", "alice").getPublicKeyHash();
+            assertEquals(1, bc.countTransactionsSignedBy(alice));
+
+            Blockchain theirs = new Blockchain();
+            theirs.add(Collections.singletonList(signed("b0", "bob")));
+            Blockchain replaced = Blockchain.newUnsafeBlockchain(theirs.getCurrentBlock());
+            assertEquals(0, replaced.countTransactionsSignedBy(alice));
+            assertEquals(1, replaced.countTransactionsSignedBy(signed("", "bob").getPublicKeyHash()));
+        }
+
+        private List<Integer> ids(List<Transaction> txs) {
+            return txs.stream().map(Transaction::getId).collect(Collectors.toList());
+        }
     }
 }
@@ -1,15 +1,18 @@
 package essence.test;
 
+import edu.marist.jointstudy.essence.core.mine.Mining;
 import edu.marist.jointstudy.essence.core.structures.Block;
 import essence.test.util.Generate;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class GenesisBlockTests {
-    private Block b = Block.newBlock(Generate.singleTransactionList(), null);
+    private Block b = Block.newBlock(Generate.singleTransactionList(), null, Mining.initialDifficulty,
+            Generate.fixedClock().millis(), Mining.miner);
 
     @Test
     void isMined() {
@@ -18,7 +21,7 @@ public class GenesisBlockTests {
 
     @Test
     void hasExpectedHash() {
-        assertEquals("000c82d62127b10120494a4eb38908b4abfa819e8071f4e7e5a346f525d2cddb",
+        assertEquals("000ea9012a458409f18a33bbbadd288ff006d2d99cfd92248737f9b3b8b0ddf1",
                 b.getHash().toString(),
                 "Genesis block's hash is not the expected hash value.");
     }
@@ -33,4 +36,21 @@ public class GenesisBlockTests {
         assertEquals(b.getId(), 0, "Genesis block's id is not 0.");
     }
 
+    @Test
+    void hashCommitsToDifficultyAndTimestamp() {
+        Block later = Block.newUnsafeBlock(b.getTransactions(), null, b.getNonce(), b.getHeaderVersion(),
+                b.getDifficulty(), b.getTimestamp() + 1);
+        Block easier = Block.newUnsafeBlock(b.getTransactions(), null, b.getNonce(), b.getHeaderVersion(),
+                b.getDifficulty() - 1, b.getTimestamp());
+        assertNotEquals(b.getHash().toString(), later.getHash().toString());
+        assertNotEquals(b.getHash().toString(), easier.getHash().toString());
+
+        // legacy blocks keep the hashes they were mined with
+        Block legacy = Block.newUnsafeBlock(b.getTransactions(), null, b.getNonce(), 0, b.getDifficulty(),
+                b.getTimestamp());
+        Block legacyLater = Block.newUnsafeBlock(b.getTransactions(), null, b.getNonce(), 0, b.getDifficulty(),
+                b.getTimestamp() + 1);
+        assertEquals(legacy.getHash().toString(), legacyLater.getHash().toString());
+    }
+
 }
@@ -2,8 +2,12 @@ package essence.test;
 
 import edu.marist.jointstudy.essence.core.hash.HashFunction;
 import edu.marist.jointstudy.essence.core.hash.Hashable;
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+import edu.marist.jointstudy.essence.core.mine.HeaderHasher;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class HashingTests {
@@ -20,4 +24,15 @@ public class HashingTests {
                 }).toString());
     }
 
+    @Test
+    void headerHasherMatchesWholeHash() {
+        byte[] prefix = "hello ".getBytes();
+        HeaderHasher hasher = new HeaderHasher(prefix).forWorker();
+        for(long nonce : new long[] {0, 1, 8101, Long.MAX_VALUE}) {
+            byte[] whole = ByteBuffer.allocate(prefix.length + Long.BYTES).put(prefix).putLong(nonce).array();
+            assertEquals(HashFunction.SHA_256.hash(() -> whole).toString(),
+                    Hashcode.SHA256.wrap(hasher.hash(nonce).clone()).toString());
+        }
+    }
+
 }
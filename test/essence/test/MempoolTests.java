@@ -0,0 +1,113 @@
+package essence.test;
+
+import edu.marist.jointstudy.essence.core.structures.Mempool;
+import edu.marist.jointstudy.essence.core.structures.Transaction;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MempoolTests {
+
+    private static Transaction tx(String signature) {
+        return Transaction.wrapUnsafeNoId("Hello", "World", signature);
+    }
+
+    @Test
+    void offeredTransactionsGetConsecutiveIds() {
+        Mempool pool = new Mempool(10, 5);
+        assertEquals(Mempool.Offer.ADDED, pool.offer(tx("a")));
+        assertEquals(Mempool.Offer.ADDED, pool.offer(tx("b")));
+        List<Transaction> txs = pool.snapshot();
+        assertEquals(5, txs.get(0).getId());
+        assertEquals(6, txs.get(1).getId());
+    }
+
+    @Test
+    void fullPoolRefusesTransactions() {
+        Mempool pool = new Mempool(1, 0);
+        pool.offer(tx("a"));
+        assertEquals(Mempool.Offer.FULL, pool.offer(tx("b")));
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    void sameSignatureIsRefusedUntilMined() {
+        Mempool pool = new Mempool(10, 0);
+        pool.offer(tx("a"));
+        assertEquals(Mempool.Offer.DUPLICATE, pool.offer(tx("a")));
+        pool.remove(pool.snapshot());
+        assertTrue(pool.isEmpty());
+        assertEquals(Mempool.Offer.ADDED, pool.offer(tx("a")));
+    }
+
+    @Test
+    void batchesAreAddedWholeOrNotAtAll() {
+        Mempool pool = new Mempool(3, 0);
+        pool.offer(tx("a"));
+        assertEquals(Mempool.Offer.FULL, pool.offerAll(Arrays.asList(tx("b"), tx("c"), tx("d"))));
+        assertEquals(Mempool.Offer.DUPLICATE, pool.offerAll(Arrays.asList(tx("b"), tx("a"))));
+        assertEquals(Mempool.Offer.DUPLICATE, pool.offerAll(Arrays.asList(tx("b"), tx("b"))));
+        assertEquals(1, pool.size());
+
+        List<Transaction> batch = Arrays.asList(tx("b"), tx("c"));
+        assertEquals(Mempool.Offer.ADDED, pool.offerAll(batch));
+        assertEquals(1, batch.get(0).getId());
+        assertEquals(2, batch.get(1).getId());
+        assertEquals(3, pool.snapshot().size());
+
+        pool.remove(pool.snapshot().subList(0, 1));
+        assertEquals(Arrays.asList(batch.get(0), batch.get(1)), pool.snapshot());
+    }
+
+    @Test
+    void clearingGivesOutIdsAgain() {
+        Mempool pool = new Mempool(10, 3);
+        pool.offer(tx("a"));
+        pool.offer(tx("b"));
+        assertEquals(2, pool.clear(3).size());
+        assertEquals(0, pool.size());
+        pool.offer(tx("c"));
+        assertEquals(3, pool.snapshot().get(0).getId());
+    }
+
+    @Test
+    void concurrentOffersAreNeitherLostNorGivenTheSameId() throws InterruptedException {
+        Mempool pool = new Mempool(100_000, 0);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        for(int i = 0; i < 10_000; i++) {
+            String signature = "sig" + i;
+            threads.execute(() -> pool.offer(tx(signature)));
+        }
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(1, TimeUnit.MINUTES));
+        List<Transaction> txs = pool.snapshot();
+        assertEquals(10_000, txs.size());
+        assertEquals(10_000, pool.size());
+        Set<Integer> ids = txs.stream().map(Transaction::getId).collect(Collectors.toSet());
+        assertEquals(10_000, ids.size());
+        // queued in the order their ids were given out, which the blockchain relies on
+        for(int i = 0; i < txs.size(); i++) {
+            assertEquals(i, txs.get(i).getId());
+        }
+    }
+
+    @Test
+    void renumberingGivesWaitingTransactionsIdsFromTheGivenOne() {
+        Mempool pool = new Mempool(10, 3);
+        pool.offer(tx("a"));
+        pool.offerAll(Arrays.asList(tx("b"), tx("c")));
+        pool.renumber(7);
+        assertEquals(Arrays.asList(7, 8, 9), pool.snapshot().stream().map(Transaction::getId)
+                .collect(Collectors.toList()));
+        pool.offer(tx("d"));
+        assertEquals(10, pool.snapshot().get(3).getId());
+    }
+}
@@ -5,6 +5,7 @@ import edu.marist.jointstudy.essence.core.structures.Transaction;
 import essence.test.util.Generate;
 import org.junit.jupiter.api.*;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -234,4 +235,86 @@ public class MerkleTreeTests {
 
     }
 
+    @Nested
+    @DisplayName("Appending to a tree")
+    class Appending {
+        @Test
+        void hasTheSameRootAsATreeBuiltAtOnce() {
+            List<Transaction> txs = new ArrayList<>();
+            txs.add(Transaction.wrapUnsafe("tx0", "key", "sig0", 0));
+            tree = new MerkleTree<>(txs);
+            for(int i = 1; i < 70; i++) {
+                Transaction t = Transaction.wrapUnsafe("tx" + i, "key", "sig" + i, i);
+                txs.add(t);
+                tree.append(t);
+                if(i % 3 != 0) { // sometimes append a few before hashing
+                    assertEquals(new MerkleTree<>(txs).getMerkleRoot().toString(), tree.getMerkleRoot().toString());
+                }
+            }
+            assertEquals(70, tree.size());
+            assertEquals(new MerkleTree<>(txs).getMerkleRoot().toString(), tree.getRoot().calculateHash().toString());
+        }
+
+        @Test
+        void largeTreesDropTheirWindows() {
+            List<Transaction> txs = new ArrayList<>();
+            txs.add(Transaction.wrapUnsafe("tx0", "key", "sig0", 0));
+            tree = new MerkleTree<>(txs);
+            int size = MerkleTree.MAX_WINDOWED_LEAVES + 1000;
+            for(int i = 1; i < size; i++) {
+                Transaction t = Transaction.wrapUnsafe("tx" + i, "key", "sig" + i, i);
+                txs.add(t);
+                tree.append(t);
+                if(i == MerkleTree.MAX_WINDOWED_LEAVES - 1) {
+                    // O(n log n): a window of each power of two size ending at each leaf, leaves doubling as they grow
+                    long bound = 32L * 2 * MerkleTree.MAX_WINDOWED_LEAVES
+                            * (Integer.numberOfTrailingZeros(MerkleTree.MAX_WINDOWED_LEAVES) + 1);
+                    assertTrue(tree.hashBytes() <= bound, tree.hashBytes() + " > " + bound);
+                    assertEquals(new MerkleTree<>(txs).getMerkleRoot().toString(), tree.getMerkleRoot().toString());
+                }
+            }
+            assertEquals(new MerkleTree<>(txs).getMerkleRoot().toString(), tree.getMerkleRoot().toString());
+            assertEquals(new MerkleTree<>(txs).proof(size - 1).toString(), tree.proof(size - 1).toString());
+            // O(n): the leaves, with room to grow, and the levels above them
+            assertTrue(tree.hashBytes() <= 32L * 4 * size, tree.hashBytes() + " > " + 32L * 4 * size);
+        }
+    }
+
+    @Nested
+    class Proofs {
+        @Test
+        void proveEveryLeafAndNothingElse() {
+            List<Transaction> txs = new ArrayList<>();
+            for(int i = 0; i < 13; i++) {
+                txs.add(Transaction.wrapUnsafe("tx" + i, "key", "sig" + i, i));
+                tree = new MerkleTree<>(txs);
+                for(int leaf = 0; leaf < txs.size(); leaf++) {
+                    MerkleTree.Proof proof = tree.proof(leaf);
+                    assertTrue(MerkleTree.verify(txs.get(leaf), proof, tree.getMerkleRoot()));
+                    MerkleTree.Proof elsewhere = new MerkleTree.Proof((leaf + 1) % txs.size(), proof.getSize(),
+                            proof.getSiblings());
+                    assertEquals(txs.size() == 1, MerkleTree.verify(txs.get(leaf), elsewhere, tree.getMerkleRoot()));
+                }
+            }
+            Transaction other = Transaction.wrapUnsafe("other", "key", "sig", 0);
+            assertFalse(MerkleTree.verify(other, tree.proof(0), tree.getMerkleRoot()));
+            assertThrows(IndexOutOfBoundsException.class, () -> tree.proof(txs.size()));
+        }
+
+        @Test
+        void appendedTreesGiveTheSameProofs() {
+            List<Transaction> txs = new ArrayList<>();
+            txs.add(Transaction.wrapUnsafe("tx0", "key", "sig0", 0));
+            tree = new MerkleTree<>(txs);
+            for(int i = 1; i < 11; i++) {
+                Transaction t = Transaction.wrapUnsafe("tx" + i, "key", "sig" + i, i);
+                txs.add(t);
+                tree.append(t);
+            }
+            MerkleTree<Transaction> atOnce = new MerkleTree<>(txs);
+            for(int leaf = 0; leaf < txs.size(); leaf++) {
+                assertEquals(atOnce.proof(leaf).toString(), tree.proof(leaf).toString());
+            }
+        }
+    }
 }
@@ -0,0 +1,48 @@
+package essence.test;
+
+import edu.marist.jointstudy.essence.core.mine.Miner;
+import edu.marist.jointstudy.essence.core.structures.Block;
+import essence.test.util.Generate;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MinerTests {
+
+    private Miner miner = new Miner(4);
+
+    @Test
+    void findsLowestSolution() {
+        // solutions at 9000 and every multiple of 5000 above it, the lowest must win regardless of the threads
+        long nonce = miner.search(() -> (n) -> n == 9000 || (n > 9000 && n % 5000 == 0));
+        assertEquals(9000, nonce);
+    }
+
+    @Test
+    void sameBlockAsSingleThread() {
+        long timestamp = Generate.fixedClock().millis();
+        Block parallel = Block.newBlock(Generate.singleTransactionList(), null, 12, timestamp, miner);
+        Block single = Block.newBlock(Generate.singleTransactionList(), null, 12, timestamp, new Miner(1));
+        assertEquals(single.getNonce(), parallel.getNonce());
+        assertEquals("000ea9012a458409f18a33bbbadd288ff006d2d99cfd92248737f9b3b8b0ddf1",
+                parallel.getHash().toString());
+    }
+
+    @Test
+    void cancel() throws InterruptedException {
+        CompletableFuture<Long> neverSolved = CompletableFuture.supplyAsync(() -> miner.search(() -> (n) -> false));
+        Thread.sleep(50);
+        miner.cancel();
+        ExecutionException e = assertThrows(ExecutionException.class, neverSolved::get);
+        assertTrue(e.getCause() instanceof CancellationException);
+    }
+
+    @Test
+    void needsAThread() {
+        assertThrows(IllegalArgumentException.class, () -> new Miner(0));
+    }
+}
@@ -4,6 +4,7 @@ import edu.marist.jointstudy.essence.core.hash.Hashcode;
 import edu.marist.jointstudy.essence.core.mine.MiningFunction;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -51,4 +52,30 @@ public class MiningTests {
         Hashcode solution = Hashcode.SHA256.fromHex("0a13ac992b0c6053c5eed88049c95939798b299b88489b3fedc5fd13df06f0c1");
         assertFalse(MiningFunction.NUM_LEADING_ZEROS.isSolution(solution, difficulty));
     }
+
+    @Test
+    void oddDifficultyChecksHighNibble() {
+        Hashcode solution = Hashcode.SHA256.fromHex("000fac992b0c6053c5eed88049c95939798b299b88489b3fedc5fd13df06f0c1");
+        Hashcode nonSolution =
+                Hashcode.SHA256.fromHex("00f0ac992b0c6053c5eed88049c95939798b299b88489b3fedc5fd13df06f0c1");
+        assertTrue(MiningFunction.NUM_LEADING_ZEROS.isSolution(solution, 3));
+        assertFalse(MiningFunction.NUM_LEADING_ZEROS.isSolution(nonSolution, 3));
+    }
+
+    @Test
+    void rawBytesAgreeWithHashcode() {
+        Hashcode hash = Hashcode.SHA256.fromHex("0003ac992b0c6053c5eed88049c95939798b299b88489b3fedc5fd13df06f0c1");
+        for(int difficulty = -1; difficulty <= 65; difficulty++) {
+            assertEquals(MiningFunction.NUM_LEADING_ZEROS.isSolution(hash, difficulty),
+                    MiningFunction.NUM_LEADING_ZEROS.isSolution(hash.toByteArray(), difficulty));
+        }
+    }
+
+    @Test
+    void leadingZeroBits() {
+        Hashcode hash = Hashcode.SHA256.fromHex("001fac992b0c6053c5eed88049c95939798b299b88489b3fedc5fd13df06f0c1");
+        assertTrue(MiningFunction.LEADING_ZERO_BITS.isSolution(hash, 11));
+        assertFalse(MiningFunction.LEADING_ZERO_BITS.isSolution(hash, 12));
+        assertFalse(MiningFunction.LEADING_ZERO_BITS.isSolution(hash, 257));
+    }
 }
@@ -0,0 +1,100 @@
+package essence.test;
+
+import edu.marist.jointstudy.essence.core.structures.Blockchain;
+import edu.marist.jointstudy.essence.core.structures.PayloadIndex;
+import edu.marist.jointstudy.essence.core.structures.Transaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PayloadIndexTests {
+
+    private Blockchain bc;
+
+    @BeforeEach
+    void setUp() {
+        bc = new Blockchain();
+        bc.add(Arrays.asList(tx("Transfer 10 to account-42"), tx("rent for March")));
+        bc.add(Arrays.asList(tx("transfer 5 to ACCOUNT-7"), tx("accounting notes, transfer pending")));
+    }
+
+    private static Transaction tx(String payload) {
+        return Transaction.wrapUnsafeNoId(payload, "key", "sig-" + payload);
+    }
+
+    private List<Integer> find(Blockchain bc, String query) {
+        return ids(bc.findTransactionsByPayload(query, 0, 100).getTransactions());
+    }
+
+    private static List<Integer> ids(List<Transaction> txs) {
+        return txs.stream().map(Transaction::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    void splitsPayloadsIntoLowercaseWords() {
+        assertEquals(Arrays.asList("transfer", "10", "to", "account", "42"),
+                PayloadIndex.words("Transfer 10 to account-42, to ACCOUNT 42"));
+        assertTrue(PayloadIndex.words(" -- ").isEmpty());
+    }
+
+    @Test
+    void findsTransactionsWithEveryWordOldestFirst() {
+        assertEquals(Arrays.asList(0, 2, 3), find(bc, "transfer"));
+        assertEquals(Arrays.asList(0, 2), find(bc, "TRANSFER account"));
+        assertEquals(Collections.singletonList(1), find(bc, "march"));
+        assertEquals(Collections.emptyList(), find(bc, "transfer march"));
+        assertEquals(Collections.emptyList(), find(bc, "nothing"));
+    }
+
+    @Test
+    void findsWordsByPrefix() {
+        assertEquals(Arrays.asList(0, 2, 3), find(bc, "acc*"));
+        assertEquals(Collections.singletonList(3), find(bc, "acc* pend*"));
+        assertEquals(Collections.emptyList(), find(bc, "acc"));
+    }
+
+    @Test
+    void pagesThroughWhatItFinds() {
+        PayloadIndex.Page page = bc.findTransactionsByPayload("transfer", 1, 1);
+        assertEquals(3, page.getTotal());
+        assertEquals(Collections.singletonList(2), ids(page.getTransactions()));
+
+        // kept up to date as blocks are added, and copies don't share it
+        Blockchain copy = bc.copy();
+        bc.add(Collections.singletonList(tx("transfer back")));
+        assertEquals(4, bc.findTransactionsByPayload("transfer", 0, 100).getTotal());
+        assertEquals(3, copy.findTransactionsByPayload("transfer", 0, 100).getTotal());
+    }
+
+    @Test
+    void readsBackTheSame() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bc.getPayloadIndex().write(new DataOutputStream(bytes));
+        PayloadIndex read = PayloadIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(bc.size(), read.height());
+
+        Blockchain loaded = Blockchain.newUnsafeBlockchain(bc.getCurrentBlock());
+        assertTrue(loaded.usePayloadIndex(read, bc.getCurrentBlock().getHash()));
+        assertEquals(bc.size(), loaded.getPayloadIndexHeight());
+        assertEquals(Arrays.asList(0, 2, 3), find(loaded, "acc*"));
+
+        // not an index of this blockchain's blocks
+        Blockchain other = new Blockchain();
+        other.add(Collections.singletonList(tx("something else")));
+        other.add(Collections.singletonList(tx("and more")));
+        assertFalse(other.usePayloadIndex(read, bc.getCurrentBlock().getHash()));
+        DataInputStream notAnIndex = new DataInputStream(new ByteArrayInputStream(new byte[8]));
+        assertThrows(IOException.class, () -> PayloadIndex.read(notAnIndex));
+    }
+}
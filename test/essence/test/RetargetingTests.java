@@ -0,0 +1,51 @@
+package essence.test;
+
+import edu.marist.jointstudy.essence.core.mine.Retargeting;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetargetingTests {
+
+    // 10 blocks, 1 second each: the window should span 9 seconds
+    private Retargeting retargeting = new Retargeting(10, 1000);
+
+    @Test
+    void retargetsEveryInterval() {
+        assertFalse(retargeting.isRetargetHeight(0));
+        assertFalse(retargeting.isRetargetHeight(9));
+        assertTrue(retargeting.isRetargetHeight(10));
+        assertTrue(retargeting.isRetargetHeight(20));
+    }
+
+    @Test
+    void onTimeKeepsDifficulty() {
+        assertEquals(12, retargeting.nextDifficulty(12, 1_000_000, 1_009_000));
+    }
+
+    @Test
+    void twiceAsFastAddsABit() {
+        assertEquals(13, retargeting.nextDifficulty(12, 1_000_000, 1_004_500));
+    }
+
+    @Test
+    void twiceAsSlowRemovesABit() {
+        assertEquals(11, retargeting.nextDifficulty(12, 1_000_000, 1_018_000));
+    }
+
+    @Test
+    void movesAtMostTwoBits() {
+        assertEquals(14, retargeting.nextDifficulty(12, 1_000_000, 1_000_001));
+        assertEquals(10, retargeting.nextDifficulty(12, 1_000_000, 9_000_000));
+    }
+
+    @Test
+    void staysAboveMinimum() {
+        assertEquals(Retargeting.MIN_DIFFICULTY, retargeting.nextDifficulty(1, 1_000_000, 9_000_000));
+    }
+
+    @Test
+    void missingTimestampsKeepDifficulty() {
+        assertEquals(12, retargeting.nextDifficulty(12, 0, 0));
+    }
+}
@@ -0,0 +1,240 @@
+package essence.test.api;
+
+import com.google.gson.Gson;
+import edu.marist.jointstudy.essence.api.store.BlockLogStore;
+import edu.marist.jointstudy.essence.core.hash.Hashcode;
+import edu.marist.jointstudy.essence.core.structures.Block;
+import edu.marist.jointstudy.essence.core.structures.BlockSource;
+import edu.marist.jointstudy.essence.core.structures.Blockchain;
+import edu.marist.jointstudy.essence.core.structures.PayloadIndex;
+import essence.test.util.Generate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockLogStoreTests {
+
+    private Path directory = Paths.get("./blocklog");
+    private BlockLogStore store;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new BlockLogStore(directory, 256, 1, false); // small segments, so a few blocks span several of them
+    }
+
+    @AfterEach
+    void delete() {
+        assertTrue(store.delete());
+    }
+
+    @Test
+    void emptyDoesNotExist() throws IOException {
+        assertFalse(store.exists());
+        assertFalse(store.get().isPresent());
+    }
+
+    @Test
+    void savedBlockchainCanBeRetrieved() throws IOException {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        Blockchain stored = store.get().get();
+        assertEquals(bc.getCurrentBlock().getHash().toString(), stored.getCurrentBlock().getHash().toString());
+        assertEquals(bc.getCurrentBlock().getTimestamp(), stored.getCurrentBlock().getTimestamp());
+        assertEquals(bc.getCurrentBlock().getHeaderVersion(), stored.getCurrentBlock().getHeaderVersion());
+        assertEquals(bc.getCurrentBlock().getDifficulty(), stored.getCurrentBlock().getDifficulty());
+        assertEquals(bc.getLastTransactionId(), stored.getLastTransactionId());
+        assertTrue(stored.isMined());
+    }
+
+    @Test
+    void savingAGrownBlockchainAppends() throws IOException {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        bc.add(Generate.singleTransactionList());
+        store.save(bc);
+        assertEquals(3, store.size());
+        assertEquals(bc.getCurrentBlock().getHash().toString(), store.get().get().getCurrentBlock().getHash().toString());
+    }
+
+    @Test
+    void savingAGrownLazyBlockchainOnlyDecodesTheNewBlocks() throws IOException {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        List<Block> blocks = bc.blocksByHeight();
+        List<Integer> decoded = new ArrayList<>();
+        Blockchain lazy = Blockchain.newLazyBlockchain(new BlockSource() {
+            @Override
+            public int size() {
+                return blocks.size();
+            }
+
+            @Override
+            public Block get(int height) {
+                decoded.add(height);
+                return blocks.get(height);
+            }
+
+            @Override
+            public Hashcode hash(int height) {
+                return blocks.get(height).getHash();
+            }
+        });
+        lazy.add(Generate.singleTransactionList());
+        decoded.clear();
+        store.save(lazy);
+        assertEquals(3, store.size());
+        assertEquals(Collections.emptyList(), decoded);
+        assertEquals(lazy.getCurrentBlock().getHash().toString(), store.tipHash().get().toString());
+    }
+
+    @Test
+    void tipHashIsTheHighestBlocksHash() throws IOException {
+        assertFalse(store.tipHash().isPresent());
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        assertEquals(bc.getCurrentBlock().getHash().toString(), store.tipHash().get().toString());
+    }
+
+    @Test
+    void reopenedLogHasTheSameBlocks() throws IOException {
+        store.save(Generate.twoBlockBlockchain());
+        store.close();
+        store = new BlockLogStore(directory, 256, 1, false);
+        assertEquals(2, store.size());
+        assertTrue(store.get().get().isMined());
+    }
+
+    @Test
+    void divergingBlockchainReplacesTheDifferentBlocks() throws IOException {
+        Blockchain ours = Generate.twoBlockBlockchain();
+        store.save(ours);
+        Blockchain theirs = new Blockchain(Generate.fixedClock());
+        theirs.add(Generate.singleTransactionList());
+        theirs.add(Generate.singleTransactionList());
+        theirs.add(Generate.singleTransactionList());
+        store.save(theirs);
+
+        assertEquals(3, store.size());
+        Block stored = store.get().get().getCurrentBlock();
+        assertEquals(theirs.getCurrentBlock().getHash().toString(), stored.getHash().toString());
+        assertEquals(theirs.getBlock(1).get().getHash().toString(), stored.getPreviousBlock().getHash().toString());
+    }
+
+    @Test
+    void tornWriteIsCutOff() throws IOException {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        store.close();
+        // as if the last block was only half written when the power went out
+        try (RandomAccessFile last = new RandomAccessFile(directory.resolve("blocks-00001.log").toFile(), "rw")) {
+            last.setLength(last.length() / 2);
+        }
+        store = new BlockLogStore(directory, 256, 1, false);
+        assertEquals(1, store.size());
+        assertEquals(bc.getBlock(0).get().getHash().toString(), store.get().get().getCurrentBlock().getHash().toString());
+    }
+
+    @Test
+    void mappedBlockchainIsTheSame() throws IOException {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        store.close();
+        store = new BlockLogStore(directory, 256, 1, true);
+        Blockchain mapped = store.get().get();
+
+        assertEquals(2, mapped.size());
+        assertTrue(mapped.isMined());
+        assertEquals(bc.getCurrentBlock().getPreviousBlock().getHash().toString(),
+                mapped.getCurrentBlock().getPreviousBlock().getHash().toString());
+        assertEquals(1, mapped.findTransaction(1).get().getId());
+        assertEquals(5, mapped.findTransaction(5).get().getId());
+        assertFalse(mapped.findTransaction(6).isPresent());
+        Gson gson = Generate.defaultGson();
+        assertEquals(gson.toJson(bc), gson.toJson(mapped));
+    }
+
+    @Test
+    void mappedBlockchainOutlivesTheLogBeingCutBack() throws IOException {
+        store.close();
+        store = new BlockLogStore(directory, 256, 1, true);
+        Blockchain ours = Generate.twoBlockBlockchain();
+        store.save(ours);
+        Blockchain mapped = store.get().get();
+
+        Blockchain theirs = new Blockchain(Generate.fixedClock());
+        theirs.add(Generate.singleTransactionList());
+        theirs.add(Generate.singleTransactionList());
+        theirs.add(Generate.singleTransactionList());
+        store.save(theirs);
+
+        assertEquals(ours.getBlock(0).get().getHash().toString(), mapped.getBlock(0).get().getHash().toString());
+        assertTrue(mapped.isMined());
+    }
+
+    @Test
+    void mappedBlocksFiltersAreReadFromTheLog() throws IOException {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        store.close();
+        store = new BlockLogStore(directory, 256, 1, true);
+        Blockchain mapped = store.get().get();
+        for(int h = 0; h < bc.size(); h++) {
+            assertArrayEquals(bc.getFilter(h).get().toByteArray(), mapped.getFilter(h).get().toByteArray());
+        }
+        assertFalse(mapped.getFilter(2).isPresent());
+    }
+
+    @Test
+    void mappedBlockchainIndexesStoredBlocksBySigner() throws IOException {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        store.close();
+        store = new BlockLogStore(directory, 256, 1, true);
+        Blockchain mapped = store.get().get();
+        mapped.indexSigners();
+        Hashcode signer = bc.getCurrentBlock().getTransactions().get(0).getPublicKeyHash();
+        assertEquals(bc.countTransactionsSignedBy(signer), mapped.countTransactionsSignedBy(signer));
+        assertEquals(bc.findTransactionsSignedBy(signer, 0, 100).size(),
+                mapped.findTransactionsSignedBy(signer, 0, 100).size());
+    }
+
+    @Test
+    void mappedBlockchainPagesThroughStoredTransactions() throws IOException {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        store.close();
+        store = new BlockLogStore(directory, 256, 1, true);
+        Blockchain mapped = store.get().get();
+        int first = bc.getBlock(0).get().getTransactions().get(0).getId();
+        assertEquals(bc.getTransactionsAfter(first, 100).get().size(),
+                mapped.getTransactionsAfter(first, 100).get().size());
+        assertEquals(bc.getLatestTransactions(100).size(), mapped.getLatestTransactions(100).size());
+    }
+
+    @Test
+    void payloadIndexIsWrittenOnCloseAndReadBack() throws IOException {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        String word = PayloadIndex.words(bc.getCurrentBlock().getTransactions().get(0).getPayload()).get(0);
+        int found = bc.findTransactionsByPayload(word, 0, 100).getTotal();
+        store.close();
+        assertTrue(Files.exists(directory.resolve("payloads.idx")));
+
+        store = new BlockLogStore(directory, 256, 1, true);
+        Blockchain mapped = store.get().get();
+        // nothing left to index
+        assertEquals(mapped.size(), mapped.getPayloadIndexHeight());
+        assertEquals(found, mapped.findTransactionsByPayload(word, 0, 100).getTotal());
+    }
+}
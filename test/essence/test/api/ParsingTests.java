@@ -1,13 +1,27 @@
 package essence.test.api;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import edu.marist.jointstudy.essence.api.parse.BlockchainStream;
+import edu.marist.jointstudy.essence.core.mine.Nonce;
+import edu.marist.jointstudy.essence.core.structures.Block;
 import edu.marist.jointstudy.essence.core.structures.Blockchain;
 import essence.test.util.Generate;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ParsingTests {
 
@@ -16,9 +30,74 @@ public class ParsingTests {
     @Nested
     class BlockchainParsing {
         String bcString = "{\n" +
+                "  \"version\": 2,\n" +
+                "  \"blocks\": [\n" +
+                "    {\n" +
+                "      \"id\": 0,\n" +
+                "      \"nonce\": \"5107\",\n" +
+                "      \"difficulty\": 12,\n" +
+                "      \"timestamp\": 1498867200000,\n" +
+                "      \"hash\": \"000dfd5314e82e4090b23ea949433ef65f426434690ba46f9dbead0895d2ae73\",\n" +
+                "      \"previousHash\": null,\n" +
+                "      \"transactions\": [\n" +
+                "        {\n" +
+                "          \"id\": 0,\n" +
+                "          \"publicKey\": \"World\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Hello\"\n" +
+                "        },\n" +
+                "        {\n" +
+                "          \"id\": 1,\n" +
+                "          \"publicKey\": \"Universe\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Hi\"\n" +
+                "        },\n" +
+                "        {\n" +
+                "          \"id\": 2,\n" +
+                "          \"publicKey\": \"Space\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Howdy\"\n" +
+                "        }\n" +
+                "      ]\n" +
+                "    },\n" +
+                "    {\n" +
+                "      \"id\": 1,\n" +
+                "      \"nonce\": \"8101\",\n" +
+                "      \"difficulty\": 12,\n" +
+                "      \"timestamp\": 1498867200000,\n" +
+                "      \"hash\": \"0009fac2d13fee1b7dde3cd64cbb69644bc5e7fc4ee73d95a7a3e1b9a5d181e0\",\n" +
+                "      \"previousHash\": \"000dfd5314e82e4090b23ea949433ef65f426434690ba46f9dbead0895d2ae73\",\n" +
+                "      \"transactions\": [\n" +
+                "        {\n" +
+                "          \"id\": 3,\n" +
+                "          \"publicKey\": \"World\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Hello\"\n" +
+                "        },\n" +
+                "        {\n" +
+                "          \"id\": 4,\n" +
+                "          \"publicKey\": \"Universe\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Hi\"\n" +
+                "        },\n" +
+                "        {\n" +
+                "          \"id\": 5,\n" +
+                "          \"publicKey\": \"Space\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Howdy\"\n" +
+                "        }\n" +
+                "      ]\n" +
+                "    }\n" +
+                "  ]\n" +
+                "}";
+
+        // version 1, each block nests the one before it
+        String legacyBcString = "{\n" +
                 "  \"currentBlock\": {\n" +
                 "    \"id\": 1,\n" +
                 "    \"nonce\": \"8101\",\n" +
+                "    \"difficulty\": 12,\n" +
+                "    \"timestamp\": 1498867200000,\n" +
                 "    \"hash\": \"0009fac2d13fee1b7dde3cd64cbb69644bc5e7fc4ee73d95a7a3e1b9a5d181e0\",\n" +
                 "    \"transactions\": [\n" +
                 "      {\n" +
@@ -43,6 +122,8 @@ public class ParsingTests {
                 "    \"previousBlock\": {\n" +
                 "      \"id\": 0,\n" +
                 "      \"nonce\": \"5107\",\n" +
+                "      \"difficulty\": 12,\n" +
+                "      \"timestamp\": 1498867200000,\n" +
                 "      \"hash\": \"000dfd5314e82e4090b23ea949433ef65f426434690ba46f9dbead0895d2ae73\",\n" +
                 "      \"transactions\": [\n" +
                 "        {\n" +
@@ -69,10 +150,83 @@ public class ParsingTests {
                 "  }\n" +
                 "}";
 
+        /** What blocks mined now look like, with versioned headers. */
+        String minedBcString = "{\n" +
+                "  \"version\": 2,\n" +
+                "  \"blocks\": [\n" +
+                "    {\n" +
+                "      \"id\": 0,\n" +
+                "      \"nonce\": \"177\",\n" +
+                "      \"headerVersion\": 1,\n" +
+                "      \"difficulty\": 12,\n" +
+                "      \"timestamp\": 1498867200000,\n" +
+                "      \"hash\": \"0007387720bbc5dfeba4ccb0c933ce0b7918a2d2c817d58dd9f95af4fc4f9190\",\n" +
+                "      \"previousHash\": null,\n" +
+                "      \"transactions\": [\n" +
+                "        {\n" +
+                "          \"id\": 0,\n" +
+                "          \"publicKey\": \"World\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Hello\"\n" +
+                "        },\n" +
+                "        {\n" +
+                "          \"id\": 1,\n" +
+                "          \"publicKey\": \"Universe\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Hi\"\n" +
+                "        },\n" +
+                "        {\n" +
+                "          \"id\": 2,\n" +
+                "          \"publicKey\": \"Space\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Howdy\"\n" +
+                "        }\n" +
+                "      ]\n" +
+                "    },\n" +
+                "    {\n" +
+                "      \"id\": 1,\n" +
+                "      \"nonce\": \"203\",\n" +
+                "      \"headerVersion\": 1,\n" +
+                "      \"difficulty\": 12,\n" +
+                "      \"timestamp\": 1498867200001,\n" +
+                "      \"hash\": \"0000d5b32e43ed8001fa24a593c52f7d5106b1e6c45fd99cf4507bfbc60ed155\",\n" +
+                "      \"previousHash\": \"0007387720bbc5dfeba4ccb0c933ce0b7918a2d2c817d58dd9f95af4fc4f9190\",\n" +
+                "      \"transactions\": [\n" +
+                "        {\n" +
+                "          \"id\": 3,\n" +
+                "          \"publicKey\": \"World\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Hello\"\n" +
+                "        },\n" +
+                "        {\n" +
+                "          \"id\": 4,\n" +
+                "          \"publicKey\": \"Universe\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Hi\"\n" +
+                "        },\n" +
+                "        {\n" +
+                "          \"id\": 5,\n" +
+                "          \"publicKey\": \"Space\",\n" +
+                "          \"signature\": \"\",\n" +
+                "          \"payload\": \"Howdy\"\n" +
+                "        }\n" +
+                "      ]\n" +
+                "    }\n" +
+                "  ]\n" +
+                "}";
+
         @Test
         void blockchainToJson() {
             Blockchain bc = Generate.twoBlockBlockchain();
-            assertEquals(bcString, gson.toJson(bc));
+            assertEquals(minedBcString, gson.toJson(bc));
+        }
+
+        @Test
+        void minedBlockchainFromJson() {
+            Blockchain bc = gson.fromJson(minedBcString, Blockchain.class);
+            assertEquals(minedBcString, gson.toJson(bc));
+            assertEquals(Block.HEADER_VERSION, bc.getCurrentBlock().getHeaderVersion());
+            assertTrue(bc.isMined());
         }
 
         @Test
@@ -82,6 +236,27 @@ public class ParsingTests {
             assertEquals(bcString, gson.toJson(bc));
         }
 
+        @Test
+        void blockchainFromLegacyJson() {
+            Blockchain bc = gson.fromJson(legacyBcString, Blockchain.class);
+            assertEquals(bcString, gson.toJson(bc));
+            assertTrue(bc.isMined());
+        }
+
+        @Test
+        void brokenLinkThrows() {
+            String broken = bcString.replace(
+                    "\"previousHash\": \"000dfd5314e82e4090b23ea949433ef65f426434690ba46f9dbead0895d2ae73\"",
+                    "\"previousHash\": \"0000000000000000000000000000000000000000000000000000000000000000\"");
+            assertThrows(JsonParseException.class, () -> gson.fromJson(broken, Blockchain.class));
+        }
+
+        @Test
+        void newerVersionThrows() {
+            String newer = bcString.replace("\"version\": 2", "\"version\": 3");
+            assertThrows(JsonParseException.class, () -> gson.fromJson(newer, Blockchain.class));
+        }
+
         @Test
         void blockchainFromJsonHasCorrectLastTxId() {
             Blockchain bc = gson.fromJson(bcString, Blockchain.class);
@@ -94,5 +269,93 @@ public class ParsingTests {
             Blockchain bc = gson.fromJson(bcString, Blockchain.class);
             assertNotNull(bc.getCurrentBlock().getTransactionsAsMerkleTree());
         }
+
+        @Test
+        void blockchainFromJsonIsIndexed() {
+            Blockchain bc = gson.fromJson(bcString, Blockchain.class);
+            assertEquals(2, bc.size());
+            assertEquals(5, bc.findTransaction(5).get().getId());
+            assertSame(bc.getCurrentBlock(), bc.getBlock(1).get());
+        }
+
+        @Test
+        void blockchainFromJsonWithoutDifficulty() {
+            // blockchains saved before blocks had a difficulty and timestamp
+            String legacy = legacyBcString
+                    .replace("\"difficulty\": 12,", "")
+                    .replace("\"timestamp\": 1498867200000,", "");
+            Blockchain bc = gson.fromJson(legacy, Blockchain.class);
+            assertEquals(12, bc.getCurrentBlock().getDifficulty());
+            assertEquals(0, bc.getCurrentBlock().getTimestamp());
+            assertTrue(bc.isMined());
+        }
+    }
+
+    @Nested
+    class StreamingBlockchainParsing {
+
+        private Blockchain roundTrip(Blockchain bc) throws IOException {
+            StringWriter json = new StringWriter();
+            BlockchainStream.write(bc, gson, new JsonWriter(json));
+            return BlockchainStream.read(gson, new JsonReader(new StringReader(json.toString())));
+        }
+
+        @Test
+        void roundTrip() throws IOException {
+            Blockchain bc = Generate.twoBlockBlockchain();
+            Blockchain parsed = roundTrip(bc);
+            assertEquals(gson.toJson(bc), gson.toJson(parsed));
+            assertTrue(parsed.isMined());
+        }
+
+        @Test
+        void emptyRoundTrip() throws IOException {
+            assertNull(roundTrip(new Blockchain()).getCurrentBlock());
+        }
+
+        @Test
+        void suffixFollowsOnFromEarlierBlocks() throws IOException {
+            Blockchain bc = Generate.twoBlockBlockchain();
+            StringWriter json = new StringWriter();
+            BlockchainStream.writeSuffix(bc, 1, 10, gson, new JsonWriter(json));
+            Block genesis = bc.getBlock(0).get();
+            List<Block> suffix = BlockchainStream.readSuffix(gson, new JsonReader(new StringReader(json.toString())),
+                    genesis);
+            assertEquals(1, suffix.size());
+            assertSame(genesis, suffix.get(0).getPreviousBlock());
+            assertEquals(bc.getCurrentBlock().getHash().toString(), suffix.get(0).getHash().toString());
+            // the suffix doesn't follow on from the wrong block
+            assertThrows(JsonParseException.class, () -> BlockchainStream.readSuffix(gson,
+                    new JsonReader(new StringReader(json.toString())), bc.getCurrentBlock()));
+        }
+
+        @Test
+        void longBlockchainDoesNotOverflowTheStack() throws IOException {
+            Block current = null;
+            for(int i = 0; i < 20_000; i++) {
+                current = Block.newUnsafeBlock(Generate.singleTransactionListWithId(i), current, Nonce.newZeroNonce());
+            }
+            Blockchain parsed = roundTrip(Blockchain.newUnsafeBlockchain(current));
+            assertEquals(20_000, parsed.size());
+            assertEquals(current.getHash().toString(), parsed.getCurrentBlock().getHash().toString());
+        }
+
+        @Test
+        void longLegacyBlockchainDoesNotOverflowTheStack() {
+            StringBuilder nested = new StringBuilder("{\"currentBlock\": ");
+            for(int i = 19_999; i >= 0; i--) {
+                nested.append("{\"nonce\": \"0\", \"transactions\": [{\"id\": ").append(i)
+                        .append(", \"publicKey\": \"World\", \"signature\": \"\", \"payload\": \"Hello\"}], ")
+                        .append("\"previousBlock\": ");
+            }
+            nested.append("null");
+            for(int i = 0; i < 20_000; i++) {
+                nested.append("}");
+            }
+            nested.append("}");
+            Blockchain parsed = gson.fromJson(nested.toString(), Blockchain.class);
+            assertEquals(20_000, parsed.size());
+            assertEquals(19_999, parsed.getLastTransactionId().getAsInt());
+        }
     }
 }
@@ -0,0 +1,85 @@
+package essence.test.api;
+
+import edu.marist.jointstudy.essence.api.server.ResponseCache;
+import edu.marist.jointstudy.essence.core.structures.Blockchain;
+import essence.test.util.Generate;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseCacheTests {
+
+    private ResponseCache cache = new ResponseCache(2, true);
+
+    private int renders = 0;
+
+    private Optional<String> render() {
+        renders++;
+        return Optional.of("{\"render\": " + renders + "}");
+    }
+
+    @Test
+    void hitsAreNotRenderedAgain() {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        ResponseCache.Body first = cache.get(bc, "block/0", this::render).get();
+        assertSame(first, cache.get(bc, "block/0", this::render).get());
+        assertEquals(1, renders);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void growingTheBlockchainKeepsTheBodies() {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        cache.get(bc, "block/0", this::render);
+        bc.add(Generate.singleTransactionList());
+        cache.get(bc, "block/0", this::render);
+        assertEquals(1, renders);
+    }
+
+    @Test
+    void replacingTheBlockchainDropsTheBodies() {
+        cache.get(Generate.twoBlockBlockchain(), "block/0", this::render);
+        Blockchain other = new Blockchain(Generate.fixedClock());
+        other.add(Generate.singleTransactionList());
+        other.add(Generate.singleTransactionList());
+        cache.get(other, "block/0", this::render);
+        assertEquals(2, renders);
+    }
+
+    @Test
+    void leastRecentlyUsedBodyIsDropped() {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        cache.get(bc, "a", this::render);
+        cache.get(bc, "b", this::render);
+        cache.get(bc, "a", this::render);
+        cache.get(bc, "c", this::render);
+        assertEquals(2, cache.size());
+        cache.get(bc, "a", this::render);
+        assertEquals(3, renders);
+    }
+
+    @Test
+    void nothingToRenderIsNotCached() {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        assertFalse(cache.get(bc, "block/9", Optional::empty).isPresent());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void gzippedBodyIsTheSameJson() throws IOException {
+        ResponseCache.Body body = cache.get(Generate.twoBlockBlockchain(), "block/0", this::render).get();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body.gzipped().get()))) {
+            String json = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+            assertEquals(new String(body.utf8(), StandardCharsets.UTF_8), json);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package essence.test.api;
+
+import edu.marist.jointstudy.essence.api.store.BlockLogStore;
+import edu.marist.jointstudy.essence.api.store.WriteBehindStore;
+import edu.marist.jointstudy.essence.core.structures.Blockchain;
+import essence.test.util.Generate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBehindStoreTests {
+
+    private Path directory = Paths.get("./writebehind");
+    private BlockLogStore log;
+    private WriteBehindStore<Blockchain> store;
+
+    @BeforeEach
+    void open() throws IOException {
+        log = new BlockLogStore(directory, 256, 1, false);
+        store = new WriteBehindStore<>(log);
+    }
+
+    @AfterEach
+    void delete() {
+        assertTrue(store.delete());
+    }
+
+    @Test
+    void savedBlockchainIsTheOneInMemory() throws IOException {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        assertSame(bc, store.get().get());
+        assertSame(bc, store.current());
+    }
+
+    @Test
+    void savedBlockchainIsWrittenBehind() throws IOException {
+        Blockchain bc = Generate.twoBlockBlockchain();
+        store.save(bc);
+        store.flush();
+        assertEquals(2, log.size());
+        assertEquals(bc.getCurrentBlock().getHash().toString(), log.tipHash().get().toString());
+    }
+
+    @Test
+    void storedBlockchainIsReadOnce() throws IOException {
+        log.save(Generate.twoBlockBlockchain());
+        Blockchain read = store.get().get();
+        assertEquals(2, read.size());
+        assertSame(read, store.get().get());
+    }
+
+    @Test
+    void conditionalSaveOnlyReplacesWhatWasExpected() throws IOException {
+        Blockchain ours = Generate.twoBlockBlockchain();
+        store.save(ours);
+        Blockchain friends = Generate.twoBlockBlockchain();
+        assertTrue(store.save(ours, friends));
+        assertSame(friends, store.current());
+
+        // built from a blockchain that's been replaced since
+        assertFalse(store.save(ours, ours));
+        assertSame(friends, store.current());
+        store.flush();
+        assertEquals(friends.getCurrentBlock().getHash().toString(), log.tipHash().get().toString());
+    }
+
+    @Test
+    void conditionalSaveReadsTheOtherStoreFirst() throws IOException {
+        log.save(Generate.twoBlockBlockchain());
+        assertFalse(store.save(null, new Blockchain()));
+        assertEquals(2, store.get().get().size());
+    }
+
+    @Test
+    void sharedStoreIsTheSameStore() {
+        assertSame(store, WriteBehindStore.of(store));
+    }
+}
@@ -0,0 +1,56 @@
+package essence.test.security;
+
+import edu.marist.jointstudy.essence.core.security.KeyFile;
+import edu.marist.jointstudy.essence.core.security.SignatureScheme;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.Signature;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyFileTests {
+
+    private Path directory = Paths.get("./keyfile");
+    private Path file = directory.resolve(KeyFile.name(SignatureScheme.DSA));
+
+    @AfterEach
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void missingFileHasNoKeys() throws IOException {
+        assertFalse(KeyFile.load(file, SignatureScheme.DSA).isPresent());
+    }
+
+    @Test
+    void savedKeysCanBeLoadedAndSignWith() throws Exception {
+        KeyPair keys = SignatureScheme.DSA.generateKeyPair();
+        KeyFile.save(file, SignatureScheme.DSA, keys);
+        KeyPair loaded = KeyFile.load(file, SignatureScheme.DSA).get();
+        assertArrayEquals(keys.getPublic().getEncoded(), loaded.getPublic().getEncoded());
+
+        Signature signer = SignatureScheme.DSA.newSignature();
+        signer.initSign(loaded.getPrivate());
+        signer.update("hello".getBytes(StandardCharsets.UTF_8));
+        byte[] signature = signer.sign();
+        Signature verifier = SignatureScheme.DSA.newSignature();
+        verifier.initVerify(keys.getPublic());
+        verifier.update("hello".getBytes(StandardCharsets.UTF_8));
+        assertTrue(verifier.verify(signature));
+    }
+
+    @Test
+    void keysOfAnotherSchemeAreRefused() throws Exception {
+        KeyFile.save(file, SignatureScheme.DSA, SignatureScheme.DSA.generateKeyPair());
+        assertThrows(IOException.class, () -> KeyFile.load(file, SignatureScheme.ECDSA_P256));
+    }
+}
@@ -0,0 +1,79 @@
+package essence.test.security;
+
+import com.google.gson.Gson;
+import edu.marist.jointstudy.essence.api.parse.GsonSingleton;
+import edu.marist.jointstudy.essence.api.store.BlockCodec;
+import edu.marist.jointstudy.essence.core.security.SignatureScheme;
+import edu.marist.jointstudy.essence.core.structures.Block;
+import edu.marist.jointstudy.essence.core.structures.Blockchain;
+import edu.marist.jointstudy.essence.core.structures.Transaction;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.bind.DatatypeConverter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SignatureSchemeTests {
+
+    private final Gson gson = GsonSingleton.INSTANCE.get();
+
+    /** @return a transaction signed with a new key pair of the scheme. */
+    private static Transaction sign(SignatureScheme scheme, String payload) throws Exception {
+        KeyPair pair = scheme.generateKeyPair();
+        Signature signer = scheme.newSignature();
+        signer.initSign(pair.getPrivate());
+        signer.update(payload.getBytes(StandardCharsets.UTF_8));
+        return Transaction.wrapUnsafe(payload,
+                DatatypeConverter.printHexBinary(pair.getPublic().getEncoded()).toLowerCase(),
+                DatatypeConverter.printHexBinary(signer.sign()),
+                scheme == SignatureScheme.DSA ? null : scheme.getTag(), 0);
+    }
+
+    @Test
+    void everyAvailableSchemeVerifiesItsOwnSignaturesOnly() throws Exception {
+        for(SignatureScheme scheme : SignatureScheme.values()) {
+            if(!scheme.isAvailable()) {
+                continue;
+            }
+            Transaction t = sign(scheme, "hello " + scheme);
+            assertTrue(t.isVerified(), scheme.toString());
+            Transaction tampered = Transaction.wrapUnsafe("goodbye", t.getPublicKey(), t.getSignature(), t.getScheme(), 0);
+            assertFalse(tampered.isVerified(), scheme.toString());
+        }
+    }
+
+    @Test
+    void untaggedTransactionsAreDsa() {
+        assertEquals(SignatureScheme.DSA, SignatureScheme.fromTag(null).get());
+        assertFalse(SignatureScheme.fromTag("rot13").isPresent());
+        assertFalse(Transaction.wrapUnsafe("hi", "ab", "cd", "rot13", 0).isVerified());
+    }
+
+    @Test
+    void mixedSchemeBlockchainsVerify() throws Exception {
+        Blockchain bc = new Blockchain();
+        bc.add(Arrays.asList(Transaction.newTransaction("hello"), sign(SignatureScheme.ECDSA_P256, "world")));
+        assertTrue(bc.isVerified());
+    }
+
+    @Test
+    void schemeSurvivesJsonAndStorage() throws Exception {
+        Transaction dsa = sign(SignatureScheme.DSA, "hello");
+        Transaction p256 = sign(SignatureScheme.ECDSA_P256, "world");
+        assertFalse(gson.toJson(dsa).contains("scheme"));
+
+        Transaction parsed = gson.fromJson(gson.toJson(p256), Transaction.class);
+        assertEquals(p256, parsed);
+        assertTrue(parsed.isVerified());
+
+        Block b = Block.newBlock(Arrays.asList(dsa, p256), null);
+        Block decoded = BlockCodec.decode(ByteBuffer.wrap(BlockCodec.encode(b)), null);
+        assertEquals(b.getTransactions(), decoded.getTransactions());
+        assertEquals(b.getHash().toString(), decoded.getHash().toString());
+    }
+}
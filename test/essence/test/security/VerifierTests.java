@@ -0,0 +1,48 @@
+package essence.test.security;
+
+import edu.marist.jointstudy.essence.core.security.Security;
+import edu.marist.jointstudy.essence.core.security.Verifier;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VerifierTests {
+
+    private final Security s = Security.INSTANCE;
+
+    @Test
+    void signaturesAreOnlyVerifiedOnce() throws Exception {
+        Verifier verifier = new Verifier(10, 10);
+        String signature = s.sign("hello world");
+        assertTrue(verifier.isVerified(s.getScheme(), "hello world", s.getPublicKeyHexadecimal(), signature));
+        assertTrue(verifier.isVerified(s.getScheme(), "hello world", s.getPublicKeyHexadecimal(), signature));
+        assertEquals(1, verifier.misses());
+        assertEquals(1, verifier.hits());
+    }
+
+    @Test
+    void tamperedDataIsNotVerified() throws Exception {
+        Verifier verifier = new Verifier(10, 10);
+        String signature = s.sign("hello world");
+        assertTrue(verifier.isVerified(s.getScheme(), "hello world", s.getPublicKeyHexadecimal(), signature));
+        assertFalse(verifier.isVerified(s.getScheme(), "hello world!", s.getPublicKeyHexadecimal(), signature));
+        assertFalse(verifier.isVerified(s.getScheme(), "hello world!", s.getPublicKeyHexadecimal(), signature));
+    }
+
+    @Test
+    void malformedKeysAndSignaturesAreNotVerified() throws Exception {
+        Verifier verifier = new Verifier(10, 10);
+        assertFalse(verifier.isVerified(s.getScheme(), "hello world", "abcd", s.sign("hello world")));
+        assertFalse(verifier.isVerified(s.getScheme(), "hello world", s.getPublicKeyHexadecimal(), "not hex"));
+        assertFalse(verifier.isVerified(s.getScheme(), "hello world", s.getPublicKeyHexadecimal(), null));
+    }
+
+    @Test
+    void leastRecentlyUsedResultsAreDropped() throws Exception {
+        Verifier verifier = new Verifier(2, 1);
+        for(String data : new String[] {"a", "b", "c"}) {
+            assertTrue(verifier.isVerified(s.getScheme(), data, s.getPublicKeyHexadecimal(), s.sign(data)));
+        }
+        assertEquals(2, verifier.size());
+    }
+}
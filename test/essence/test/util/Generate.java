@@ -5,6 +5,9 @@ import edu.marist.jointstudy.essence.api.parse.GsonSingleton;
 import edu.marist.jointstudy.essence.core.structures.Blockchain;
 import edu.marist.jointstudy.essence.core.structures.Transaction;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.List;
 
@@ -57,8 +60,13 @@ public enum Generate {
         );
     }
 
+    /** A clock stuck at 2017-07-01T00:00:00Z, so blocks get the same timestamps every run. */
+    public static Clock fixedClock() {
+        return Clock.fixed(Instant.parse("2017-07-01T00:00:00Z"), ZoneOffset.UTC);
+    }
+
     public static Blockchain twoBlockBlockchain() {
-        Blockchain bc = new Blockchain();
+        Blockchain bc = new Blockchain(fixedClock());
         bc.add(threeTransactionList());
         bc.add(threeTransactionList());
         return bc;